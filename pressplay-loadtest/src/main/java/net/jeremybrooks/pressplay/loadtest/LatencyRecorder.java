@@ -0,0 +1,116 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Records the latency of each request of one kind, and the requests that failed or were skipped.
+ *
+ * <p>Every latency is kept, so percentiles are exact. At the rates a load test runs at, this is a
+ * few megabytes at most.</p>
+ *
+ * <p>Throughput is counted from the requests that complete before the end of the measured window,
+ * so requests that finish while the test drains do not raise it.</p>
+ */
+final class LatencyRecorder {
+    private long[] latencies = new long[1024];
+    private int count;
+    private int completedInWindow;
+    private long errors;
+    private long skipped;
+
+    synchronized void record(long nanos) {
+        record(nanos, true);
+    }
+
+    synchronized void record(long nanos, boolean inWindow) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = nanos;
+        if (inWindow) {
+            completedInWindow++;
+        }
+    }
+
+    synchronized void error() {
+        errors++;
+    }
+
+    /* A request that had nothing to do, such as a stop when nothing is playing. */
+    synchronized void skip() {
+        skipped++;
+    }
+
+    synchronized Snapshot snapshot() {
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return new Snapshot(sorted, completedInWindow, errors, skipped);
+    }
+
+    /**
+     * The latencies recorded up to a point in time.
+     */
+    static final class Snapshot {
+        private final long[] sorted;
+        private final int completedInWindow;
+        private final long errors;
+        private final long skipped;
+
+        private Snapshot(long[] sorted, int completedInWindow, long errors, long skipped) {
+            this.sorted = sorted;
+            this.completedInWindow = completedInWindow;
+            this.errors = errors;
+            this.skipped = skipped;
+        }
+
+        int getCount() {
+            return sorted.length;
+        }
+
+        /* Requests that completed before the end of the measured window. */
+        int getCompletedInWindow() {
+            return completedInWindow;
+        }
+
+        long getErrors() {
+            return errors;
+        }
+
+        long getSkipped() {
+            return skipped;
+        }
+
+        /* Nearest rank percentile, in nanoseconds. Zero if nothing was recorded. */
+        long percentile(double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            // allow for rounding, so that 99.9% of 2000 is rank 1998 and not 1999
+            int rank = (int) Math.ceil(percentile * sorted.length / 100.0 - 1e-9);
+            return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+        }
+
+        long max() {
+            return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay.loadtest;
+
+import net.jeremybrooks.pressplay.ExecutionMode;
+import net.jeremybrooks.pressplay.PressPlay;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how FFProbe and FFPlay behave under many concurrent requests.
+ *
+ * <p>PressPlay is pointed at stub ffprobe, ffplay and ffmpeg scripts with a controllable latency,
+ * output size and failure rate, so the test measures PressPlay and the cost of starting processes,
+ * and not the speed of decoding. An open loop mix of probe, play and stop requests is run at a fixed
+ * rate, and the throughput and latency percentiles of each kind of request are reported, along with
+ * the peak number of live processes and JVM threads. The process counts include the helper
+ * processes the stub scripts start, as well as the stubs themselves. Each request blocks a thread
+ * of the test harness, so the platform threads that PressPlay starts are counted separately from
+ * the harness threads. In virtual mode, PressPlay's threads are not platform threads, and are not
+ * counted.</p>
+ *
+ * <p>Settings are given as {@code key=value} arguments:</p>
+ * <pre>
+ * {@code
+ *   mvn -q compile exec:java -Dexec.args="rate=200 duration=30 mix=probe:70,play:20,stop:10 latency=20"
+ * }
+ * </pre>
+ */
+public final class LoadTest {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Arguments, all optional:",
+            "  duration=SECONDS     length of the measured part of the test (default 30)",
+            "  warmup=SECONDS       requests before this are not measured (default 5)",
+            "  rate=N               requests started per second (default 100)",
+            "  mix=probe:P,play:P,stop:P   percentage of each request (default probe:70,play:20,stop:10)",
+            "  latency=MS           time each stub waits before doing anything (default 20)",
+            "  jitter=MS            random extra latency, up to this (default 10)",
+            "  output=BYTES         extra output written by each stub (default 1024)",
+            "  failures=FRACTION    fraction of stub runs that exit with an error (default 0.01)",
+            "  play=MS              how long the ffplay stub plays for (default 2000)",
+            "  mode=platform|virtual   PressPlay execution mode (default platform)",
+            "  stubs=DIRECTORY      where to install the stubs (default a temporary directory)");
+
+    private LoadTest() {
+    }
+
+    /**
+     * Settings for a load test.
+     */
+    static final class Options {
+        long durationSeconds = 30;
+        long warmupSeconds = 5;
+        double rate = 100;
+        int probePercent = 70;
+        int playPercent = 20;
+        int stopPercent = 10;
+        long latencyMillis = 20;
+        long jitterMillis = 10;
+        long outputBytes = 1024;
+        double failureRate = 0.01;
+        long playMillis = 2000;
+        String mode = "platform";
+        Path stubs;
+
+        /* Parse key=value arguments. Throws IllegalArgumentException for anything that is not valid. */
+        static Options parse(String... args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (equals < 1) {
+                    throw new IllegalArgumentException("Expected key=value but got " + arg);
+                }
+                String key = arg.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+                String value = arg.substring(equals + 1).trim();
+                try {
+                    switch (key) {
+                        case "duration":
+                            options.durationSeconds = Long.parseLong(value);
+                            break;
+                        case "warmup":
+                            options.warmupSeconds = Long.parseLong(value);
+                            break;
+                        case "rate":
+                            options.rate = Double.parseDouble(value);
+                            break;
+                        case "mix":
+                            options.parseMix(value);
+                            break;
+                        case "latency":
+                            options.latencyMillis = Long.parseLong(value);
+                            break;
+                        case "jitter":
+                            options.jitterMillis = Long.parseLong(value);
+                            break;
+                        case "output":
+                            options.outputBytes = Long.parseLong(value);
+                            break;
+                        case "failures":
+                            options.failureRate = Double.parseDouble(value);
+                            break;
+                        case "play":
+                            options.playMillis = Long.parseLong(value);
+                            break;
+                        case "mode":
+                            options.mode = value.toLowerCase(Locale.ROOT);
+                            break;
+                        case "stubs":
+                            options.stubs = Paths.get(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown setting " + key);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number for " + key + ": " + value);
+                }
+            }
+            if (options.durationSeconds <= 0 || options.warmupSeconds < 0 || options.rate <= 0) {
+                throw new IllegalArgumentException("Duration and rate must be greater than zero.");
+            }
+            if (options.latencyMillis < 0 || options.jitterMillis < 0 || options.outputBytes < 0 || options.playMillis < 0) {
+                throw new IllegalArgumentException("Latency, jitter, output and play cannot be negative.");
+            }
+            if (options.failureRate < 0 || options.failureRate > 1) {
+                throw new IllegalArgumentException("Failures must be between 0 and 1.");
+            }
+            if (!options.mode.equals("platform") && !options.mode.equals("virtual")) {
+                throw new IllegalArgumentException("Mode must be platform or virtual.");
+            }
+            return options;
+        }
+
+        private void parseMix(String value) {
+            probePercent = 0;
+            playPercent = 0;
+            stopPercent = 0;
+            for (String part : value.split(",")) {
+                String[] pair = part.split(":");
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Expected operation:percent in mix but got " + part);
+                }
+                int percent = Integer.parseInt(pair[1].trim());
+                switch (pair[0].trim().toLowerCase(Locale.ROOT)) {
+                    case "probe":
+                        probePercent = percent;
+                        break;
+                    case "play":
+                        playPercent = percent;
+                        break;
+                    case "stop":
+                        stopPercent = percent;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown operation in mix: " + pair[0]);
+                }
+            }
+            if (probePercent < 0 || playPercent < 0 || stopPercent < 0
+                    || probePercent + playPercent + stopPercent != 100) {
+                throw new IllegalArgumentException("Mix percentages must add up to 100.");
+            }
+        }
+
+        /* The operation for a number from 0 to 99. */
+        Workload.Operation pick(int percentile) {
+            if (percentile < probePercent) {
+                return Workload.Operation.PROBE;
+            }
+            return percentile < probePercent + playPercent ? Workload.Operation.PLAY : Workload.Operation.STOP;
+        }
+    }
+
+    /**
+     * Run a load test.
+     *
+     * @param args settings as key=value pairs.
+     * @throws Exception if the stubs cannot be installed, or the test is interrupted.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("help")) {
+            System.out.println(USAGE);
+            return;
+        }
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        Path stubs = options.stubs == null ? Files.createTempDirectory("pressplay-stubs") : options.stubs;
+        StubTools.install(stubs, options);
+
+        // these must be set before any PressPlay class looks for the tools
+        System.setProperty("pressplay.ffmpeg.path", stubs.toAbsolutePath().toString());
+        System.setProperty("pressplay.tools.cache", "none");
+        PressPlay.setExecutionMode(options.mode.equals("virtual") ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM);
+
+        Path media = Files.createTempFile("pressplay-loadtest", ".mp3");
+        media.toFile().deleteOnExit();
+        Workload workload = new Workload(options, media.toString());
+
+        System.out.printf(Locale.ROOT, "Running %d requests/s for %ds after %ds warmup, mix probe:%d play:%d stop:%d, "
+                        + "stub latency %d+%dms, output %d bytes, failures %.2f%%, execution mode %s%n",
+                Math.round(options.rate), options.durationSeconds, options.warmupSeconds,
+                options.probePercent, options.playPercent, options.stopPercent,
+                options.latencyMillis, options.jitterMillis, options.outputBytes, options.failureRate * 100,
+                PressPlay.isUsingVirtualThreads() ? "virtual" : "platform");
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        AtomicLong peakTools = new AtomicLong();
+        AtomicLong peakProcesses = new AtomicLong();
+        AtomicLong peakHarnessThreads = new AtomicLong();
+        AtomicLong peakLibraryThreads = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loadtest-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long started = System.nanoTime();
+        sampler.scheduleAtFixedRate(() -> {
+            long tools = ProcessHandle.current().children().count();
+            long processes = ProcessHandle.current().descendants().count();
+            peakTools.accumulateAndGet(tools, Math::max);
+            peakProcesses.accumulateAndGet(processes, Math::max);
+            long harnessThreads = 0;
+            long libraryThreads = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("loadtest-request")) {
+                    harnessThreads++;
+                } else if (thread.getName().startsWith("pressplay-")) {
+                    libraryThreads++;
+                }
+            }
+            peakHarnessThreads.accumulateAndGet(harnessThreads, Math::max);
+            peakLibraryThreads.accumulateAndGet(libraryThreads, Math::max);
+            System.out.printf(Locale.ROOT, "%5ds  tools %5d  processes %5d  threads %5d  harness %5d  pressplay %5d  in flight %6d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started),
+                    tools, processes, threads.getThreadCount(), harnessThreads, libraryThreads, workload.getInFlight());
+        }, 1, 1, TimeUnit.SECONDS);
+
+        threads.resetPeakThreadCount();
+        workload.run();
+        workload.shutdown(options.latencyMillis + options.jitterMillis + options.playMillis + 5000);
+        sampler.shutdownNow();
+
+        report(workload.getRecorders(), options.durationSeconds);
+        System.out.printf(Locale.ROOT, "Peak live tools %d, peak live processes %d, peak threads %d "
+                        + "(sampled: harness %d, pressplay %d)%n",
+                peakTools.get(), peakProcesses.get(), threads.getPeakThreadCount(),
+                peakHarnessThreads.get(), peakLibraryThreads.get());
+        System.exit(0);
+    }
+
+    /* Throughput only counts requests that completed inside the measured window, so it is the completion rate. */
+    private static void report(Map<Workload.Operation, LatencyRecorder> recorders, long seconds) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-9s %8s %7s %7s %9s %9s %9s %9s %9s%n",
+                "request", "count", "errors", "skipped", "per sec", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Workload.Operation, LatencyRecorder> entry : recorders.entrySet()) {
+            LatencyRecorder.Snapshot snapshot = entry.getValue().snapshot();
+            System.out.printf(Locale.ROOT, "%-9s %8d %7d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey().name().toLowerCase(Locale.ROOT),
+                    snapshot.getCount(), snapshot.getErrors(), snapshot.getSkipped(),
+                    snapshot.getCompletedInWindow() / (double) seconds,
+                    millis(snapshot.percentile(50)), millis(snapshot.percentile(99)),
+                    millis(snapshot.percentile(99.9)), millis(snapshot.max()));
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Locale;
+
+/**
+ * Installs stub ffprobe, ffplay and ffmpeg scripts that behave like the real tools as far as
+ * PressPlay can tell, but do no work.
+ *
+ * <p>Each stub waits for a latency, fails some of the time, and writes some output, all set in
+ * a {@code stub.conf} file next to the stubs. ffprobe prints format metadata, ffplay prints status
+ * lines for the length of a track, and ffmpeg answers capability queries.</p>
+ */
+final class StubTools {
+    private static final String[] FILES = {"stub-common.sh", "ffprobe", "ffplay", "ffmpeg"};
+
+    private StubTools() {
+    }
+
+    /* Copy the stubs to the directory, and write their settings. */
+    static void install(Path directory, LoadTest.Options options) throws IOException {
+        Files.createDirectories(directory);
+        for (String name : FILES) {
+            Path target = directory.resolve(name);
+            try (InputStream in = StubTools.class.getResourceAsStream("/stubs/" + name)) {
+                if (in == null) {
+                    throw new IOException("Missing stub resource " + name);
+                }
+                Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rwxr-xr-x"));
+        }
+        String conf = String.format(Locale.ROOT,
+                "LATENCY_MS=%d%nJITTER_MS=%d%nOUTPUT_BYTES=%d%nFAILURE_PER_10000=%d%nPLAY_MS=%d%n",
+                options.latencyMillis, options.jitterMillis, options.outputBytes,
+                Math.round(options.failureRate * 10000), options.playMillis);
+        Files.write(directory.resolve("stub.conf"), conf.getBytes(StandardCharsets.US_ASCII));
+    }
+}
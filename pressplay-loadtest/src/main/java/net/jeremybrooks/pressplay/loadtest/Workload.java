@@ -0,0 +1,245 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay.loadtest;
+
+import net.jeremybrooks.pressplay.FFPlay;
+import net.jeremybrooks.pressplay.FFProbe;
+import net.jeremybrooks.pressplay.MediaMetadata;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives an open loop mix of probe, play and stop requests.
+ *
+ * <p>Requests are started on a fixed schedule whether or not earlier requests have finished, the
+ * way requests arrive at a server. Latency is measured from the time a request was scheduled to
+ * start, not the time it did start, so a backlog shows up as latency instead of being hidden by a
+ * slower request rate.</p>
+ *
+ * <ul>
+ *     <li>probe: read the metadata with FFProbe; latency is until the metadata is returned.</li>
+ *     <li>play: start an FFPlay; latency is until the first position update.</li>
+ *     <li>stop: stop a player that is playing; latency is until stop returns.</li>
+ * </ul>
+ */
+final class Workload {
+
+    enum Operation {
+        PROBE, PLAY, STOP
+    }
+
+    private final LoadTest.Options options;
+    private final String media;
+    private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+    private final Queue<FFPlay<String>> playing = new ConcurrentLinkedQueue<>();
+    /* Every player that may still be running, whether or not it has reported a position. */
+    private final Set<FFPlay<String>> started = ConcurrentHashMap.newKeySet();
+    private final AtomicLong inFlight = new AtomicLong();
+    private volatile long windowEnd;
+    private final ExecutorService requests = Executors.newCachedThreadPool(daemon("loadtest-request"));
+    private final ScheduledExecutorService timers = Executors.newSingleThreadScheduledExecutor(daemon("loadtest-timer"));
+
+    Workload(LoadTest.Options options, String media) {
+        this.options = options;
+        this.media = media;
+        for (Operation operation : Operation.values()) {
+            recorders.put(operation, new LatencyRecorder());
+        }
+    }
+
+    /*
+     * Start requests at the configured rate until the warmup and the test have both run.
+     * Requests started during the warmup are not recorded.
+     */
+    void run() {
+        Random random = new Random();
+        long interval = (long) (1_000_000_000L / options.rate);
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        windowEnd = end;
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * interval;
+            if (scheduled - end >= 0) {
+                break;
+            }
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = options.pick(random.nextInt(100));
+            LatencyRecorder recorder = scheduled - measureFrom >= 0 ? recorders.get(operation) : new LatencyRecorder();
+            inFlight.incrementAndGet();
+            requests.execute(() -> {
+                try {
+                    execute(operation, scheduled, recorder);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    /*
+     * Wait for requests to finish, stop every player that was started, and release the threads.
+     * Then wait for the players to exit, so that none is still removing its shutdown hook when
+     * the JVM exits.
+     */
+    void shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        requests.shutdownNow();
+        timers.shutdownNow();
+        requests.awaitTermination(1, TimeUnit.SECONDS);
+        playing.clear();
+        for (FFPlay<String> player : started) {
+            player.stop();
+        }
+        started.clear();
+        deadline = System.currentTimeMillis() + 5000;
+        while ((ProcessHandle.current().children().count() > 0 || playerThreadsAlive())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static boolean playerThreadsAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("pressplay-play") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Map<Operation, LatencyRecorder> getRecorders() {
+        return recorders;
+    }
+
+    long getInFlight() {
+        return inFlight.get();
+    }
+
+    private void execute(Operation operation, long scheduled, LatencyRecorder recorder) {
+        switch (operation) {
+            case PROBE:
+                probe(scheduled, recorder);
+                break;
+            case PLAY:
+                play(scheduled, recorder);
+                break;
+            default:
+                stop(scheduled, recorder);
+                break;
+        }
+    }
+
+    private void probe(long scheduled, LatencyRecorder recorder) {
+        try {
+            MediaMetadata metadata = FFProbe.getMediaMetadata(media);
+            if (metadata == null) {
+                recorder.error();
+            } else {
+                complete(recorder, scheduled);
+            }
+        } catch (Exception e) {
+            recorder.error();
+        }
+    }
+
+    /*
+     * The player only counts as playing, and can only be stopped, once it reports a position.
+     * It is stopped and forgotten once the stub should have finished playing.
+     */
+    private void play(long scheduled, LatencyRecorder recorder) {
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<FFPlay<String>> self = new AtomicReference<>();
+        FFPlay<String> player = new FFPlay.Builder<String>()
+                .media(media)
+                .noMetadata()
+                .onPosition(position -> {
+                    if (done.compareAndSet(false, true)) {
+                        complete(recorder, scheduled);
+                        playing.add(self.get());
+                    }
+                }, Duration.ZERO)
+                .onFailure(failure -> {
+                    if (done.compareAndSet(false, true)) {
+                        recorder.error();
+                    }
+                })
+                .build();
+        self.set(player);
+        started.add(player);
+        player.play();
+        timers.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                // did not report a position in time
+                recorder.error();
+            }
+            playing.remove(player);
+            started.remove(player);
+            player.stop();
+        }, options.latencyMillis + options.jitterMillis + options.playMillis + 5000, TimeUnit.MILLISECONDS);
+    }
+
+    private void stop(long scheduled, LatencyRecorder recorder) {
+        FFPlay<String> player = playing.poll();
+        if (player == null) {
+            recorder.skip();
+            return;
+        }
+        player.stop();
+        complete(recorder, scheduled);
+    }
+
+    /* Record the latency, and whether the request completed before the end of the measured window. */
+    private void complete(LatencyRecorder recorder, long scheduled) {
+        long now = System.nanoTime();
+        recorder.record(now - scheduled, now - windowEnd < 0);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
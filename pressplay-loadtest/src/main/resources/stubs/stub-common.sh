@@ -0,0 +1,71 @@
+#!/bin/sh
+#
+# PressPlay is Copyright 2022-2025 by Jeremy Brooks
+#
+# This file is part of PressPlay.
+#
+# PressPlay is free software: you can redistribute it and/or modify
+# it under the terms of the GNU General Public License as published by
+# the Free Software Foundation, either version 3 of the License, or
+# (at your option) any later version.
+#
+# PressPlay is distributed in the hope that it will be useful,
+# but WITHOUT ANY WARRANTY; without even the implied warranty of
+# MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+# GNU General Public License for more details.
+#
+# You should have received a copy of the GNU General Public License
+# along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+#
+# Shared by the stub tools. The settings are read from stub.conf in the same directory,
+# so they can be changed without rewriting the stubs.
+
+STUB_DIR=$(dirname "$0")
+LATENCY_MS=0
+JITTER_MS=0
+OUTPUT_BYTES=0
+FAILURE_PER_10000=0
+PLAY_MS=1000
+[ -f "$STUB_DIR/stub.conf" ] && . "$STUB_DIR/stub.conf"
+
+# random number from 0 to $1 - 1
+stub_random() {
+    if [ "$1" -le 0 ]; then
+        echo 0
+    else
+        echo $(( $(od -An -N4 -tu4 /dev/urandom | tr -d ' ') % $1 ))
+    fi
+}
+
+stub_sleep_ms() {
+    sleep "$(awk "BEGIN { printf \"%.3f\", $1 / 1000 }")"
+}
+
+# sleep for the configured latency, plus a random amount of jitter
+stub_latency() {
+    stub_sleep_ms $(( LATENCY_MS + $(stub_random $(( JITTER_MS + 1 ))) ))
+}
+
+# exit with an error for FAILURE_PER_10000 out of every 10000 calls
+stub_maybe_fail() {
+    if [ "$(stub_random 10000)" -lt "$FAILURE_PER_10000" ]; then
+        echo "stub failure" >&2
+        exit 1
+    fi
+}
+
+# print $1 bytes of filler
+stub_filler() {
+    if [ "$1" -gt 0 ]; then
+        head -c "$1" /dev/zero | tr '\0' 'x'
+    fi
+}
+
+stub_version() {
+    case " $* " in
+        *" -version "*)
+            echo "$(basename "$0") version 0.0-stub Copyright (c) the PressPlay load test"
+            exit 0
+            ;;
+    esac
+}
@@ -0,0 +1,98 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay.loadtest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void testPercentiles() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        // record out of order, and past the initial capacity
+        for (int i = 2000; i >= 1; i--) {
+            recorder.record(i);
+        }
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(2000, snapshot.getCount());
+        assertEquals(1000, snapshot.percentile(50));
+        assertEquals(1980, snapshot.percentile(99));
+        assertEquals(1998, snapshot.percentile(99.9));
+        assertEquals(2000, snapshot.percentile(100));
+        assertEquals(2000, snapshot.max());
+    }
+
+    @Test
+    public void testEmpty() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.error();
+        recorder.skip();
+        recorder.skip();
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(1, snapshot.getErrors());
+        assertEquals(2, snapshot.getSkipped());
+        assertEquals(0, snapshot.percentile(99));
+        assertEquals(0, snapshot.max());
+    }
+
+    @Test
+    public void testSingleValue() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(42);
+        assertEquals(42, recorder.snapshot().percentile(0.1));
+        assertEquals(42, recorder.snapshot().percentile(99.9));
+    }
+
+    @Test
+    public void testCompletedInWindow() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record(10, true);
+        recorder.record(20, true);
+        recorder.record(5000, false);
+        LatencyRecorder.Snapshot snapshot = recorder.snapshot();
+        assertEquals(3, snapshot.getCount());
+        assertEquals(2, snapshot.getCompletedInWindow());
+        assertEquals(5000, snapshot.max());
+    }
+
+    @Test
+    public void testParseOptions() {
+        LoadTest.Options options = LoadTest.Options.parse("rate=250", "mix=probe:50,play:50", "failures=0.1");
+        assertEquals(250, options.rate, 0);
+        assertEquals(0, options.stopPercent);
+        assertEquals(Workload.Operation.PROBE, options.pick(49));
+        assertEquals(Workload.Operation.PLAY, options.pick(50));
+        assertEquals(Workload.Operation.PLAY, options.pick(99));
+        assertEquals(0.1, options.failureRate, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMixMustAddUp() {
+        LoadTest.Options.parse("mix=probe:50,play:20");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSetting() {
+        LoadTest.Options.parse("threads=10");
+    }
+}
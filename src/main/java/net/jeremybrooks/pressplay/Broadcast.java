@@ -0,0 +1,502 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Decodes media once, and streams the result to any number of listeners.
+ *
+ * <p>Use this when many clients listen to the same media at the same time, such as a local radio
+ * station. A single ffmpeg process decodes the media, and its output is written to a ring buffer
+ * shared by all listeners, so adding a listener costs no more decoding. Each listener is an
+ * InputStream that reads from its own position in the buffer.</p>
+ *
+ * <p>The decoder never waits for listeners. A listener that falls more than the size of the buffer
+ * behind skips ahead, and the skipped bytes are counted in {@link Listener#getDroppedBytes()}.
+ * Listeners that subscribe after the broadcast has started join at the live position.</p>
+ *
+ * <p>The output is 16 bit little endian PCM by default. Call {@link Builder#wavHeader()} to start each
+ * listener with a WAV header, so the stream can be played with FFPlay, or {@link Builder#encode(String)}
+ * to broadcast an encoded format instead.</p>
+ * <pre>
+ * {@code
+ *   Broadcast broadcast = new Broadcast.Builder()
+ *           .media("/music/track.flac")
+ *           .wavHeader()
+ *           .build();
+ *   broadcast.start();
+ *   FFPlay<PipedMedia> player = new FFPlay.Builder<PipedMedia>()
+ *           .media(PipedMedia.of(broadcast.subscribe()))
+ *           .build();
+ *   player.play();
+ * }
+ * </pre>
+ * <p>This class is thread safe.</p>
+ */
+public class Broadcast implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int WAV_HEADER_SIZE = 44;
+
+    private final Object media;
+    private final List<String> outputOptions;
+    private final boolean realtime;
+    private final byte[] header;
+    private final BroadcastBuffer buffer;
+    private final Consumer<ProcessFailure> failureListener;
+    private final Set<Listener> listeners = ConcurrentHashMap.newKeySet();
+    private volatile Process process;
+    private volatile boolean stopCalled;
+
+    /**
+     * Builder to create an instance of Broadcast.
+     */
+    public static class Builder {
+        private Object media;
+        private int sampleRate = 44100;
+        private int channels = 2;
+        private String format;
+        private boolean wavHeader;
+        private boolean realtime = true;
+        private int bufferSize = 4 * 1024 * 1024;
+        private Consumer<ProcessFailure> failureListener;
+
+        /**
+         * Set the media to broadcast.
+         *
+         * @param media path or URL of the media.
+         * @return builder for chaining.
+         */
+        public Builder media(String media) {
+            this.media = media;
+            return this;
+        }
+
+        /**
+         * Set the media to broadcast.
+         *
+         * @param media piped media.
+         * @return builder for chaining.
+         */
+        public Builder media(PipedMedia media) {
+            this.media = media;
+            return this;
+        }
+
+        /**
+         * Set the sample rate of the PCM output. The default is 44100Hz.
+         *
+         * @param sampleRate sample rate in Hz.
+         * @return builder for chaining.
+         */
+        public Builder sampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * Set the number of channels of the output. The default is 2.
+         *
+         * @param channels number of channels.
+         * @return builder for chaining.
+         */
+        public Builder channels(int channels) {
+            this.channels = channels;
+            return this;
+        }
+
+        /**
+         * Start each listener stream with a WAV header that describes the PCM output.
+         *
+         * <p>The header has an unknown length, so players read until the end of the stream.</p>
+         *
+         * @return builder for chaining.
+         */
+        public Builder wavHeader() {
+            this.wavHeader = true;
+            return this;
+        }
+
+        /**
+         * Broadcast an encoded format instead of PCM.
+         *
+         * <p>The format is passed to ffmpeg with {@code -f}, and must be one that can be decoded from
+         * any point in the stream, such as {@code mp3} or {@code adts}, since listeners can join or
+         * skip ahead at any time.</p>
+         *
+         * @param format ffmpeg output format.
+         * @return builder for chaining.
+         */
+        public Builder encode(String format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Decode the media as fast as possible, instead of at its playback rate.
+         *
+         * <p>By default the media is decoded at the rate it plays, as a radio station would send it.
+         * Without this, listeners that play the stream fall behind, and skip.</p>
+         *
+         * @return builder for chaining.
+         */
+        public Builder noRealtime() {
+            this.realtime = false;
+            return this;
+        }
+
+        /**
+         * Set the size of the buffer shared by the listeners.
+         *
+         * <p>This is how far a listener can fall behind before it skips. The size is rounded up to a
+         * power of two. The default is 4MB, which is about 24 seconds of CD quality PCM.</p>
+         *
+         * @param bufferSize size in bytes.
+         * @return builder for chaining.
+         */
+        public Builder bufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * Set a listener that is called if the decoder fails.
+         *
+         * <p>If not set, the listener set with {@link PressPlay#setFailureListener(Consumer)} is used.</p>
+         *
+         * @param failureListener the listener.
+         * @return builder for chaining.
+         */
+        public Builder onFailure(Consumer<ProcessFailure> failureListener) {
+            this.failureListener = failureListener;
+            return this;
+        }
+
+        /**
+         * Build the broadcast with the parameters that have been set.
+         *
+         * @return new broadcast, ready to start.
+         */
+        public Broadcast build() {
+            if (media == null || media.toString().trim().isEmpty()) {
+                throw new IllegalArgumentException("Media cannot be null or empty.");
+            }
+            if (sampleRate <= 0 || channels <= 0) {
+                throw new IllegalArgumentException("Sample rate and channels must be greater than zero.");
+            }
+            if (bufferSize < 2 * CHUNK_SIZE) {
+                throw new IllegalArgumentException("Buffer size must be at least " + 2 * CHUNK_SIZE + " bytes.");
+            }
+            if (format != null && wavHeader) {
+                throw new IllegalArgumentException("A WAV header cannot be used with an encoded format.");
+            }
+            return new Broadcast(this);
+        }
+    }
+
+    private Broadcast(Builder builder) {
+        this.media = builder.media;
+        this.realtime = builder.realtime;
+        this.failureListener = builder.failureListener;
+        if (builder.format == null) {
+            this.outputOptions = Arrays.asList("-ac", Integer.toString(builder.channels),
+                    "-ar", Integer.toString(builder.sampleRate), "-acodec", "pcm_s16le", "-f", "s16le");
+            this.buffer = new BroadcastBuffer(builder.bufferSize, builder.channels * Short.BYTES);
+        } else {
+            this.outputOptions = Arrays.asList("-ac", Integer.toString(builder.channels), "-f", builder.format);
+            this.buffer = new BroadcastBuffer(builder.bufferSize, 1);
+        }
+        this.header = builder.wavHeader ? wavHeader(builder.sampleRate, builder.channels) : new byte[0];
+    }
+
+    /* Package-private for testing the buffer without a decoder. */
+    Broadcast(BroadcastBuffer buffer, byte[] header) {
+        this.media = "";
+        this.outputOptions = new ArrayList<>();
+        this.realtime = false;
+        this.failureListener = null;
+        this.buffer = buffer;
+        this.header = header;
+    }
+
+    /**
+     * Start decoding the media.
+     *
+     * @throws IOException if ffmpeg cannot be started.
+     * @throws IllegalStateException if the broadcast has already been started.
+     */
+    public synchronized void start() throws IOException {
+        if (process != null) {
+            throw new IllegalStateException("The broadcast has already been started.");
+        }
+        List<String> command = new ArrayList<>(Arrays.asList(FFmpegTools.get().requireFFmpeg(), "-v", "quiet"));
+        if (!(media instanceof PipedMedia)) {
+            command.add("-nostdin");
+        }
+        if (realtime) {
+            command.add("-re");
+        }
+        command.addAll(Arrays.asList("-i", media.toString(), "-vn"));
+        command.addAll(outputOptions);
+        command.add("pipe:1");
+        ProcessBuilder processBuilder = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        if (media instanceof PipedMedia) {
+            processBuilder.redirectInput(ProcessBuilder.Redirect.PIPE);
+        }
+        logger.debug("Starting broadcast of {}", media);
+        Process started = processBuilder.start();
+        process = started;
+        if (media instanceof PipedMedia) {
+            ((PipedMedia) media).pump(started);
+        }
+        ThreadSupport.newThread("pressplay-broadcast", true, () -> decode(started)).start();
+    }
+
+    /**
+     * Stop decoding. Listeners read the bytes already in the buffer, and then reach the end of the stream.
+     */
+    public void stop() {
+        stopCalled = true;
+        Process current = process;
+        if (current != null) {
+            current.destroy();
+        }
+        buffer.finish();
+    }
+
+    /**
+     * Stop decoding.
+     */
+    @Override
+    public void close() {
+        stop();
+    }
+
+    /**
+     * Check if the media is still being decoded.
+     *
+     * @return true if the broadcast has started, and has not reached the end of the media or been stopped.
+     */
+    public boolean isRunning() {
+        return process != null && !buffer.isFinished();
+    }
+
+    /**
+     * Add a listener.
+     *
+     * <p>The listener starts at the live position. Close the listener when it is no longer needed.</p>
+     *
+     * @return new listener.
+     */
+    public Listener subscribe() {
+        Listener listener = new Listener(buffer.livePosition());
+        listeners.add(listener);
+        return listener;
+    }
+
+    /**
+     * Get the number of listeners that have not been closed.
+     *
+     * @return number of listeners.
+     */
+    public int getListenerCount() {
+        return listeners.size();
+    }
+
+    /**
+     * Get the number of bytes decoded so far.
+     *
+     * @return number of bytes.
+     */
+    public long getBytesDecoded() {
+        return buffer.getWritePosition();
+    }
+
+    /* Copy the decoder output into the buffer until it ends. */
+    private void decode(Process decoder) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        try (InputStream in = decoder.getInputStream()) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            int exitCode = ThreadSupport.waitFor(decoder);
+            if (exitCode != 0 && !stopCalled) {
+                Settings.reportFailure(new ProcessFailure("ffmpeg", media.toString(), exitCode, "", null),
+                        failureListener);
+            }
+        } catch (IOException ioe) {
+            if (!stopCalled) {
+                Settings.reportFailure(new ProcessFailure("ffmpeg", media.toString(), -1, "", ioe), failureListener);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            buffer.finish();
+            logger.debug("Broadcast of {} ended after {} bytes", media, buffer.getWritePosition());
+        }
+    }
+
+    /* Header of a WAV file with an unknown length. */
+    static byte[] wavHeader(int sampleRate, int channels) {
+        ByteBuffer wav = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        wav.put(new byte[]{'R', 'I', 'F', 'F'});
+        wav.putInt(-1);
+        wav.put(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        wav.putInt(16);
+        wav.putShort((short) 1);
+        wav.putShort((short) channels);
+        wav.putInt(sampleRate);
+        wav.putInt(sampleRate * channels * Short.BYTES);
+        wav.putShort((short) (channels * Short.BYTES));
+        wav.putShort((short) 16);
+        wav.put(new byte[]{'d', 'a', 't', 'a'});
+        wav.putInt(-1);
+        return wav.array();
+    }
+
+    /**
+     * A stream of the broadcast, read from its own position in the shared buffer.
+     *
+     * <p>A listener should be read by one thread at a time.</p>
+     */
+    public final class Listener extends InputStream {
+        private long position;
+        private int headerPosition;
+        private long dropped;
+        private volatile boolean closed;
+
+        private Listener(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        /**
+         * Read bytes from the broadcast, waiting until some are available.
+         *
+         * @param bytes the buffer to read into.
+         * @param offset where to start in the buffer.
+         * @param length maximum number of bytes to read.
+         * @return number of bytes read, or -1 at the end of the broadcast or if the listener is closed.
+         * @throws IOException if interrupted while waiting.
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || length > bytes.length - offset) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (length == 0) {
+                return 0;
+            }
+            if (headerPosition < header.length) {
+                int count = Math.min(length, header.length - headerPosition);
+                System.arraycopy(header, headerPosition, bytes, offset, count);
+                headerPosition += count;
+                return count;
+            }
+            while (!closed) {
+                int read = buffer.read(position, bytes, offset, length);
+                if (read > 0) {
+                    position += read;
+                    return read;
+                }
+                if (read == -1) {
+                    long resume = buffer.resumePosition();
+                    logger.debug("Listener fell behind, skipping {} bytes", resume - position);
+                    dropped += resume - position;
+                    position = resume;
+                } else if (buffer.isFinished()) {
+                    // bytes written just before finishing are still there to read
+                    if (buffer.getWritePosition() <= position) {
+                        return -1;
+                    }
+                } else {
+                    buffer.await(position, WAIT_NANOS);
+                    if (Thread.interrupted()) {
+                        throw new IOException("Interrupted while waiting for the broadcast.");
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Get the number of bytes that can be read without waiting.
+         *
+         * @return number of bytes.
+         */
+        @Override
+        public int available() {
+            long available = header.length - headerPosition + buffer.getWritePosition() - position;
+            return closed ? 0 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, available));
+        }
+
+        /**
+         * Get the number of bytes skipped because this listener fell behind.
+         *
+         * @return number of bytes.
+         */
+        public long getDroppedBytes() {
+            return dropped;
+        }
+
+        /**
+         * Get the position of this listener in the broadcast.
+         *
+         * @return number of bytes from the start of the broadcast, not counting any header.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Remove this listener from the broadcast.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            listeners.remove(this);
+        }
+    }
+}
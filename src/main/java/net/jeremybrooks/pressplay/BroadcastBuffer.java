@@ -0,0 +1,157 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.lang.invoke.VarHandle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer with one writer and any number of readers, each with its own position.
+ *
+ * <p>The writer never waits for readers. Positions count every byte ever written, and a reader
+ * that falls more than the capacity of the buffer behind finds that its data has been overwritten,
+ * and must skip ahead. Readers do not take locks; a read copies the bytes and then checks that the
+ * writer did not start overwriting them during the copy, in the same way as a seqlock.</p>
+ */
+final class BroadcastBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private final int frameSize;
+    private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+
+    /* Bytes before this position are complete and can be read. */
+    private volatile long writePosition;
+    /* Bytes before this position, less the capacity, may be being overwritten. */
+    private volatile long writeLimit;
+    private volatile boolean finished;
+
+    /*
+     * The capacity is rounded up to a power of two. Positions that readers resume from are
+     * multiples of the frame size, so PCM readers always start on a whole sample.
+     */
+    BroadcastBuffer(int capacity, int frameSize) {
+        if (capacity <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("Capacity and frame size must be greater than zero.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+        this.frameSize = frameSize;
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+
+    /* Called by the single writer thread only. */
+    void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int count = Math.min(length, buffer.length / 2);
+            long start = writePosition;
+            long end = start + count;
+            writeLimit = end;
+            // the claim must be visible before any of the bytes it covers are changed
+            VarHandle.fullFence();
+            int index = (int) (start & mask);
+            int first = Math.min(count, buffer.length - index);
+            System.arraycopy(bytes, offset, buffer, index, first);
+            System.arraycopy(bytes, offset + first, buffer, 0, count - first);
+            writePosition = end;
+            offset += count;
+            length -= count;
+        }
+        wakeReaders();
+    }
+
+    /* No more bytes will be written. */
+    void finish() {
+        finished = true;
+        wakeReaders();
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    long getWritePosition() {
+        return writePosition;
+    }
+
+    /*
+     * Copy bytes from a position. Returns the number of bytes copied, zero if there are no bytes
+     * after the position yet, or -1 if the bytes at the position have been overwritten.
+     */
+    int read(long position, byte[] bytes, int offset, int length) {
+        long committed = writePosition;
+        if (committed - position > buffer.length) {
+            return -1;
+        }
+        int count = (int) Math.min(length, committed - position);
+        if (count <= 0) {
+            return 0;
+        }
+        int index = (int) (position & mask);
+        int first = Math.min(count, buffer.length - index);
+        System.arraycopy(buffer, index, bytes, offset, first);
+        System.arraycopy(buffer, 0, bytes, offset + first, count - first);
+        // the copy must be complete before checking whether the writer has reached it
+        VarHandle.acquireFence();
+        if (writeLimit - buffer.length > position) {
+            return -1;
+        }
+        return count;
+    }
+
+    /* The newest whole frame, where a new reader starts. */
+    long livePosition() {
+        long position = writePosition;
+        return position - position % frameSize;
+    }
+
+    /* Where a reader that was overwritten resumes: halfway back, so it has some room to catch up. */
+    long resumePosition() {
+        long position = Math.max(0, writeLimit - buffer.length / 2);
+        return position + (frameSize - position % frameSize) % frameSize;
+    }
+
+    /* Wait until there are bytes after the position, or the buffer is finished. */
+    void await(long position, long timeoutNanos) {
+        Thread thread = Thread.currentThread();
+        waiters.add(thread);
+        try {
+            if (writePosition <= position && !finished) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+        } finally {
+            waiters.remove(thread);
+        }
+    }
+
+    private void wakeReaders() {
+        for (Thread thread : waiters) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Computes a hash of the audio in media files, for finding duplicates.
+ *
+ * <p>Only the audio payload is hashed. ID3v2, ID3v1 and APEv2 tags and FLAC metadata blocks are
+ * skipped, and for MP4 files only the {@code mdat} atom is hashed, so two copies of a track still
+ * have the same hash after one of them has been retagged. The payload is read with memory mapped
+ * I/O, and files are hashed in parallel.</p>
+ * <pre>
+ * {@code
+ *   ContentHasher hasher = new ContentHasher.Builder()
+ *           .metadataCache(cache)
+ *           .build();
+ *   for (List<String> group : hasher.findDuplicates(library)) {
+ *     System.out.println("Duplicates: " + group);
+ *   }
+ * }
+ * </pre>
+ */
+public class ContentHasher {
+    private static final Logger logger = LogManager.getLogger();
+
+    /* Amount of the file mapped at a time. */
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final int ID3V1_SIZE = 128;
+    private static final int APE_FOOTER_SIZE = 32;
+
+    private final int concurrency;
+    private final MetadataCache metadataCache;
+
+    /**
+     * Builder to create an instance of ContentHasher.
+     */
+    public static class Builder {
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+        private MetadataCache metadataCache;
+
+        /**
+         * Set the maximum number of files to hash at the same time.
+         *
+         * <p>The default is the number of available processors.</p>
+         *
+         * @param concurrency maximum number of files.
+         * @return builder for chaining.
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the cache used to store hashes.
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Build the hasher with the parameters that have been set.
+         *
+         * @return new hasher.
+         */
+        public ContentHasher build() {
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1.");
+            }
+            return new ContentHasher(this);
+        }
+    }
+
+    private ContentHasher(Builder builder) {
+        this.concurrency = builder.concurrency;
+        this.metadataCache = builder.metadataCache;
+    }
+
+    /**
+     * Hash the audio payload of a media file, using the cache if one has been set.
+     *
+     * @param media the path to a local media file.
+     * @return hex encoded SHA-256 of the audio payload.
+     * @throws IOException if the file cannot be read.
+     */
+    public String hash(String media) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        if (metadataCache != null) {
+            String cached = metadataCache.getContentHash(media);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String hash = hashPayload(Paths.get(media));
+        if (metadataCache != null) {
+            metadataCache.putContentHash(media, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Hash many media files in parallel.
+     *
+     * <p>Files that cannot be read are logged and left out of the result.</p>
+     *
+     * @param media the paths to the media.
+     * @return map of media to hash, in the same order as the input.
+     * @throws InterruptedException if interrupted while waiting for the results.
+     */
+    public Map<String, String> hashAll(Collection<String> media) throws InterruptedException {
+        ExecutorService executor = ThreadSupport.newExecutor("pressplay-hash", Math.min(concurrency, Math.max(1, media.size())));
+        try {
+            List<String> keys = new ArrayList<>();
+            List<Future<String>> futures = new ArrayList<>();
+            for (String item : media) {
+                keys.add(item);
+                futures.add(executor.submit(() -> hash(item)));
+            }
+            Map<String, String> results = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                try {
+                    results.put(keys.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.warn("Unable to hash {}", keys.get(i), e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Find groups of media files that have the same audio.
+     *
+     * @param media the paths to the media.
+     * @return list of groups with more than one file, in the order the first file
+     * of each group appears in the input.
+     * @throws InterruptedException if interrupted while waiting for the results.
+     */
+    public List<List<String>> findDuplicates(Collection<String> media) throws InterruptedException {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : hashAll(media).entrySet()) {
+            groups.computeIfAbsent(entry.getValue(), hash -> new ArrayList<>()).add(entry.getKey());
+        }
+        List<List<String>> duplicates = new ArrayList<>();
+        for (List<String> group : groups.values()) {
+            if (group.size() > 1) {
+                duplicates.add(group);
+            }
+        }
+        return duplicates;
+    }
+
+    /* Hash the payload a window at a time, so large files do not need one large mapping. */
+    static String hashPayload(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] range = payloadRange(channel);
+            for (long position = range[0]; position < range[1]; position += WINDOW_SIZE) {
+                long length = Math.min(WINDOW_SIZE, range[1] - position);
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /* Find the start and end of the audio payload, skipping tags at either end of the file. */
+    static long[] payloadRange(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        long end = size;
+        ByteBuffer header = read(channel, 0, 10);
+        if (startsWith(header, "ID3") && header.remaining() == 10) {
+            int flags = header.get(5);
+            start = 10 + syncsafe(header.getInt(6)) + ((flags & 0x10) != 0 ? 10 : 0);
+            header = read(channel, start, 10);
+        }
+        if (startsWith(header, "fLaC")) {
+            start = skipFlacMetadata(channel, start + 4);
+        } else if (startsWith(read(channel, start + 4, 4), "ftyp")) {
+            long[] mdat = findMdat(channel, start, size);
+            if (mdat != null) {
+                return mdat;
+            }
+        } else {
+            end = trailingTagStart(channel, start, end);
+        }
+        return new long[]{Math.min(start, end), end};
+    }
+
+    private static long skipFlacMetadata(FileChannel channel, long position) throws IOException {
+        boolean last = false;
+        while (!last) {
+            ByteBuffer block = read(channel, position, 4);
+            if (block.remaining() < 4) {
+                break;
+            }
+            int header = block.getInt();
+            last = (header & 0x80000000) != 0;
+            position += 4 + (header & 0xFFFFFF);
+        }
+        return position;
+    }
+
+    private static long[] findMdat(FileChannel channel, long position, long size) throws IOException {
+        while (position + 8 <= size) {
+            ByteBuffer atom = read(channel, position, 16);
+            long atomSize = atom.getInt() & 0xFFFFFFFFL;
+            boolean mdat = startsWith(atom, "mdat");
+            atom.getInt();
+            int headerSize = 8;
+            if (atomSize == 1 && atom.remaining() >= 8) {
+                atomSize = atom.getLong();
+                headerSize = 16;
+            } else if (atomSize == 0) {
+                atomSize = size - position;
+            }
+            if (atomSize < headerSize) {
+                break;
+            }
+            if (mdat) {
+                return new long[]{position + headerSize, Math.min(size, position + atomSize)};
+            }
+            position += atomSize;
+        }
+        return null;
+    }
+
+    /*
+     * ID3v1 and APEv2 tags are at the end of the file, in either order. The APE tag size includes
+     * the footer, so a smaller size is corrupt and the footer is treated as audio.
+     */
+    private static long trailingTagStart(FileChannel channel, long start, long end) throws IOException {
+        boolean found = true;
+        while (found) {
+            found = false;
+            if (end - start >= ID3V1_SIZE && startsWith(read(channel, end - ID3V1_SIZE, 3), "TAG")) {
+                end -= ID3V1_SIZE;
+                found = true;
+            }
+            if (end - start >= APE_FOOTER_SIZE) {
+                ByteBuffer footer = read(channel, end - APE_FOOTER_SIZE, APE_FOOTER_SIZE);
+                footer.order(ByteOrder.LITTLE_ENDIAN);
+                if (startsWith(footer, "APETAGEX") && (footer.getInt(12) & 0xFFFFFFFFL) >= APE_FOOTER_SIZE) {
+                    long tagSize = footer.getInt(12) & 0xFFFFFFFFL;
+                    boolean hasHeader = (footer.getInt(20) & 0x80000000) != 0;
+                    end = Math.max(start, end - tagSize - (hasHeader ? APE_FOOTER_SIZE : 0));
+                    found = true;
+                }
+            }
+        }
+        return end;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && position + buffer.position() < channel.size()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, String magic) {
+        byte[] bytes = magic.getBytes(StandardCharsets.US_ASCII);
+        if (buffer.remaining() < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(buffer.position() + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int syncsafe(int value) {
+        return (value & 0x7F) | (value & 0x7F00) >> 1 | (value & 0x7F0000) >> 2 | (value & 0x7F000000) >> 3;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Cover art embedded in media.
+ *
+ * <p>For local files, the picture is read directly from the tags in the file, without starting a
+ * process. ID3v2 {@code APIC} and {@code PIC} frames, FLAC {@code PICTURE} blocks and MP4
+ * {@code covr} atoms are supported. The file is memory mapped and only the tag area is read. For other
+ * media, or if the picture cannot be found in the tags, ffmpeg is used to copy the attached picture
+ * stream. A local file whose tags are fully understood, and contain no picture, is not passed to
+ * ffmpeg, so media without cover art is cheap to check.</p>
+ *
+ * <p>When there is more than one picture, the front cover is preferred.</p>
+ * <pre>
+ * {@code
+ *   CoverArt art = CoverArt.extract("/music/track.mp3");
+ *   if (art != null) {
+ *     BufferedImage image = ImageIO.read(new ByteArrayInputStream(art.getData()));
+ *   }
+ * }
+ * </pre>
+ */
+public class CoverArt {
+    private static final Logger logger = LogManager.getLogger();
+
+    /* ID3 and FLAC picture type for the front cover. */
+    private static final int FRONT_COVER = 3;
+
+    /* Returned by parse when the tags were read, and have no picture. */
+    static final CoverArt NO_PICTURE = new CoverArt(new byte[0], "");
+
+    private final byte[] data;
+    private final String mimeType;
+    private String hash;
+
+    CoverArt(byte[] data, String mimeType) {
+        this.data = data;
+        this.mimeType = mimeType == null || mimeType.isEmpty() ? sniffMimeType(data) : mimeType;
+    }
+
+    /**
+     * Extract the cover art from media.
+     *
+     * @param media the path to the media.
+     * @return the cover art, or null if the media has no cover art.
+     * @throws IOException if the media cannot be read.
+     */
+    public static CoverArt extract(String media) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        Path path = toLocalFile(media);
+        if (path != null) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = Math.min(channel.size(), Integer.MAX_VALUE);
+                CoverArt art = parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                if (art == NO_PICTURE) {
+                    return null;
+                } else if (art != null) {
+                    return art;
+                }
+            }
+        }
+        return extractWithFFmpeg(media);
+    }
+
+    /**
+     * Get the image data.
+     *
+     * @return the encoded image, usually JPEG or PNG.
+     */
+    public byte[] getData() {
+        return data.clone();
+    }
+
+    /**
+     * Get the MIME type of the image.
+     *
+     * @return MIME type, such as {@code image/jpeg}.
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Get a hash of the image data.
+     *
+     * <p>Tracks from the same album usually embed identical pictures, so the hash
+     * can be used to store each distinct picture once.</p>
+     *
+     * @return hex encoded SHA-256 of the image data.
+     */
+    public String getHash() {
+        if (hash == null) {
+            hash = sha256(data);
+        }
+        return hash;
+    }
+
+    /* Package-private access to the data without a copy. */
+    byte[] data() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "CoverArt{mimeType='" + mimeType + "', size=" + data.length + "}";
+    }
+
+    /*
+     * Find a picture in the tags at the start of the buffer. Returns NO_PICTURE only if the tags
+     * were fully understood and have no picture, or null if the format is not recognized, the tags
+     * cannot be parsed, or a picture could be somewhere the parser does not look.
+     */
+    static CoverArt parse(ByteBuffer buffer) {
+        try {
+            if (startsWith(buffer, 0, "ID3")) {
+                return parseId3(buffer);
+            } else if (startsWith(buffer, 0, "fLaC")) {
+                return parseFlac(buffer);
+            } else if (startsWith(buffer, 4, "ftyp")) {
+                return parseMp4(buffer);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            logger.debug("Unable to parse tags, ignoring.", e);
+        }
+        return null;
+    }
+
+    private static CoverArt parseId3(ByteBuffer buffer) {
+        ByteBuffer tag = buffer.duplicate();
+        tag.position(tag.position() + 3);
+        int version = tag.get();
+        tag.get();
+        int flags = tag.get();
+        int size = syncsafe(tag.getInt());
+        if ((flags & 0x80) != 0) {
+            // unsynchronised tags are rare; let ffmpeg deal with them
+            return null;
+        }
+        int end = buffer.position() + 10 + size + (version == 4 && (flags & 0x10) != 0 ? 10 : 0);
+        tag.limit(tag.position() + size);
+        if ((flags & 0x40) != 0 && version >= 3) {
+            int extendedSize = tag.getInt();
+            tag.position(tag.position() + (version == 3 ? extendedSize : syncsafe(extendedSize) - 4));
+        }
+        CoverArt first = null;
+        int idLength = version == 2 ? 3 : 4;
+        while (tag.remaining() > idLength * 2) {
+            byte[] id = new byte[idLength];
+            tag.get(id);
+            if (id[0] == 0) {
+                break;
+            }
+            int frameSize;
+            int formatFlags = 0;
+            if (version == 2) {
+                frameSize = (tag.get() & 0xFF) << 16 | (tag.get() & 0xFF) << 8 | (tag.get() & 0xFF);
+            } else {
+                frameSize = version == 4 ? syncsafe(tag.getInt()) : tag.getInt();
+                formatFlags = tag.getShort() & 0xFF;
+            }
+            ByteBuffer frame = slice(tag, frameSize);
+            String frameId = new String(id, StandardCharsets.ISO_8859_1);
+            if (frameId.equals("APIC") || frameId.equals("PIC")) {
+                frame = pictureFrame(frame, version, formatFlags);
+                if (frame == null) {
+                    return null;
+                }
+                int encoding = frame.get();
+                String mimeType;
+                if (version == 2) {
+                    byte[] format = new byte[3];
+                    frame.get(format);
+                    mimeType = "image/" + new String(format, StandardCharsets.ISO_8859_1).trim().toLowerCase()
+                            .replace("jpg", "jpeg");
+                } else {
+                    mimeType = readTerminated(frame, 0);
+                }
+                int pictureType = frame.get() & 0xFF;
+                readTerminated(frame, encoding);
+                CoverArt art = new CoverArt(remaining(frame), mimeType);
+                if (pictureType == FRONT_COVER) {
+                    return art;
+                } else if (first == null) {
+                    first = art;
+                }
+            }
+        }
+        if (first != null) {
+            return first;
+        }
+        // FLAC files sometimes start with an ID3 tag, and the picture is in the FLAC metadata
+        if (startsWith(buffer, end - buffer.position(), "fLaC")) {
+            ByteBuffer flac = buffer.duplicate();
+            flac.position(end);
+            return parseFlac(flac);
+        }
+        // only an MP3 frame, or nothing, after the tag means there is no other tag to look in
+        if (end >= buffer.limit() || (buffer.get(end) & 0xFF) == 0xFF && end + 1 < buffer.limit()
+                && (buffer.get(end + 1) & 0xE0) == 0xE0) {
+            return NO_PICTURE;
+        }
+        return null;
+    }
+
+    /*
+     * Get the data of a picture frame, removing the extra bytes and unsynchronisation that the frame
+     * flags add. Returns null for a compressed or encrypted frame.
+     */
+    private static ByteBuffer pictureFrame(ByteBuffer frame, int version, int formatFlags) {
+        if (version == 3) {
+            if ((formatFlags & 0xC0) != 0) {
+                return null;
+            }
+            if ((formatFlags & 0x20) != 0) {
+                // group identifier
+                frame.get();
+            }
+        } else if (version == 4) {
+            if ((formatFlags & 0x0C) != 0) {
+                return null;
+            }
+            if ((formatFlags & 0x40) != 0) {
+                // group identifier
+                frame.get();
+            }
+            if ((formatFlags & 0x01) != 0) {
+                // data length indicator
+                frame.getInt();
+            }
+            if ((formatFlags & 0x02) != 0) {
+                return resynchronise(frame);
+            }
+        }
+        return frame;
+    }
+
+    /* Undo unsynchronisation, which inserts a zero after every 0xFF byte. */
+    private static ByteBuffer resynchronise(ByteBuffer frame) {
+        byte[] data = remaining(frame);
+        int length = 0;
+        for (int i = 0; i < data.length; i++) {
+            data[length++] = data[i];
+            if ((data[i] & 0xFF) == 0xFF && i + 1 < data.length && data[i + 1] == 0) {
+                i++;
+            }
+        }
+        return ByteBuffer.wrap(data, 0, length);
+    }
+
+    private static CoverArt parseFlac(ByteBuffer buffer) {
+        ByteBuffer flac = buffer.duplicate();
+        flac.position(flac.position() + 4);
+        CoverArt first = null;
+        boolean last = false;
+        while (!last) {
+            int header = flac.get() & 0xFF;
+            last = (header & 0x80) != 0;
+            int length = (flac.get() & 0xFF) << 16 | (flac.get() & 0xFF) << 8 | (flac.get() & 0xFF);
+            ByteBuffer block = slice(flac, length);
+            if ((header & 0x7F) == 6) {
+                int pictureType = block.getInt();
+                String mimeType = new String(bytes(block, block.getInt()), StandardCharsets.US_ASCII);
+                bytes(block, block.getInt());
+                block.position(block.position() + 16);
+                CoverArt art = new CoverArt(bytes(block, block.getInt()), mimeType);
+                if (pictureType == FRONT_COVER) {
+                    return art;
+                } else if (first == null) {
+                    first = art;
+                }
+            }
+        }
+        return first == null ? NO_PICTURE : first;
+    }
+
+    /*
+     * The picture is at moov/udta/meta/ilst/covr/data, or moov/meta/ilst/covr/data. If there is no
+     * ilst in either place, the tags may be somewhere else, so the picture is left to ffmpeg.
+     */
+    private static CoverArt parseMp4(ByteBuffer buffer) {
+        ByteBuffer moov = findAtom(buffer.duplicate(), "moov");
+        if (moov == null) {
+            return null;
+        }
+        ByteBuffer ilst = findPath(moov, "udta", "meta", "ilst");
+        if (ilst == null) {
+            ilst = findPath(moov, "meta", "ilst");
+        }
+        if (ilst == null) {
+            return null;
+        }
+        ByteBuffer atom = findPath(ilst, "covr", "data");
+        if (atom == null) {
+            return NO_PICTURE;
+        }
+        int type = atom.getInt() & 0xFFFFFF;
+        atom.getInt();
+        return new CoverArt(remaining(atom), type == 14 ? "image/png" : type == 13 ? "image/jpeg" : null);
+    }
+
+    /* Follow a path of child atoms, and return a buffer over the contents of the last one. */
+    private static ByteBuffer findPath(ByteBuffer parent, String... path) {
+        ByteBuffer atom = parent;
+        for (String name : path) {
+            atom = findAtom(atom, name);
+            if (atom == null) {
+                return null;
+            }
+            if (name.equals("meta")) {
+                // meta is a full atom, with a version and flags before the children
+                atom.position(atom.position() + 4);
+            }
+        }
+        return atom;
+    }
+
+    /* Find a child atom, and return a buffer over its contents. */
+    private static ByteBuffer findAtom(ByteBuffer parent, String name) {
+        ByteBuffer atoms = parent.duplicate();
+        while (atoms.remaining() >= 8) {
+            long size = atoms.getInt() & 0xFFFFFFFFL;
+            byte[] type = new byte[4];
+            atoms.get(type);
+            int headerSize = 8;
+            if (size == 1) {
+                size = atoms.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = atoms.remaining() + headerSize;
+            }
+            if (size < headerSize || size - headerSize > atoms.remaining()) {
+                return null;
+            }
+            ByteBuffer contents = slice(atoms, (int) (size - headerSize));
+            if (new String(type, StandardCharsets.ISO_8859_1).equals(name)) {
+                return contents;
+            }
+        }
+        return null;
+    }
+
+    /* Copy the attached picture stream with ffmpeg. */
+    private static CoverArt extractWithFFmpeg(String media) throws IOException {
+        logger.debug("Extracting cover art from {} with ffmpeg", media);
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                FFmpegTools.get().requireFFmpeg(),
+                "-v",
+                "quiet",
+                "-nostdin",
+                "-i",
+                media,
+                "-an",
+                "-map",
+                "0:v:0",
+                "-c:v",
+                "copy",
+                "-frames:v",
+                "1",
+                "-f",
+                "image2pipe",
+                "pipe:1")
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = processBuilder.start();
+        byte[] data = IOUtils.toByteArray(process.getInputStream());
+        try {
+            ThreadSupport.waitFor(process);
+        } catch (InterruptedException ie) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting cover art from " + media, ie);
+        }
+        // a non-zero exit usually means there is no picture stream
+        return data.length == 0 ? null : new CoverArt(data, null);
+    }
+
+    private static Path toLocalFile(String media) {
+        try {
+            Path path = Paths.get(media);
+            return Files.isRegularFile(path) ? path : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
+
+    static String sniffMimeType(byte[] data) {
+        if (data.length >= 3 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8 && (data[2] & 0xFF) == 0xFF) {
+            return "image/jpeg";
+        } else if (data.length >= 4 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            return "image/png";
+        } else if (data.length >= 3 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F') {
+            return "image/gif";
+        }
+        return "application/octet-stream";
+    }
+
+    static String sha256(byte[] data) {
+        return ContentHasher.toHex(ContentHasher.sha256().digest(data));
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int offset, String magic) {
+        if (buffer.remaining() < offset + magic.length()) {
+            return false;
+        }
+        for (int i = 0; i < magic.length(); i++) {
+            if (buffer.get(buffer.position() + offset + i) != magic.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int syncsafe(int value) {
+        return (value & 0x7F) | (value & 0x7F00) >> 1 | (value & 0x7F0000) >> 2 | (value & 0x7F000000) >> 3;
+    }
+
+    /* Return a buffer over the next length bytes, and advance past them. */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        return bytes(buffer, buffer.remaining());
+    }
+
+    /* Read a string terminated by a null, which is two bytes wide for the UTF-16 encodings. */
+    private static String readTerminated(ByteBuffer buffer, int encoding) {
+        boolean wide = encoding == 1 || encoding == 2;
+        int start = buffer.position();
+        int end = start;
+        while (wide ? buffer.getShort(end) != 0 : buffer.get(end) != 0) {
+            end += wide ? 2 : 1;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(bytes);
+        buffer.position(end + (wide ? 2 : 1));
+        Charset charset;
+        switch (encoding) {
+            case 1:
+                charset = StandardCharsets.UTF_16;
+                break;
+            case 2:
+                charset = StandardCharsets.UTF_16BE;
+                break;
+            case 3:
+                charset = StandardCharsets.UTF_8;
+                break;
+            default:
+                charset = StandardCharsets.ISO_8859_1;
+        }
+        return new String(bytes, charset);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of cover art thumbnails.
+ *
+ * <p>Thumbnails are scaled to fit a square, encoded as PNG, and kept in a size-bounded directory
+ * on disk, plus a small in-memory cache of the most recently used thumbnails. Thumbnails are stored
+ * by a hash of the original picture, so a picture that is embedded in every track of an album is
+ * only stored once. The picture of each media file is remembered, so media that has been seen is
+ * answered without reading it again. Tracks of an album can have different pictures, or none, so
+ * the picture of every file is read once.</p>
+ * <pre>
+ * {@code
+ *   CoverArtCache covers = new CoverArtCache.Builder()
+ *           .directory(Paths.get("/var/cache/covers"))
+ *           .thumbnailSize(96)
+ *           .build();
+ *   byte[] png = covers.getThumbnail("/music/track.mp3");
+ * }
+ * </pre>
+ * <p>This class is thread safe.</p>
+ */
+public class CoverArtCache {
+    private static final Logger logger = LogManager.getLogger();
+
+    /* Number of media files remembered in memory, which is much cheaper than a thumbnail. */
+    private static final int MEDIA_ENTRIES = 4096;
+
+    private final DiskCache diskCache;
+    private final int thumbnailSize;
+    private final Map<String, byte[]> memoryCache;
+    /* Media to picture hash, so media that has been seen is not read again. */
+    private final Map<String, String> mediaHashes = lruMap(MEDIA_ENTRIES);
+    /* Media known to have no cover art. */
+    private final Set<String> noArt = Collections.newSetFromMap(lruMap(MEDIA_ENTRIES));
+
+    /**
+     * Builder to create an instance of CoverArtCache.
+     */
+    public static class Builder {
+        private Path directory;
+        private long maxDiskBytes = 64L * 1024 * 1024;
+        private int memoryEntries = 256;
+        private int thumbnailSize = 128;
+
+        /**
+         * Set the directory to store thumbnails in. This is required.
+         *
+         * @param directory the directory, which is created if it does not exist.
+         * @return builder for chaining.
+         */
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of the thumbnails on disk.
+         *
+         * <p>The default is 64MB. When the size is exceeded, the least recently used thumbnails are deleted.</p>
+         *
+         * @param maxDiskBytes maximum size in bytes.
+         * @return builder for chaining.
+         */
+        public Builder maxDiskBytes(long maxDiskBytes) {
+            this.maxDiskBytes = maxDiskBytes;
+            return this;
+        }
+
+        /**
+         * Set the number of thumbnails to keep in memory.
+         *
+         * <p>The default is 256. Set to zero to disable the memory cache.</p>
+         *
+         * @param memoryEntries number of thumbnails.
+         * @return builder for chaining.
+         */
+        public Builder memoryEntries(int memoryEntries) {
+            this.memoryEntries = memoryEntries;
+            return this;
+        }
+
+        /**
+         * Set the size of the thumbnails.
+         *
+         * <p>Pictures are scaled down to fit in a square of this size, keeping their
+         * aspect ratio. The default is 128 pixels.</p>
+         *
+         * @param thumbnailSize size in pixels.
+         * @return builder for chaining.
+         */
+        public Builder thumbnailSize(int thumbnailSize) {
+            this.thumbnailSize = thumbnailSize;
+            return this;
+        }
+
+        /**
+         * Build the cache with the parameters that have been set.
+         *
+         * @return new cache.
+         * @throws IOException if the directory cannot be created or read.
+         */
+        public CoverArtCache build() throws IOException {
+            if (directory == null) {
+                throw new IllegalArgumentException("Directory cannot be null.");
+            }
+            if (thumbnailSize <= 0 || memoryEntries < 0) {
+                throw new IllegalArgumentException("Thumbnail size must be greater than zero, and memory entries cannot be negative.");
+            }
+            return new CoverArtCache(this);
+        }
+    }
+
+    private CoverArtCache(Builder builder) throws IOException {
+        this.diskCache = new DiskCache(builder.directory, builder.maxDiskBytes);
+        this.thumbnailSize = builder.thumbnailSize;
+        this.memoryCache = lruMap(builder.memoryEntries);
+    }
+
+    /* Thread safe map that keeps the most recently used entries. */
+    private static <V> Map<String, V> lruMap(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Get the cover art thumbnail for media.
+     *
+     * <p>Media that has been seen before is answered from memory, without starting a process
+     * or reading the media.</p>
+     *
+     * @param media the path to the media.
+     * @return PNG encoded thumbnail, or null if the media has no cover art.
+     * @throws IOException if the media cannot be read.
+     */
+    public byte[] getThumbnail(String media) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        if (noArt.contains(media)) {
+            return null;
+        }
+        String hash = mediaHashes.get(media);
+        if (hash != null) {
+            byte[] thumbnail = getCached(hash);
+            if (thumbnail != null) {
+                return thumbnail.clone();
+            }
+        }
+        CoverArt art = CoverArt.extract(media);
+        if (art == null) {
+            noArt.add(media);
+            return null;
+        }
+        hash = art.getHash();
+        mediaHashes.put(media, hash);
+        byte[] thumbnail = getCached(hash);
+        if (thumbnail == null) {
+            thumbnail = scale(art.data(), thumbnailSize);
+            if (thumbnail == null) {
+                logger.warn("Unable to decode {} cover art in {}", art.getMimeType(), media);
+                mediaHashes.remove(media);
+                noArt.add(media);
+                return null;
+            }
+            diskCache.put(diskKey(hash), thumbnail);
+            memoryCache.put(hash, thumbnail);
+        }
+        return thumbnail.clone();
+    }
+
+    /**
+     * Forget everything known about media, so the cover art is extracted again the next time it is requested.
+     *
+     * @param media the path to the media.
+     */
+    public void invalidate(String media) {
+        noArt.remove(media);
+        mediaHashes.remove(media);
+    }
+
+    private byte[] getCached(String hash) {
+        byte[] thumbnail = memoryCache.get(hash);
+        if (thumbnail == null) {
+            thumbnail = diskCache.read(diskKey(hash));
+            if (thumbnail != null) {
+                memoryCache.put(hash, thumbnail);
+            }
+        }
+        return thumbnail;
+    }
+
+    /* Thumbnails of different sizes can share a directory. */
+    private String diskKey(String hash) {
+        return hash + "-" + thumbnailSize + ".png";
+    }
+
+    /* Scale the picture to fit in a square, and encode it as PNG. Returns null if the picture cannot be decoded. */
+    static byte[] scale(byte[] data, int size) throws IOException {
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(data));
+        if (source == null) {
+            return null;
+        }
+        double scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "png", out);
+        return out.toByteArray();
+    }
+}
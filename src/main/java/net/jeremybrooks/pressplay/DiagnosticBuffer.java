@@ -0,0 +1,77 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed size ring buffer that keeps the most recent diagnostic output of a process.
+ *
+ * <p>Once the buffer is full, the oldest bytes are overwritten, so a process that writes a lot
+ * of output can never use more memory than the size of the buffer.</p>
+ */
+class DiagnosticBuffer implements OutputSink {
+    private final byte[] buffer;
+    private long written;
+
+    DiagnosticBuffer(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Size must be greater than zero.");
+        }
+        this.buffer = new byte[size];
+    }
+
+    @Override
+    public synchronized void accept(byte[] bytes, int offset, int length) {
+        // only the last buffer.length bytes can survive
+        if (length > buffer.length) {
+            offset += length - buffer.length;
+            written += length - buffer.length;
+            length = buffer.length;
+        }
+        int position = (int) (written % buffer.length);
+        int first = Math.min(length, buffer.length - position);
+        System.arraycopy(bytes, offset, buffer, position, first);
+        System.arraycopy(bytes, offset + first, buffer, 0, length - first);
+        written += length;
+    }
+
+    /**
+     * Check if older output has been overwritten.
+     */
+    synchronized boolean isTruncated() {
+        return written > buffer.length;
+    }
+
+    /**
+     * Get the captured output as a String, oldest output first.
+     */
+    @Override
+    public synchronized String toString() {
+        if (written <= buffer.length) {
+            return new String(buffer, 0, (int) written, StandardCharsets.UTF_8);
+        }
+        int position = (int) (written % buffer.length);
+        byte[] ordered = new byte[buffer.length];
+        System.arraycopy(buffer, position, ordered, 0, buffer.length - position);
+        System.arraycopy(buffer, 0, ordered, buffer.length - position, position);
+        return new String(ordered, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Directory of files with a bounded total size. When the size is exceeded, the least
+ * recently used files are deleted. The modification time of a file is updated when it
+ * is used, so the order survives a restart.
+ *
+ * Keys are used as file names, so they must be safe to use as one, such as a hex hash.
+ */
+final class DiskCache {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    /*
+     * Temporary files are only deleted once they have not been written for this long, since
+     * another cache, or another process, using the same directory may still be writing them.
+     */
+    private static final long TEMP_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private final long maxBytes;
+    /* Key to file size, in least recently used order. */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    DiskCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache size must be greater than zero.");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /* Get the file for a key, or null if it is not in the cache. */
+    synchronized Path get(String key) {
+        if (files.get(key) == null) {
+            return null;
+        }
+        Path file = directory.resolve(key);
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // deleted behind our back
+            remove(key);
+            return null;
+        }
+        return file;
+    }
+
+    /* Read the contents of the file for a key, or null if it is not in the cache. */
+    byte[] read(String key) {
+        Path file = get(key);
+        if (file != null) {
+            try {
+                return Files.readAllBytes(file);
+            } catch (IOException e) {
+                logger.debug("Unable to read cached file {}", file, e);
+                remove(key);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Store data for a key. The data is written to a temporary file first, so readers
+     * never see a partial file.
+     */
+    Path put(String key, byte[] data) throws IOException {
+        Path temp = Files.createTempFile(directory, key, TEMP_SUFFIX);
+        try {
+            Files.write(temp, data);
+            return put(key, temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /* Move a complete file into the cache for a key. */
+    synchronized Path put(String key, Path source) throws IOException {
+        Path file = directory.resolve(key);
+        long size = Files.size(source);
+        Files.move(source, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Long previous = files.put(key, size);
+        totalBytes += size - (previous == null ? 0 : previous);
+        evict(key);
+        return file;
+    }
+
+    /* Create a temporary file in the cache directory, to be moved in with put. */
+    Path createTempFile(String key) throws IOException {
+        return Files.createTempFile(directory, key, TEMP_SUFFIX);
+    }
+
+    synchronized void remove(String key) {
+        Long size = files.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+            try {
+                Files.deleteIfExists(directory.resolve(key));
+            } catch (IOException e) {
+                logger.warn("Unable to delete cached file {}", key, e);
+            }
+        }
+    }
+
+    synchronized boolean contains(String key) {
+        return files.containsKey(key);
+    }
+
+    synchronized long size() {
+        return totalBytes;
+    }
+
+    synchronized int count() {
+        return files.size();
+    }
+
+    /* Delete least recently used files until the cache fits, never deleting the file just added. */
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+            } catch (IOException e) {
+                logger.warn("Unable to delete cached file {}", entry.getKey(), e);
+            }
+            totalBytes -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    /*
+     * Index the files already in the directory, oldest first, and remove abandoned temporary files.
+     * Files can be moved or deleted by another cache using the directory while this one loads.
+     */
+    private void load() throws IOException {
+        Map<Path, BasicFileAttributes> existing = new HashMap<>();
+        long abandoned = System.currentTimeMillis() - TEMP_MAX_AGE_MILLIS;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                        if (attributes.lastModifiedTime().toMillis() < abandoned) {
+                            Files.deleteIfExists(file);
+                        }
+                    } else if (attributes.isRegularFile()) {
+                        existing.put(file, attributes);
+                    }
+                } catch (NoSuchFileException e) {
+                    logger.debug("{} was removed while loading the cache.", file);
+                }
+            }
+        }
+        List<Path> sorted = new ArrayList<>(existing.keySet());
+        sorted.sort(Comparator.comparing(file -> existing.get(file).lastModifiedTime()));
+        for (Path file : sorted) {
+            long size = existing.get(file).size();
+            files.put(file.getFileName().toString(), size);
+            totalBytes += size;
+        }
+        logger.debug("Found {} files using {} bytes in {}", files.size(), totalBytes, directory);
+        evict(null);
+    }
+}
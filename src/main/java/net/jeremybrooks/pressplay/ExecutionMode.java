@@ -0,0 +1,46 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+/**
+ * The kind of threads PressPlay uses to wait for processes and run batch work.
+ *
+ * <p>Each playing FFPlay or FFPlaylist has a thread that waits for its process to exit, and
+ * batch operations such as {@link LoudnessAnalyzer#analyzeAll(java.util.Collection)} run their
+ * work on a pool of threads. These threads spend almost all of their time blocked.</p>
+ *
+ * @see PressPlay#setExecutionMode(ExecutionMode)
+ */
+public enum ExecutionMode {
+    /**
+     * Use platform threads. This is the default, and works on all Java versions.
+     */
+    PLATFORM,
+
+    /**
+     * Use virtual threads, so that many thousands of concurrent plays and probes do not need
+     * a platform thread each.
+     *
+     * <p>Virtual threads require Java 21 or later. On older versions this mode behaves
+     * the same as {@link #PLATFORM}. Virtual threads are always daemon threads, so in this mode
+     * a playing FFPlay does not keep the JVM running by itself.</p>
+     */
+    VIRTUAL
+}
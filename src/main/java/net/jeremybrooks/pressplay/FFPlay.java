@@ -23,9 +23,16 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
-
-import static net.jeremybrooks.pressplay.PressPlay.FFPLAY;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
 
 /**
  * Wrapper around the ffplay command.
@@ -34,6 +41,8 @@ import static net.jeremybrooks.pressplay.PressPlay.FFPLAY;
  * <p>You can use any object as the media, as long as the {@code toString()} method of the
  * object results in a string that ffplay can make sense of. This means you can use a
  * Path, File, URL, or a plain old String to specify where to find the media to play.
+ * Media that does not have a path or URL, such as an InputStream or a ByteBuffer, can be
+ * played by wrapping it in a {@link PipedMedia}.
  * For example, to play a media file located at a Path:</p>
  * <pre>
  * {@code
@@ -63,10 +72,22 @@ public class FFPlay<T> {
     private T media;
     private MediaMetadata mediaMetadata;
     private Duration seekTime;
+    private Duration duration;
     private boolean display;
     private Process process;
     private boolean stopCalled;
     private Thread shutdownThread;
+    private int diagnosticBufferSize;
+    private Consumer<ProcessFailure> failureListener;
+    private volatile DiagnosticBuffer diagnostics;
+    private boolean trackPosition;
+    private Consumer<Duration> positionListener;
+    private long positionIntervalNanos;
+    private long lastPositionNanos;
+    private volatile double clock = Double.NaN;
+    private volatile double clockOffset;
+    private SeekIndex seekIndex;
+    private double gain;
 
     /**
      * Builder to create an instance of FFPlay.
@@ -76,8 +97,20 @@ public class FFPlay<T> {
     public static class Builder<T> {
         private T media;
         private Duration seekTime;
+        private Duration duration;
         private boolean display = false;
         private boolean parseMetadata = true;
+        private int diagnosticBufferSize = -1;
+        private Consumer<ProcessFailure> failureListener;
+        private boolean trackPosition;
+        private Consumer<Duration> positionListener;
+        private Duration positionInterval = Duration.ofSeconds(1);
+        private MetadataCache metadataCache;
+        private double gain;
+        private boolean normalize;
+        private Loudness loudness;
+        private double targetLoudness = Loudness.DEFAULT_TARGET;
+        private SeekIndex seekIndex;
 
         /**
          * Set the media to play.
@@ -101,6 +134,37 @@ public class FFPlay<T> {
             return this;
         }
 
+        /**
+         * Set how long to play the media for, such as for a preview.
+         *
+         * <p>If not set, the media plays to the end, and ffplay keeps running until {@link FFPlay#stop()} is
+         * called. If set, ffplay exits once the duration has played, or at the end of the media if that
+         * comes first, so a preview does not need to be stopped.</p>
+         *
+         * @param duration the length of time to play.
+         * @return builder for chaining.
+         */
+        public Builder<T> duration(Duration duration) {
+            this.duration = duration;
+            return this;
+        }
+
+        /**
+         * Set the seek index of the media, so that playback starts at exactly the seek time.
+         *
+         * <p>The media is streamed to ffplay from the frame before the seek time, instead of ffplay
+         * estimating where to start. If a metadata cache is set and it has a seek index for the media,
+         * that index is used without calling this method. The index is ignored if the file has a different
+         * size or modification time than when it was indexed.</p>
+         *
+         * @param seekIndex index created by {@link SeekIndexer} for the media.
+         * @return builder for chaining.
+         */
+        public Builder<T> seekIndex(SeekIndex seekIndex) {
+            this.seekIndex = seekIndex;
+            return this;
+        }
+
         /**
          * Sets a flag indicating that ffplay should display a GUI during playback.
          *
@@ -127,6 +191,133 @@ public class FFPlay<T> {
             return this;
         }
 
+        /**
+         * Capture the most recent diagnostic output of ffplay in a buffer of the given size.
+         *
+         * <p>If this method is not called, the default set with
+         * {@link PressPlay#setDiagnosticBufferSize(int)} is used. A size of zero disables capture.</p>
+         *
+         * @param size size of the buffer in bytes.
+         * @return builder for chaining.
+         */
+        public Builder<T> captureDiagnostics(int size) {
+            if (size < 0) {
+                throw new IllegalArgumentException("Size cannot be negative.");
+            }
+            this.diagnosticBufferSize = size;
+            return this;
+        }
+
+        /**
+         * Set a listener that is called if ffplay fails.
+         *
+         * <p>If this method is not called, the listener set with
+         * {@link PressPlay#setFailureListener} is used.</p>
+         *
+         * @param failureListener the listener.
+         * @return builder for chaining.
+         */
+        public Builder<T> onFailure(Consumer<ProcessFailure> failureListener) {
+            this.failureListener = failureListener;
+            return this;
+        }
+
+        /**
+         * Sets a flag enabling tracking of the playback position.
+         *
+         * <p>The playback position is read from the status output of ffplay, which is only
+         * written when tracking is enabled. By default, tracking is disabled, and
+         * {@link FFPlay#getPosition()} always returns the seek time.</p>
+         *
+         * @return builder for chaining.
+         */
+        public Builder<T> trackPosition() {
+            this.trackPosition = true;
+            return this;
+        }
+
+        /**
+         * Set a listener that is called with the playback position during playback.
+         *
+         * <p>This enables tracking of the playback position. ffplay reports its position many
+         * times a second, so updates are throttled to at most one per interval. The listener is
+         * called from a thread that is shared by all players, so it should return quickly.</p>
+         *
+         * @param positionListener listener that is called with the current playback position.
+         * @param interval minimum time between calls to the listener.
+         * @return builder for chaining.
+         */
+        public Builder<T> onPosition(Consumer<Duration> positionListener, Duration interval) {
+            this.positionListener = positionListener;
+            this.positionInterval = interval;
+            this.trackPosition = true;
+            return this;
+        }
+
+        /**
+         * Set a cache to get the metadata, loudness and seek index of the media from.
+         *
+         * <p>If the metadata is not in the cache, the media is probed and the result is
+         * stored in the cache.</p>
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder<T> metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Set a gain to apply to the media during playback.
+         *
+         * <p>If normalization is also enabled, the gain is added to the normalization gain.</p>
+         *
+         * @param gain gain in dB. Negative values make the media quieter.
+         * @return builder for chaining.
+         */
+        public Builder<T> gain(double gain) {
+            this.gain = gain;
+            return this;
+        }
+
+        /**
+         * Normalize the volume of the media using the loudness stored in the metadata cache.
+         *
+         * <p>The loudness must have been measured with a {@link LoudnessAnalyzer} that uses the
+         * same cache. If there is no loudness in the cache, the media plays at its original volume.</p>
+         *
+         * @return builder for chaining.
+         */
+        public Builder<T> normalize() {
+            this.normalize = true;
+            return this;
+        }
+
+        /**
+         * Normalize the volume of the media to the default target loudness.
+         *
+         * @param loudness the measured loudness of the media.
+         * @return builder for chaining.
+         */
+        public Builder<T> normalize(Loudness loudness) {
+            return normalize(loudness, Loudness.DEFAULT_TARGET);
+        }
+
+        /**
+         * Normalize the volume of the media to a target loudness.
+         *
+         * @param loudness the measured loudness of the media.
+         * @param targetLoudness the target loudness in LUFS.
+         * @return builder for chaining.
+         */
+        public Builder<T> normalize(Loudness loudness, double targetLoudness) {
+            this.normalize = true;
+            this.loudness = loudness;
+            this.targetLoudness = targetLoudness;
+            return this;
+        }
+
         /**
          * Build the ffplay object with the parameters that have been set.
          *
@@ -139,6 +330,9 @@ public class FFPlay<T> {
             if (seekTime == null) {
                 seekTime = Duration.ZERO;
             }
+            if (positionInterval == null || positionInterval.isNegative()) {
+                positionInterval = Duration.ZERO;
+            }
             return new FFPlay<>(this);
         }
     }
@@ -150,9 +344,44 @@ public class FFPlay<T> {
     private FFPlay(Builder<T> builder) {
         this.media = builder.media;
         this.display = builder.display;
+        this.duration = builder.duration == null || builder.duration.isNegative() || builder.duration.isZero()
+                ? null : builder.duration;
+        this.diagnosticBufferSize = builder.diagnosticBufferSize < 0
+                ? Settings.getDiagnosticBufferSize() : builder.diagnosticBufferSize;
+        this.failureListener = builder.failureListener;
+        this.trackPosition = builder.trackPosition;
+        this.positionListener = builder.positionListener;
+        this.positionIntervalNanos = builder.positionInterval.toNanos();
+        this.gain = builder.gain;
+        this.seekIndex = builder.seekIndex;
+        if (seekIndex == null && builder.metadataCache != null && !(media instanceof PipedMedia)) {
+            this.seekIndex = builder.metadataCache.getSeekIndex(media.toString());
+        }
+        if (builder.normalize) {
+            Loudness loudness = builder.loudness;
+            if (loudness == null && builder.metadataCache != null && !(media instanceof PipedMedia)) {
+                loudness = builder.metadataCache.getLoudness(media.toString());
+            }
+            if (loudness == null) {
+                logger.debug("No loudness available for {}, not normalizing.", media);
+            } else {
+                this.gain += loudness.getGain(builder.targetLoudness, Loudness.DEFAULT_MAX_TRUE_PEAK);
+            }
+        }
         try {
             if (builder.parseMetadata) {
-                this.mediaMetadata = FFProbe.getMediaMetadata(media.toString());
+                if (media instanceof PipedMedia) {
+                    PipedMedia pipedMedia = (PipedMedia) media;
+                    if (pipedMedia.isRepeatable()) {
+                        this.mediaMetadata = FFProbe.getMediaMetadata(pipedMedia);
+                    } else {
+                        logger.debug("Media can only be read once, not parsing metadata.");
+                    }
+                } else {
+                    this.mediaMetadata = builder.metadataCache == null
+                            ? FFProbe.getMediaMetadata(media.toString())
+                            : builder.metadataCache.getMediaMetadata(media.toString());
+                }
             }
             if (this.mediaMetadata == null) {
                 this.seekTime = Duration.ZERO;
@@ -187,37 +416,138 @@ public class FFPlay<T> {
         //       ffplay to show a gui, or not showing the gui
         String nodisp = display ? "-hide_banner" : "-nodisp";
 
+        clock = Double.NaN;
+        lastPositionNanos = 0;
         Runnable ffplay = () -> {
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    FFPLAY,
-                    "-i",
-                    media.toString(),
-                    nodisp,
-                    "-v",
-                    "quiet",
-                    "-ss",
-                    Double.toString(seekTime.toMillis() / 1000.0))
-                    .inheritIO();
+            boolean capture = diagnosticBufferSize > 0;
+            // with a seek index, stream from the frame before the seek time and trim the samples before it
+            FileChannel indexed = openIndexed();
+            PipedMedia input = media instanceof PipedMedia ? (PipedMedia) media : null;
+            List<String> filters = new ArrayList<>();
+            clockOffset = 0;
+            if (indexed != null) {
+                int entry = seekIndex.find(seekTime);
+                input = PipedMedia.of(indexed, seekIndex.getHeader(), seekIndex.getOffset(entry));
+                filters.add("atrim=start_sample=" + (seekIndex.toSamples(seekTime) - seekIndex.getSamples(entry)));
+                clockOffset = seekIndex.getSamples(entry) / (double) seekIndex.getSampleRate();
+            }
             try {
+                List<String> command = new ArrayList<>(Arrays.asList(
+                        FFmpegTools.get().requireFFplay(),
+                        "-i",
+                        input == null ? media.toString() : input.toString(),
+                        nodisp,
+                        "-v",
+                        capture ? "warning" : "quiet"));
+                if (indexed == null) {
+                    command.add("-ss");
+                    command.add(Double.toString(seekTime.toMillis() / 1000.0));
+                }
+                if (duration != null) {
+                    // -t limits the input, which starts at the indexed frame, before the trimmed samples
+                    double limit = duration.toMillis() / 1000.0;
+                    if (indexed != null) {
+                        limit += seekTime.toMillis() / 1000.0 - clockOffset;
+                    }
+                    command.add("-t");
+                    command.add(Double.toString(limit));
+                    command.add("-autoexit");
+                }
+                if (trackPosition) {
+                    command.add("-stats");
+                }
+                if (gain != 0) {
+                    filters.add(String.format(Locale.ROOT, "volume=%.2fdB", gain));
+                }
+                if (!filters.isEmpty()) {
+                    command.add("-af");
+                    command.add(String.join(",", filters));
+                }
+                ProcessBuilder processBuilder = new ProcessBuilder(command).inheritIO();
+                if (input != null) {
+                    processBuilder.redirectInput(ProcessBuilder.Redirect.PIPE);
+                }
+                if (capture || trackPosition) {
+                    processBuilder.redirectError(ProcessBuilder.Redirect.PIPE);
+                }
                 process = processBuilder.start();
-                process.waitFor();
+                CountDownLatch outputDone = null;
+                if (capture || trackPosition) {
+                    OutputSink sink = null;
+                    if (capture) {
+                        diagnostics = new DiagnosticBuffer(diagnosticBufferSize);
+                        sink = diagnostics;
+                    }
+                    if (trackPosition) {
+                        sink = new StatusLine(this::clockUpdated, sink);
+                    }
+                    outputDone = ProcessOutputReader.getInstance()
+                            .register(process, process.getErrorStream(), sink);
+                }
+                if (input != null) {
+                    input.pump(process);
+                }
+                int exitCode = ThreadSupport.waitFor(process);
+                if (exitCode != 0 && !stopCalled) {
+                    if (outputDone != null) {
+                        ProcessOutputReader.awaitClosed(outputDone);
+                    }
+                    Settings.reportFailure(
+                            new ProcessFailure("ffplay", media.toString(), exitCode, getDiagnostics(), null),
+                            failureListener);
+                }
             } catch (IOException ioe) {
-                logger.warn("Error while trying to play {}", media, ioe);
+                Settings.reportFailure(
+                        new ProcessFailure("ffplay", media.toString(), -1, getDiagnostics(), ioe),
+                        failureListener);
+            } catch (IllegalStateException ise) {
+                logger.warn("Unable to play {}", media, ise);
+                process.destroy();
             } catch (InterruptedException ie) {
                 if (!stopCalled) {
                     logger.warn("Interrupted while playing {}", media, ie);
                 }
             } finally {
                 Runtime.getRuntime().removeShutdownHook(shutdownThread);
+                closeQuietly(indexed);
             }
         };
 
-        new Thread(ffplay).start();
+        ThreadSupport.newThread("pressplay-play", false, ffplay).start();
 
         shutdownThread = new Thread(new PlayerShutdownHook(this));
         Runtime.getRuntime().addShutdownHook(shutdownThread);
     }
 
+    /* Open the media for streaming from the seek index, or return null if the index cannot be used. */
+    private FileChannel openIndexed() {
+        if (seekIndex == null || seekTime.isZero() || media instanceof PipedMedia) {
+            return null;
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(Paths.get(media.toString()), StandardOpenOption.READ);
+            if (seekIndex.getStamp().matches(MetadataCache.FileStamp.of(media.toString()))) {
+                return channel;
+            }
+            logger.warn("Seek index does not match {}, seeking without it.", media);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to use seek index for {}, seeking without it.", media, e);
+        }
+        closeQuietly(channel);
+        return null;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Error closing media.", e);
+            }
+        }
+    }
+
     /**
      * Stop any current playback.
      */
@@ -267,6 +597,67 @@ public class FFPlay<T> {
         this.seekTime = seekTime;
     }
 
+    /**
+     * Get how long the media will play for.
+     *
+     * @return the length of time to play, or null to play to the end.
+     */
+    public Duration getDuration() {
+        return duration;
+    }
+
+    /**
+     * Get the current playback position.
+     *
+     * <p>The position is read from the status output of ffplay, so it is the position of the
+     * audio that is actually being played. Before playback starts, or if position tracking is
+     * not enabled, this is the seek time. After playback ends, this is the last position reported.</p>
+     *
+     * @return current playback position.
+     */
+    public Duration getPosition() {
+        double value = clock;
+        if (Double.isNaN(value)) {
+            return seekTime;
+        }
+        return Duration.ofMillis(Math.round(value * 1000));
+    }
+
+    /* Called by the output reader with each clock value parsed from the status output. */
+    private void clockUpdated(double value) {
+        clock = clockOffset + value;
+        if (positionListener != null) {
+            long now = System.nanoTime();
+            if (lastPositionNanos == 0 || now - lastPositionNanos >= positionIntervalNanos) {
+                lastPositionNanos = now;
+                try {
+                    positionListener.accept(getPosition());
+                } catch (RuntimeException e) {
+                    logger.warn("Error in position listener.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the diagnostic output captured from the most recent playback.
+     *
+     * @return captured output, or an empty String if capture is disabled or playback has not started.
+     */
+    public String getDiagnostics() {
+        DiagnosticBuffer buffer = diagnostics;
+        return buffer == null ? "" : buffer.toString();
+    }
+
+    /**
+     * Get the gain that will be applied during playback, including any normalization gain.
+     *
+     * @return gain in dB, zero if the volume is not changed.
+     */
+    public double getGain() {
+        return gain;
+    }
+
     /**
      * Get the value of the display flag.
      *
@@ -0,0 +1,451 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Plays an ordered list of media through a single ffplay process.
+ *
+ * <p>Playing each item with its own FFPlay means a new process per item, with the cost of starting
+ * the process, opening the audio device and buffering paid each time, and a gap between items.
+ * FFPlaylist instead feeds every item to one long-lived process using the ffmpeg concat demuxer,
+ * so items play back to back without gaps.</p>
+ * <pre>
+ * {@code
+ *   FFPlaylist<Path> playlist = new FFPlaylist.Builder<Path>()
+ *           .media(albumTracks)
+ *           .onItemChange(track -> System.out.println("Now playing " + track))
+ *           .build();
+ *   playlist.play();
+ * }
+ * </pre>
+ * <p>The concat demuxer requires all items to have the same format, which is normally the case for
+ * the tracks of an album. If a crossfade is set, the items are instead decoded by ffmpeg and mixed
+ * with the {@code acrossfade} filter, and the result is piped to ffplay. This works with items in
+ * different formats, at the cost of a second process.</p>
+ * <p>The current item is found by reading the playback clock from the status output of ffplay
+ * and comparing it to the durations parsed from the metadata of each item. If metadata parsing is
+ * disabled, the current item is always reported as the first item.</p>
+ * <p>Items must be local files or URLs; PipedMedia cannot be used in a playlist.</p>
+ *
+ * @param <T> the class that will be used to provide the path to the media to play.
+ */
+public class FFPlaylist<T> {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String PROTOCOL_WHITELIST = "file,pipe,http,https,tcp,tls,crypto";
+    private static final String PIPE_OUTPUT = "pipe:1";
+
+    private final List<T> media;
+    private final List<MediaMetadata> mediaMetadata;
+    private final Duration crossfade;
+    private final boolean display;
+    private final Consumer<T> itemListener;
+    private final double[] startTimes;
+    private volatile int currentIndex;
+    private volatile List<Process> processes = Collections.emptyList();
+    private volatile boolean stopCalled;
+    private Thread shutdownThread;
+
+    /**
+     * Builder to create an instance of FFPlaylist.
+     *
+     * @param <T> the class that will be used to provide the path to the media to play.
+     */
+    public static class Builder<T> {
+        private final List<T> media = new ArrayList<>();
+        private Duration crossfade = Duration.ZERO;
+        private boolean display = false;
+        private boolean parseMetadata = true;
+        private Consumer<T> itemListener;
+
+        /**
+         * Add media to the end of the playlist.
+         *
+         * @param media object representing the media to play.
+         * @return builder for chaining.
+         */
+        public Builder<T> add(T media) {
+            if (media == null) {
+                throw new IllegalArgumentException("Media cannot be null.");
+            }
+            this.media.add(media);
+            return this;
+        }
+
+        /**
+         * Add a list of media to the end of the playlist, in order.
+         *
+         * @param media list of objects representing the media to play.
+         * @return builder for chaining.
+         */
+        public Builder<T> media(List<T> media) {
+            for (T item : media) {
+                add(item);
+            }
+            return this;
+        }
+
+        /**
+         * Set the length of the crossfade between items.
+         *
+         * <p>The default is no crossfade, which plays items back to back.</p>
+         *
+         * @param crossfade the length of the crossfade.
+         * @return builder for chaining.
+         */
+        public Builder<T> crossfade(Duration crossfade) {
+            this.crossfade = crossfade;
+            return this;
+        }
+
+        /**
+         * Sets a flag indicating that ffplay should display a GUI during playback.
+         *
+         * @return builder for chaining.
+         */
+        public Builder<T> display() {
+            this.display = true;
+            return this;
+        }
+
+        /**
+         * Sets a flag disabling parsing of metadata for the media.
+         *
+         * <p>Without metadata, the current item cannot be tracked.</p>
+         *
+         * @return builder for chaining.
+         */
+        public Builder<T> noMetadata() {
+            this.parseMetadata = false;
+            return this;
+        }
+
+        /**
+         * Set a listener that is called when playback moves to a new item.
+         *
+         * <p>The listener is called from the thread reading the process output, so it should
+         * return quickly.</p>
+         *
+         * @param itemListener listener that is called with the item that is now playing.
+         * @return builder for chaining.
+         */
+        public Builder<T> onItemChange(Consumer<T> itemListener) {
+            this.itemListener = itemListener;
+            return this;
+        }
+
+        /**
+         * Build the playlist with the parameters that have been set.
+         *
+         * @return instance of the playlist ready to play the media.
+         */
+        public FFPlaylist<T> build() {
+            if (media.isEmpty()) {
+                throw new IllegalArgumentException("Media cannot be empty.");
+            }
+            for (T item : media) {
+                if (item instanceof PipedMedia) {
+                    throw new IllegalArgumentException("PipedMedia cannot be used in a playlist.");
+                }
+            }
+            if (crossfade == null || crossfade.isNegative()) {
+                crossfade = Duration.ZERO;
+            }
+            return new FFPlaylist<>(this);
+        }
+    }
+
+    private FFPlaylist(Builder<T> builder) {
+        this.media = Collections.unmodifiableList(new ArrayList<>(builder.media));
+        this.crossfade = builder.crossfade;
+        this.display = builder.display;
+        this.itemListener = builder.itemListener;
+        List<MediaMetadata> list = new ArrayList<>();
+        if (builder.parseMetadata) {
+            for (T item : media) {
+                try {
+                    list.add(FFProbe.getMediaMetadata(item.toString()));
+                } catch (Exception e) {
+                    logger.warn("Error parsing metadata for {}", item, e);
+                    list.add(null);
+                }
+            }
+        }
+        this.mediaMetadata = Collections.unmodifiableList(list);
+        this.startTimes = computeStartTimes(mediaMetadata, crossfade);
+    }
+
+    /**
+     * Play the playlist.
+     *
+     * <p>This method will start the playback process on a separate Thread, so the
+     * caller will not be blocked. It will also register a shutdown hook to
+     * stop the process in the event that the calling application exits before
+     * the playback has completed or the stop method has been called.</p>
+     */
+    public void play() {
+        logger.debug("Playing {} items, crossfade={}ms display={}", media.size(), crossfade.toMillis(), display);
+        Runnable player = () -> {
+            try {
+                List<ProcessBuilder> builders = new ArrayList<>();
+                ProcessBuilder ffplay;
+                PipedMedia concatList = null;
+                if (crossfade.isZero()) {
+                    concatList = PipedMedia.of(ByteBuffer.wrap(buildConcatList().getBytes(StandardCharsets.UTF_8)));
+                    ffplay = new ProcessBuilder(ffplayCommand("-f", "concat", "-safe", "0",
+                            "-protocol_whitelist", PROTOCOL_WHITELIST));
+                } else {
+                    builders.add(new ProcessBuilder(buildCrossfadeCommand())
+                            .redirectError(ProcessBuilder.Redirect.DISCARD));
+                    ffplay = new ProcessBuilder(ffplayCommand());
+                }
+                ffplay.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                builders.add(ffplay);
+
+                List<Process> started = ProcessBuilder.startPipeline(builders);
+                processes = started;
+                if (stopCalled) {
+                    stop();
+                }
+                if (concatList != null) {
+                    concatList.pump(started.get(0));
+                }
+                Process ffplayProcess = started.get(started.size() - 1);
+                ProcessOutputReader.getInstance().register(ffplayProcess, ffplayProcess.getErrorStream(),
+                        new StatusLine(this::updateCurrentIndex, null));
+                ThreadSupport.waitFor(ffplayProcess);
+            } catch (IOException ioe) {
+                logger.warn("Error while trying to play playlist", ioe);
+            } catch (InterruptedException ie) {
+                if (!stopCalled) {
+                    logger.warn("Interrupted while playing playlist", ie);
+                }
+            } finally {
+                for (Process process : processes) {
+                    process.destroy();
+                }
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownThread);
+                } catch (IllegalStateException e) {
+                    // already shutting down
+                }
+            }
+        };
+
+        shutdownThread = new Thread(this::stop);
+        Runtime.getRuntime().addShutdownHook(shutdownThread);
+        ThreadSupport.newThread("pressplay-playlist", false, player).start();
+    }
+
+    /**
+     * Stop playback.
+     */
+    public void stop() {
+        stopCalled = true;
+        for (Process process : processes) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Get the media in the playlist.
+     *
+     * @return unmodifiable list of media, in playback order.
+     */
+    public List<T> getMedia() {
+        return media;
+    }
+
+    /**
+     * Get the parsed metadata for the media in the playlist.
+     *
+     * @return unmodifiable list of metadata in playback order, or an empty list if metadata was not parsed.
+     */
+    public List<MediaMetadata> getMediaMetadata() {
+        return mediaMetadata;
+    }
+
+    /**
+     * Get the index of the item that is currently playing.
+     *
+     * @return index of the current item.
+     */
+    public int getCurrentIndex() {
+        return currentIndex;
+    }
+
+    /**
+     * Get the item that is currently playing.
+     *
+     * @return the current item.
+     */
+    public T getCurrentMedia() {
+        return media.get(currentIndex);
+    }
+
+    /**
+     * Get the length of the crossfade between items.
+     *
+     * @return crossfade, Duration.ZERO if there is no crossfade.
+     */
+    public Duration getCrossfade() {
+        return crossfade;
+    }
+
+    /**
+     * Get the value of the display flag.
+     *
+     * @return true if the display flag is set, false otherwise.
+     */
+    public boolean isDisplay() {
+        return display;
+    }
+
+    /* Package private for testing. */
+    void updateCurrentIndex(double clock) {
+        int index = indexAt(startTimes, clock);
+        if (index != currentIndex) {
+            currentIndex = index;
+            logger.debug("Playlist moved to item {}: {}", index, media.get(index));
+            if (itemListener != null) {
+                itemListener.accept(media.get(index));
+            }
+        }
+    }
+
+    /* Find the item that is playing at the clock time. */
+    static int indexAt(double[] startTimes, double clock) {
+        int index = 0;
+        for (int i = 1; i < startTimes.length; i++) {
+            if (clock >= startTimes[i]) {
+                index = i;
+            } else {
+                break;
+            }
+        }
+        return index;
+    }
+
+    /*
+     * Compute the time each item starts, in seconds. With a crossfade, the next item starts
+     * when the crossfade begins. If any duration is not known, only the first item is tracked.
+     */
+    static double[] computeStartTimes(List<MediaMetadata> metadata, Duration crossfade) {
+        double[] starts = new double[metadata.size()];
+        double fade = crossfade.toMillis() / 1000.0;
+        double time = 0;
+        for (int i = 0; i < metadata.size(); i++) {
+            starts[i] = time;
+            MediaMetadata item = metadata.get(i);
+            if (item == null || item.getDuration().isZero()) {
+                return new double[]{0};
+            }
+            time += item.getDuration().toMillis() / 1000.0 - fade;
+        }
+        return starts;
+    }
+
+    String buildConcatList() {
+        StringBuilder list = new StringBuilder("ffconcat version 1.0\n");
+        for (T item : media) {
+            list.append("file '").append(location(item).replace("'", "'\\''")).append("'\n");
+        }
+        return list.toString();
+    }
+
+    private List<String> buildCrossfadeCommand() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(FFmpegTools.get().requireFFmpeg());
+        command.add("-v");
+        command.add("quiet");
+        command.add("-nostdin");
+        for (T item : media) {
+            command.add("-i");
+            command.add(location(item));
+        }
+        command.add("-filter_complex");
+        command.add(buildCrossfadeFilter(media.size(), crossfade));
+        command.add("-map");
+        command.add("[out]");
+        command.add("-c:a");
+        command.add("pcm_s16le");
+        command.add("-f");
+        command.add("wav");
+        command.add(PIPE_OUTPUT);
+        return command;
+    }
+
+    static String buildCrossfadeFilter(int count, Duration crossfade) {
+        String duration = Double.toString(crossfade.toMillis() / 1000.0);
+        if (count == 1) {
+            return "[0:a]anull[out]";
+        }
+        StringBuilder filter = new StringBuilder();
+        String previous = "[0:a]";
+        for (int i = 1; i < count; i++) {
+            String label = i == count - 1 ? "[out]" : "[x" + i + "]";
+            if (i > 1) {
+                filter.append(';');
+            }
+            filter.append(previous).append('[').append(i).append(":a]acrossfade=d=")
+                    .append(duration).append(label);
+            previous = label;
+        }
+        return filter.toString();
+    }
+
+    private List<String> ffplayCommand(String... inputOptions) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(FFmpegTools.get().requireFFplay());
+        Collections.addAll(command, inputOptions);
+        command.add("-i");
+        command.add(PipedMedia.PIPE_INPUT);
+        command.add(display ? "-hide_banner" : "-nodisp");
+        command.add("-autoexit");
+        command.add("-stats");
+        command.add("-v");
+        command.add("quiet");
+        return command;
+    }
+
+    /* The concat demuxer resolves relative paths against the list, so always use absolute paths. */
+    private static String location(Object item) {
+        if (item instanceof Path) {
+            return ((Path) item).toAbsolutePath().toString();
+        } else if (item instanceof File) {
+            return ((File) item).getAbsolutePath();
+        }
+        return item.toString();
+    }
+}
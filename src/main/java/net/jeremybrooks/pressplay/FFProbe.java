@@ -20,14 +20,13 @@
 package net.jeremybrooks.pressplay;
 
 import com.google.gson.Gson;
-import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-
-import static net.jeremybrooks.pressplay.PressPlay.FFPROBE;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Wrapper around the ffprobe command.
@@ -50,10 +49,40 @@ public class FFProbe {
         if (media == null || media.trim().isEmpty()) {
             return null;
         }
+        return probe(media, null, null);
+    }
+
+    /**
+     * Executes the ffprobe command to get metadata about media that is piped to ffprobe.
+     *
+     * <p>Media that can only be read once will be consumed by this call, so it
+     * cannot be played afterwards.</p>
+     *
+     * @param media the media to pipe to ffprobe.
+     * @return object with the metadata that was parsed from the media,
+     * or null if the media is null.
+     * @throws IOException if there is an error while parsing the media.
+     */
+    public static MediaMetadata getMediaMetadata(PipedMedia media) throws IOException {
+        if (media == null) {
+            return null;
+        }
+        return probe(media.toString(), media, null);
+    }
+
+    /* Lets a caller see the running process, so it can cancel the probe by destroying it. */
+    interface ProbeListener {
+        void started(Process process);
+
+        boolean isCancelled();
+    }
+
+    static MediaMetadata probe(String media, PipedMedia pipedMedia, ProbeListener listener) throws IOException {
         MediaMetadata metadata = null;
         logger.debug("Getting metadata for {}", media);
+        int diagnosticBufferSize = Settings.getDiagnosticBufferSize();
         ProcessBuilder processBuilder = new ProcessBuilder(
-                FFPROBE,
+                FFmpegTools.get().requireFFprobe(),
                 "-i",
                 media,
                 "-show_entries",
@@ -61,21 +90,62 @@ public class FFProbe {
                 "-of",
                 "json",
                 "-v",
-                "quiet")
-                .redirectErrorStream(true);
+                diagnosticBufferSize > 0 ? "error" : "quiet")
+                .redirectErrorStream(diagnosticBufferSize == 0);
 
-        Process process = processBuilder.start();
-        String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+        Process process;
         try {
-            int exitCode = process.waitFor();
+            process = processBuilder.start();
+        } catch (IOException ioe) {
+            Settings.reportFailure(new ProcessFailure("ffprobe", media, -1, null, ioe), null);
+            throw ioe;
+        }
+        if (listener != null) {
+            listener.started(process);
+        }
+        DiagnosticBuffer diagnostics = null;
+        CountDownLatch diagnosticsDone = null;
+        if (diagnosticBufferSize > 0) {
+            diagnostics = new DiagnosticBuffer(diagnosticBufferSize);
+            diagnosticsDone = ProcessOutputReader.getInstance()
+                    .register(process, process.getErrorStream(), diagnostics);
+        }
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        CountDownLatch stdoutDone = ProcessOutputReader.getInstance()
+                .register(process, process.getInputStream(), stdout::write);
+        if (pipedMedia != null) {
+            pipedMedia.pump(process);
+        }
+        try {
+            int exitCode = ThreadSupport.waitFor(process);
+            // released at most a second after the process exits, so this never blocks for long
+            stdoutDone.await();
+            String output = new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+            if (listener != null && listener.isCancelled()) {
+                logger.debug("Probe of {} was cancelled.", media);
+                return null;
+            }
             if (exitCode != 0) {
-                logger.warn("Process exited with non-zero result: {}", exitCode);
+                if (diagnostics == null) {
+                    logger.warn("Process exited with non-zero result: {}", exitCode);
+                } else {
+                    ProcessOutputReader.awaitClosed(diagnosticsDone);
+                    Settings.reportFailure(
+                            new ProcessFailure("ffprobe", media, exitCode, diagnostics.toString(), null), null);
+                }
             }
             logger.debug("Output of process is \n{}", output);
             metadata = new Gson().fromJson(output, MediaMetadata.class);
 
         } catch (InterruptedException ie) {
-            logger.warn("Interrupted while waiting for the process to finish.", ie);
+            if (listener == null) {
+                logger.warn("Interrupted while waiting for the process to finish.", ie);
+            } else {
+                process.destroy();
+                if (!listener.isCancelled()) {
+                    logger.warn("Interrupted while waiting for the process to finish.", ie);
+                }
+            }
         }
         return metadata;
     }
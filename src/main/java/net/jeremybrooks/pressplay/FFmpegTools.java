@@ -0,0 +1,597 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ffmpeg tools used by PressPlay, and what they support.
+ *
+ * <p>The tools are found the first time they are needed, not when the class is loaded. Each of
+ * ffmpeg, ffprobe and ffplay is looked for in these places, in order:</p>
+ * <ol>
+ *     <li>the directory in the system property {@code pressplay.ffmpeg.path}, if it is set, and
+ *     no other place</li>
+ *     <li>the directories on the {@code PATH}</li>
+ *     <li>well known install locations, such as {@code /usr/local/bin}, {@code /opt/homebrew/bin}
+ *     and {@code /usr/bin}</li>
+ * </ol>
+ *
+ * <p>Each tool that is found is run once with {@code -version} to check that it works. The version
+ * of ffmpeg, and the input formats and filters it supports, are also detected, so callers can check
+ * for a feature before using it. Detection starts a few processes, so the result is saved to a cache
+ * file, and is reused by later JVMs for as long as the tools have not changed. The cache file is
+ * {@code ~/.pressplay/tools.cache} by default, and can be changed with the system property
+ * {@code pressplay.tools.cache}. Set the property to {@code none} to disable the cache file.</p>
+ * <pre>
+ * {@code
+ *   FFmpegTools tools = FFmpegTools.get();
+ *   if (tools.supportsFilter("loudnorm")) {
+ *     // measure loudness
+ *   }
+ * }
+ * </pre>
+ */
+public final class FFmpegTools {
+    private static final Logger logger = LogManager.getLogger();
+
+    static final String FFMPEG_PATH_PROPERTY = "pressplay.ffmpeg.path";
+    static final String CACHE_FILE_PROPERTY = "pressplay.tools.cache";
+
+    private static final byte[] MAGIC = {'P', 'P', 'T', 'C'};
+    private static final List<String> KNOWN_LOCATIONS = Collections.unmodifiableList(Arrays.asList(
+            "/usr/local/bin",
+            "/opt/homebrew/bin",
+            "/usr/bin",
+            "/opt/local/bin",
+            "/snap/bin",
+            "C:\\ffmpeg\\bin"));
+    private static final long VERSION_TIMEOUT_SECONDS = 10;
+
+    private static volatile FFmpegTools instance;
+
+    private final Tool ffmpeg;
+    private final Tool ffprobe;
+    private final Tool ffplay;
+    private final Set<String> formats;
+    private final Set<String> filters;
+
+    private FFmpegTools(Tool ffmpeg, Tool ffprobe, Tool ffplay, Set<String> formats, Set<String> filters) {
+        this.ffmpeg = ffmpeg;
+        this.ffprobe = ffprobe;
+        this.ffplay = ffplay;
+        this.formats = Collections.unmodifiableSet(formats);
+        this.filters = Collections.unmodifiableSet(filters);
+    }
+
+    /**
+     * Get the tools, finding them if this is the first call.
+     *
+     * @return the tools.
+     */
+    public static FFmpegTools get() {
+        FFmpegTools tools = instance;
+        if (tools == null) {
+            synchronized (FFmpegTools.class) {
+                tools = instance;
+                if (tools == null) {
+                    tools = discover(System.getProperty(FFMPEG_PATH_PROPERTY), System.getenv("PATH"),
+                            KNOWN_LOCATIONS, cacheFile());
+                    instance = tools;
+                }
+            }
+        }
+        return tools;
+    }
+
+    /**
+     * Find the tools again, ignoring the cache file.
+     *
+     * <p>Use this after installing or moving the tools, or changing the {@code pressplay.ffmpeg.path}
+     * property. Instances of FFPlay that have already been created are not affected.</p>
+     *
+     * @return the tools.
+     */
+    public static FFmpegTools refresh() {
+        synchronized (FFmpegTools.class) {
+            Path cacheFile = cacheFile();
+            if (cacheFile != null) {
+                try {
+                    Files.deleteIfExists(cacheFile);
+                } catch (IOException e) {
+                    logger.debug("Unable to delete {}", cacheFile, e);
+                }
+            }
+            instance = null;
+            return get();
+        }
+    }
+
+    /**
+     * Get the path to ffmpeg.
+     *
+     * @return path to ffmpeg. If ffmpeg was not found, this is where it was expected to be.
+     */
+    public String getFFmpeg() {
+        return ffmpeg.path;
+    }
+
+    /**
+     * Get the path to ffprobe.
+     *
+     * @return path to ffprobe. If ffprobe was not found, this is where it was expected to be.
+     */
+    public String getFFprobe() {
+        return ffprobe.path;
+    }
+
+    /**
+     * Get the path to ffplay.
+     *
+     * @return path to ffplay. If ffplay was not found, this is where it was expected to be.
+     */
+    public String getFFplay() {
+        return ffplay.path;
+    }
+
+    /* The path to ffmpeg, for starting it. */
+    String requireFFmpeg() throws IOException {
+        return ffmpeg.require("ffmpeg");
+    }
+
+    /* The path to ffprobe, for starting it. */
+    String requireFFprobe() throws IOException {
+        return ffprobe.require("ffprobe");
+    }
+
+    /* The path to ffplay, for starting it. */
+    String requireFFplay() throws IOException {
+        return ffplay.require("ffplay");
+    }
+
+    /**
+     * Check if ffmpeg was found and works.
+     *
+     * @return true if ffmpeg is available.
+     */
+    public boolean hasFFmpeg() {
+        return ffmpeg.version != null;
+    }
+
+    /**
+     * Check if ffprobe was found and works.
+     *
+     * @return true if ffprobe is available.
+     */
+    public boolean hasFFprobe() {
+        return ffprobe.version != null;
+    }
+
+    /**
+     * Check if ffplay was found and works.
+     *
+     * <p>Some ffmpeg builds do not include ffplay.</p>
+     *
+     * @return true if ffplay is available.
+     */
+    public boolean hasFFplay() {
+        return ffplay.version != null;
+    }
+
+    /**
+     * Get the version of ffmpeg.
+     *
+     * @return version, such as {@code 6.1.1}, or an empty String if ffmpeg is not available.
+     */
+    public String getVersion() {
+        return ffmpeg.version == null ? "" : ffmpeg.version;
+    }
+
+    /**
+     * Get the input formats that ffmpeg supports.
+     *
+     * @return names of the demuxers, such as {@code mp3} and {@code flac}, or an empty set if
+     * ffmpeg is not available.
+     */
+    public Set<String> getFormats() {
+        return formats;
+    }
+
+    /**
+     * Get the filters that ffmpeg supports.
+     *
+     * @return names of the filters, such as {@code loudnorm}, or an empty set if ffmpeg is not available.
+     */
+    public Set<String> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Check if ffmpeg can read an input format.
+     *
+     * @param format name of the format.
+     * @return true if ffmpeg has a demuxer for the format.
+     */
+    public boolean supportsFormat(String format) {
+        return format != null && formats.contains(format.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Check if ffmpeg has a filter.
+     *
+     * @param filter name of the filter.
+     * @return true if ffmpeg has the filter.
+     */
+    public boolean supportsFilter(String filter) {
+        return filters.contains(filter);
+    }
+
+    @Override
+    public String toString() {
+        return "FFmpegTools{ffmpeg=" + ffmpeg + ", ffprobe=" + ffprobe + ", ffplay=" + ffplay
+                + ", formats=" + formats.size() + ", filters=" + filters.size() + "}";
+    }
+
+    /*
+     * Find and check the tools, using the cache file if it was written for the same tools.
+     * The cache is only trusted if each tool is still at the same path, with the same size and
+     * modification time.
+     */
+    static FFmpegTools discover(String configuredPath, String pathEnv, List<String> knownLocations, Path cacheFile) {
+        List<Path> directories = candidateDirectories(configuredPath, pathEnv, knownLocations);
+        String ffmpegPath = locate("ffmpeg", directories, configuredPath);
+        String ffprobePath = locate("ffprobe", directories, configuredPath);
+        String ffplayPath = locate("ffplay", directories, configuredPath);
+
+        if (cacheFile != null) {
+            FFmpegTools cached = load(cacheFile, ffmpegPath, ffprobePath, ffplayPath);
+            if (cached != null) {
+                logger.debug("Using cached ffmpeg tools {}", cached);
+                return cached;
+            }
+        }
+
+        Tool ffmpeg = check(ffmpegPath);
+        Tool ffprobe = check(ffprobePath);
+        Tool ffplay = check(ffplayPath);
+        Set<String> formats = new HashSet<>();
+        Set<String> filters = new HashSet<>();
+        if (ffmpeg.version != null) {
+            formats = parseFormats(run(ffmpeg.path, "-hide_banner", "-demuxers"));
+            filters = parseFilters(run(ffmpeg.path, "-hide_banner", "-filters"));
+        }
+        FFmpegTools tools = new FFmpegTools(ffmpeg, ffprobe, ffplay, formats, filters);
+        logger.info("Using ffmpeg tools {}", tools);
+        if (ffprobe.version == null) {
+            logger.warn("ffprobe was not found or does not work. Set the system property {} to the directory of the ffmpeg tools.",
+                    FFMPEG_PATH_PROPERTY);
+        }
+        // a tool that is there but did not answer may only have been slow, so check it again next time
+        boolean complete = !ffmpeg.failed() && !ffprobe.failed() && !ffplay.failed()
+                && (ffmpeg.version == null || !(formats.isEmpty() || filters.isEmpty()));
+        if (cacheFile != null && complete && (ffmpeg.version != null || ffprobe.version != null || ffplay.version != null)) {
+            tools.save(cacheFile);
+        }
+        return tools;
+    }
+
+    /*
+     * Locate the tools without running them, for the deprecated PressPlay constants.
+     * Returns the directory of ffprobe, with a trailing separator.
+     */
+    static String locateDirectory() {
+        String configuredPath = System.getProperty(FFMPEG_PATH_PROPERTY);
+        List<Path> directories = candidateDirectories(configuredPath, System.getenv("PATH"), KNOWN_LOCATIONS);
+        Path ffprobe = Paths.get(locate("ffprobe", directories, configuredPath));
+        Path parent = ffprobe.getParent();
+        return (parent == null ? "" : parent.toString()) + File.separator;
+    }
+
+    private static Path cacheFile() {
+        String property = System.getProperty(CACHE_FILE_PROPERTY);
+        if (property != null && property.trim().equalsIgnoreCase("none")) {
+            return null;
+        }
+        try {
+            if (property != null && !property.trim().isEmpty()) {
+                return Paths.get(property.trim());
+            }
+            return Paths.get(System.getProperty("user.home"), ".pressplay", "tools.cache");
+        } catch (InvalidPathException e) {
+            logger.warn("Invalid tools cache file {}", property);
+            return null;
+        }
+    }
+
+    static List<Path> candidateDirectories(String configuredPath, String pathEnv, List<String> knownLocations) {
+        List<Path> directories = new ArrayList<>();
+        if (configuredPath != null && !configuredPath.trim().isEmpty()) {
+            addDirectory(directories, configuredPath.trim());
+            return directories;
+        }
+        if (pathEnv != null) {
+            for (String entry : pathEnv.split(File.pathSeparator)) {
+                if (!entry.trim().isEmpty()) {
+                    addDirectory(directories, entry.trim());
+                }
+            }
+        }
+        for (String location : knownLocations) {
+            addDirectory(directories, location);
+        }
+        return directories;
+    }
+
+    private static void addDirectory(List<Path> directories, String directory) {
+        try {
+            Path path = Paths.get(directory);
+            if (!directories.contains(path)) {
+                directories.add(path);
+            }
+        } catch (InvalidPathException e) {
+            logger.debug("Ignoring invalid directory {}", directory);
+        }
+    }
+
+    /*
+     * Return the first executable with the name. If there is none, return where it was expected to be:
+     * in the configured directory if there is one, or in /usr/bin.
+     */
+    static String locate(String name, List<Path> directories, String configuredPath) {
+        String fileName = File.separatorChar == '\\' ? name + ".exe" : name;
+        for (Path directory : directories) {
+            Path candidate = directory.resolve(fileName);
+            if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+                return candidate.toString();
+            }
+        }
+        boolean configured = configuredPath != null && !configuredPath.trim().isEmpty() && !directories.isEmpty();
+        return (configured ? directories.get(0) : Paths.get("/usr/bin")).resolve(fileName).toString();
+    }
+
+    private static Tool check(String path) {
+        String version = null;
+        MetadataCache.FileStamp stamp = MetadataCache.FileStamp.of(path);
+        if (stamp != MetadataCache.FileStamp.NONE) {
+            version = parseVersion(run(path, "-version"));
+            if (version == null) {
+                logger.warn("{} did not run, or did not print a version.", path);
+            }
+        }
+        return new Tool(path, version, stamp);
+    }
+
+    private static String run(String... command) {
+        return run(VERSION_TIMEOUT_SECONDS, command);
+    }
+
+    /*
+     * Run a tool, and return its output, or an empty String if it cannot be run or does not
+     * finish in time. The output is read by the shared reader, so a tool that hangs is destroyed
+     * when the timeout passes instead of blocking the caller on a read.
+     */
+    static String run(long timeoutSeconds, String... command) {
+        try {
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectInput(ProcessBuilder.Redirect.PIPE)
+                    .start();
+            process.getOutputStream().close();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            CountDownLatch done = ProcessOutputReader.getInstance()
+                    .register(process, process.getInputStream(), output::write);
+            if (!ThreadSupport.waitFor(process, timeoutSeconds, TimeUnit.SECONDS)) {
+                logger.warn("{} did not finish in {} seconds.", command[0], timeoutSeconds);
+                process.destroyForcibly();
+                return "";
+            }
+            ProcessOutputReader.awaitClosed(done);
+            return process.exitValue() == 0 ? new String(output.toByteArray(), StandardCharsets.UTF_8) : "";
+        } catch (IOException e) {
+            logger.debug("Unable to run {}", command[0], e);
+            return "";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        }
+    }
+
+    /* The first line looks like "ffmpeg version 6.1.1-3ubuntu5 Copyright (c) 2000-2023 the FFmpeg developers". */
+    static String parseVersion(String output) {
+        String[] words = output.trim().split("\\s+", 4);
+        if (words.length >= 3 && words[1].equals("version")) {
+            return words[2];
+        }
+        return null;
+    }
+
+    /* Demuxers are listed after a line of dashes, as flags, comma separated names, and a description. */
+    static Set<String> parseFormats(String output) {
+        Set<String> formats = new HashSet<>();
+        boolean started = false;
+        for (String line : output.split("\\R")) {
+            String trimmed = line.trim();
+            if (!started) {
+                started = trimmed.startsWith("--");
+                continue;
+            }
+            String[] words = trimmed.split("\\s+", 3);
+            if (words.length >= 2 && words[0].indexOf('D') != -1) {
+                for (String name : words[1].split(",")) {
+                    formats.add(name.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return formats;
+    }
+
+    /* Filters are listed as flags, name, inputs->outputs and a description, after a legend. */
+    static Set<String> parseFilters(String output) {
+        Set<String> filters = new HashSet<>();
+        for (String line : output.split("\\R")) {
+            String[] words = line.trim().split("\\s+", 4);
+            if (words.length >= 3 && words[2].contains("->") && words[0].matches("[A-Z.|]+")) {
+                filters.add(words[1]);
+            }
+        }
+        return filters;
+    }
+
+    private void save(Path file) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            try {
+                try (MediaMetadataCodec.Writer writer = new MediaMetadataCodec.Writer(
+                        FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), MAGIC)) {
+                    for (Tool tool : Arrays.asList(ffmpeg, ffprobe, ffplay)) {
+                        tool.writeTo(writer);
+                    }
+                    writeSet(writer, formats);
+                    writeSet(writer, filters);
+                }
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to save ffmpeg tools cache to {}", file, e);
+        }
+    }
+
+    private static FFmpegTools load(Path file, String ffmpegPath, String ffprobePath, String ffplayPath) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (MediaMetadataCodec.Reader reader = new MediaMetadataCodec.Reader(
+                FileChannel.open(file, StandardOpenOption.READ))) {
+            reader.readHeader(MAGIC);
+            Tool ffmpeg = Tool.readFrom(reader);
+            Tool ffprobe = Tool.readFrom(reader);
+            Tool ffplay = Tool.readFrom(reader);
+            Set<String> formats = readSet(reader);
+            Set<String> filters = readSet(reader);
+            if (ffmpeg.isCurrent(ffmpegPath) && ffprobe.isCurrent(ffprobePath) && ffplay.isCurrent(ffplayPath)) {
+                return new FFmpegTools(ffmpeg, ffprobe, ffplay, formats, filters);
+            }
+            logger.debug("ffmpeg tools have changed since {} was written.", file);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Unable to load ffmpeg tools cache from {}", file, e);
+        }
+        return null;
+    }
+
+    private static void writeSet(MediaMetadataCodec.Writer writer, Set<String> values) throws IOException {
+        writer.writeVarint(values.size());
+        for (String value : values) {
+            writer.writeString(value);
+        }
+    }
+
+    private static Set<String> readSet(MediaMetadataCodec.Reader reader) throws IOException {
+        int count = reader.readCount();
+        Set<String> values = new HashSet<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            values.add(reader.readString());
+        }
+        return values;
+    }
+
+    /* A tool, with its version if it works, and the stamp of the file if it exists. */
+    private static final class Tool {
+        final String path;
+        final String version;
+        final MetadataCache.FileStamp stamp;
+
+        Tool(String path, String version, MetadataCache.FileStamp stamp) {
+            this.path = path;
+            this.version = version;
+            this.stamp = stamp;
+        }
+
+        /* The file is there, but did not run, or did not print a version. */
+        boolean failed() {
+            return version == null && stamp != MetadataCache.FileStamp.NONE;
+        }
+
+        String require(String name) throws IOException {
+            if (stamp == MetadataCache.FileStamp.NONE) {
+                throw new IOException(name + " not found at " + path + ". Set the system property "
+                        + FFMPEG_PATH_PROPERTY + " to the directory of the ffmpeg tools.");
+            }
+            return path;
+        }
+
+        /* The tool is still the same file, or is still missing. */
+        boolean isCurrent(String currentPath) {
+            if (!path.equals(currentPath)) {
+                return false;
+            }
+            return stamp.matches(MetadataCache.FileStamp.of(path));
+        }
+
+        void writeTo(MediaMetadataCodec.Writer writer) throws IOException {
+            writer.writeString(path);
+            writer.writeString(version);
+            writer.writeVarint(stamp.size + 1);
+            writer.writeVarint(stamp.modified + 1);
+        }
+
+        static Tool readFrom(MediaMetadataCodec.Reader reader) throws IOException {
+            String path = reader.readString();
+            String version = reader.readString();
+            long size = reader.readVarint() - 1;
+            long modified = reader.readVarint() - 1;
+            if (path == null) {
+                throw new IOException("Invalid tool path.");
+            }
+            return new Tool(path, version, size < 0 ? MetadataCache.FileStamp.NONE
+                    : new MetadataCache.FileStamp(size, modified));
+        }
+
+        @Override
+        public String toString() {
+            return path + (version == null ? " (not available)" : " " + version);
+        }
+    }
+}
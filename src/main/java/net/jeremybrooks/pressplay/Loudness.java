@@ -0,0 +1,132 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+/**
+ * EBU R128 loudness measurements for a media file.
+ *
+ * <p>Instances are created by {@link LoudnessAnalyzer}, and can be passed to
+ * {@code FFPlay.Builder.normalize} to play media at a consistent volume.</p>
+ */
+public class Loudness {
+
+    /**
+     * Default target loudness used for normalization, in LUFS. This is the ReplayGain 2.0 reference level.
+     */
+    public static final double DEFAULT_TARGET = -18.0;
+
+    /**
+     * Default maximum true peak after normalization, in dBTP.
+     */
+    public static final double DEFAULT_MAX_TRUE_PEAK = -1.0;
+
+    private final double integrated;
+    private final double truePeak;
+    private final double range;
+    private final double threshold;
+
+    /**
+     * Create a new loudness measurement.
+     *
+     * @param integrated integrated loudness in LUFS.
+     * @param truePeak true peak in dBTP.
+     * @param range loudness range in LU.
+     * @param threshold gating threshold in LUFS.
+     */
+    public Loudness(double integrated, double truePeak, double range, double threshold) {
+        this.integrated = integrated;
+        this.truePeak = truePeak;
+        this.range = range;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the integrated loudness.
+     *
+     * @return integrated loudness in LUFS.
+     */
+    public double getIntegrated() {
+        return integrated;
+    }
+
+    /**
+     * Get the true peak.
+     *
+     * @return true peak in dBTP.
+     */
+    public double getTruePeak() {
+        return truePeak;
+    }
+
+    /**
+     * Get the loudness range.
+     *
+     * @return loudness range in LU.
+     */
+    public double getRange() {
+        return range;
+    }
+
+    /**
+     * Get the gating threshold.
+     *
+     * @return threshold in LUFS.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get the gain needed to reach the default target loudness without clipping.
+     *
+     * @return gain in dB.
+     */
+    public double getGain() {
+        return getGain(DEFAULT_TARGET, DEFAULT_MAX_TRUE_PEAK);
+    }
+
+    /**
+     * Get the gain needed to reach a target loudness.
+     *
+     * <p>The gain is limited so that the true peak after the gain is applied does not
+     * exceed maxTruePeak. If the loudness could not be measured, for example because
+     * the media is silent, the gain is zero.</p>
+     *
+     * @param target target loudness in LUFS.
+     * @param maxTruePeak maximum true peak in dBTP.
+     * @return gain in dB.
+     */
+    public double getGain(double target, double maxTruePeak) {
+        if (Double.isNaN(integrated) || Double.isInfinite(integrated)) {
+            return 0;
+        }
+        double gain = target - integrated;
+        if (!Double.isNaN(truePeak) && !Double.isInfinite(truePeak)) {
+            gain = Math.min(gain, maxTruePeak - truePeak);
+        }
+        return gain;
+    }
+
+    @Override
+    public String toString() {
+        return "Loudness{integrated=" + integrated + ", truePeak=" + truePeak
+                + ", range=" + range + ", threshold=" + threshold + "}";
+    }
+}
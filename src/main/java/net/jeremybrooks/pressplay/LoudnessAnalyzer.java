@@ -0,0 +1,240 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the loudness of media using the ffmpeg {@code loudnorm} filter.
+ *
+ * <p>The filter measures EBU R128 integrated loudness, true peak and loudness range. The result
+ * can be passed to {@code FFPlay.Builder.normalize} so that all media plays at the same volume.</p>
+ *
+ * <p>Measuring loudness means decoding the whole file, so analyzing a library takes time. Use
+ * {@link #analyzeAll(Collection)} to analyze many files in parallel. If a MetadataCache is set,
+ * results are read from and stored in the cache, so each file is only analyzed once.</p>
+ * <pre>
+ * {@code
+ *   LoudnessAnalyzer analyzer = new LoudnessAnalyzer.Builder()
+ *           .concurrency(4)
+ *           .metadataCache(cache)
+ *           .build();
+ *   Map<String, Loudness> results = analyzer.analyzeAll(library);
+ * }
+ * </pre>
+ */
+public class LoudnessAnalyzer {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final int concurrency;
+    private final MetadataCache metadataCache;
+
+    /**
+     * Builder to create an instance of LoudnessAnalyzer.
+     */
+    public static class Builder {
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+        private MetadataCache metadataCache;
+
+        /**
+         * Set the maximum number of ffmpeg processes to run at the same time.
+         *
+         * <p>The default is the number of available processors.</p>
+         *
+         * @param concurrency maximum number of processes.
+         * @return builder for chaining.
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the cache used to store results.
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Build the analyzer with the parameters that have been set.
+         *
+         * @return new analyzer.
+         */
+        public LoudnessAnalyzer build() {
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1.");
+            }
+            return new LoudnessAnalyzer(this);
+        }
+    }
+
+    private LoudnessAnalyzer(Builder builder) {
+        this.concurrency = builder.concurrency;
+        this.metadataCache = builder.metadataCache;
+    }
+
+    /**
+     * Measure the loudness of media, using the cache if one has been set.
+     *
+     * @param media the path to the media.
+     * @return loudness of the media.
+     * @throws IOException if the loudness cannot be measured.
+     */
+    public Loudness analyze(String media) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        if (metadataCache != null) {
+            Loudness cached = metadataCache.getLoudness(media);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Loudness loudness = measure(media);
+        if (metadataCache != null) {
+            metadataCache.putLoudness(media, loudness);
+        }
+        return loudness;
+    }
+
+    /**
+     * Measure the loudness of many media files in parallel.
+     *
+     * <p>No more than the configured number of ffmpeg processes run at the same time.
+     * Media that cannot be measured is logged and left out of the result.</p>
+     *
+     * @param media the paths to the media.
+     * @return map of media to loudness, in the same order as the input.
+     * @throws InterruptedException if interrupted while waiting for the results.
+     */
+    public Map<String, Loudness> analyzeAll(Collection<String> media) throws InterruptedException {
+        ExecutorService executor = ThreadSupport.newExecutor("pressplay-loudness", Math.min(concurrency, Math.max(1, media.size())));
+        try {
+            List<String> keys = new ArrayList<>();
+            List<Future<Loudness>> futures = new ArrayList<>();
+            for (String item : media) {
+                keys.add(item);
+                futures.add(executor.submit(() -> analyze(item)));
+            }
+            Map<String, Loudness> results = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                try {
+                    results.put(keys.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.warn("Unable to measure loudness of {}", keys.get(i), e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* Run the loudnorm filter in analysis mode, and parse the JSON it prints at the end. */
+    static Loudness measure(String media) throws IOException {
+        logger.debug("Measuring loudness of {}", media);
+        FFmpegTools tools = FFmpegTools.get();
+        if (tools.hasFFmpeg() && !tools.supportsFilter("loudnorm")) {
+            throw new IOException("ffmpeg " + tools.getVersion() + " does not have the loudnorm filter.");
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                tools.requireFFmpeg(),
+                "-hide_banner",
+                "-nostats",
+                "-nostdin",
+                "-i",
+                media,
+                "-vn",
+                "-af",
+                "loudnorm=print_format=json",
+                "-f",
+                "null",
+                "-")
+                .redirectErrorStream(true);
+        Process process = processBuilder.start();
+        String output = IOUtils.toString(process.getInputStream(), StandardCharsets.UTF_8);
+        try {
+            int exitCode = ThreadSupport.waitFor(process);
+            if (exitCode != 0) {
+                throw new IOException("ffmpeg exited with " + exitCode + " while measuring " + media);
+            }
+        } catch (InterruptedException ie) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while measuring " + media, ie);
+        }
+        return parse(output);
+    }
+
+    /* Parse the loudnorm JSON summary from the ffmpeg output. */
+    static Loudness parse(String output) throws IOException {
+        int start = output.lastIndexOf('{');
+        int end = output.lastIndexOf('}');
+        if (start == -1 || end < start) {
+            throw new IOException("No loudness measurement found in ffmpeg output.");
+        }
+        try {
+            LoudnormResult result = new Gson().fromJson(output.substring(start, end + 1), LoudnormResult.class);
+            return new Loudness(toDouble(result.input_i), toDouble(result.input_tp),
+                    toDouble(result.input_lra), toDouble(result.input_thresh));
+        } catch (JsonSyntaxException e) {
+            throw new IOException("Invalid loudness measurement in ffmpeg output.", e);
+        }
+    }
+
+    /* Values are strings, and are "-inf" for silence. */
+    private static double toDouble(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return value.trim().equals("-inf") ? Double.NEGATIVE_INFINITY : Double.NaN;
+        }
+    }
+
+    private static class LoudnormResult {
+        private String input_i;
+        private String input_tp;
+        private String input_lra;
+        private String input_thresh;
+    }
+}
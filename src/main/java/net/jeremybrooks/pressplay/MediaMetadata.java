@@ -20,10 +20,13 @@
 package net.jeremybrooks.pressplay;
 
 import com.google.gson.Gson;
+import com.google.gson.annotations.JsonAdapter;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An object to encapsulate the metadata parsed from a media file.
@@ -160,14 +163,9 @@ public class MediaMetadata {
      * @return disc number if available, empty String otherwise.
      */
     public String getDisc() {
-        // sometimes the disc info is in the tag "TPA", so check it if "disc" is null
-        if (format == null || format.tags == null) {
-            return "";
-        } else if (format.tags.disc == null) {
-            return format.tags.TPA == null ? "" : format.tags.TPA;
-        } else {
-            return format.tags.disc;
-        }
+        // sometimes the disc info is in the tag "TPA", so check it if "disc" is missing
+        String disc = getTag("disc");
+        return disc.isEmpty() ? getTag("TPA") : disc;
     }
 
     /**
@@ -176,7 +174,7 @@ public class MediaMetadata {
      * @return title if available, empty String otherwise.
      */
     public String getTitle() {
-        return (format == null || format.tags == null || format.tags.title == null) ? "" : format.tags.title;
+        return getTag("title");
     }
 
     /**
@@ -185,7 +183,7 @@ public class MediaMetadata {
      * @return artist if available, empty String otherwise.
      */
     public String getArtist() {
-        return (format == null || format.tags == null || format.tags.artist == null) ? "" : format.tags.artist;
+        return getTag("artist");
     }
 
     /**
@@ -194,7 +192,7 @@ public class MediaMetadata {
      * @return album if available, empty String otherwise.
      */
     public String getAlbum() {
-        return (format == null || format.tags == null || format.tags.album == null) ? "" : format.tags.album;
+        return getTag("album");
     }
 
     /**
@@ -203,7 +201,7 @@ public class MediaMetadata {
      * @return genre if available, empty String otherwise.
      */
     public String getGenre() {
-        return (format == null || format.tags == null || format.tags.genre == null) ? "" : format.tags.genre;
+        return getTag("genre");
     }
 
     /**
@@ -212,7 +210,7 @@ public class MediaMetadata {
      * @return track if available, empty String otherwise.
      */
     public String getTrack() {
-        return (format == null || format.tags == null || format.tags.track == null) ? "" : format.tags.track;
+        return getTag("track");
     }
 
     /**
@@ -221,7 +219,7 @@ public class MediaMetadata {
      * @return date if available, empty String otherwise.
      */
     public String getDate() {
-        return (format == null || format.tags == null || format.tags.date == null) ? "" : format.tags.date;
+        return getTag("date");
     }
 
     /**
@@ -230,7 +228,7 @@ public class MediaMetadata {
      * @return album artist if available, empty String otherwise.
      */
     public String getAlbumArtist() {
-        return (format == null || format.tags == null || format.tags.album_artist == null) ? "" : format.tags.album_artist;
+        return getTag("album_artist");
     }
 
     /**
@@ -239,11 +237,31 @@ public class MediaMetadata {
      * @return true if media is part of a compilation, false otherwise.
      */
     public boolean isCompilation() {
-        if (format == null || format.tags == null) {
-            return false;
-        } else {
-            return null != format.tags.compilation && format.tags.compilation.equals("1");
-        }
+        return getTag("compilation").equals("1");
+    }
+
+    /**
+     * Get a tag parsed from the media.
+     *
+     * <p>Any tag reported by ffprobe can be read, such as {@code composer}, {@code ISRC} or
+     * {@code MusicBrainz Album Id}. The case of the name is ignored.</p>
+     *
+     * @param name the tag name.
+     * @return value of the tag if available, empty String otherwise.
+     */
+    public String getTag(String name) {
+        String value = (format == null || format.tags == null) ? null : format.tags.getIgnoreCase(name);
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Get all tags parsed from the media.
+     *
+     * @return immutable map of tag names to values, in the order they were reported. Lookups in the
+     * map use the exact name; use {@link #getTag(String)} to ignore the case.
+     */
+    public Map<String, String> getTags() {
+        return (format == null || format.tags == null) ? TagMap.EMPTY : format.tags;
     }
 
     private Format format;
@@ -257,21 +275,8 @@ public class MediaMetadata {
         private String size;
         private String bit_rate;
         private String duration;
-        private Tags tags;
-
-        private class Tags {
-            private String disc;
-            private String TPA;
-            private String title;
-            private String artist;
-            private String album;
-            private String genre;
-            private String track;
-            private String date;
-            private String compilation;
-
-            private String album_artist;
-        }
+        @JsonAdapter(TagMap.Adapter.class)
+        private TagMap tags;
     }
 
     /**
@@ -283,6 +288,68 @@ public class MediaMetadata {
         return new Gson().toJson(this);
     }
 
+    /*
+     * Write this object using the binary codec.
+     * Tags are written as key/value pairs, so every tag survives a round trip.
+     */
+    void writeTo(MediaMetadataCodec.Writer writer) throws IOException {
+        writer.writeBoolean(format != null);
+        if (format == null) {
+            return;
+        }
+        writer.writeString(format.filename);
+        writer.writeVarint(format.nb_streams);
+        writer.writeVarint(format.nb_programs);
+        writer.writeString(format.format_name);
+        writer.writeString(format.format_long_name);
+        writer.writeString(format.size);
+        writer.writeString(format.bit_rate);
+        writer.writeString(format.duration);
+        writer.writeBoolean(format.tags != null);
+        if (format.tags == null) {
+            return;
+        }
+        writer.writeVarint(format.tags.size());
+        for (Map.Entry<String, String> tag : format.tags.entrySet()) {
+            writer.writeString(tag.getKey());
+            writer.writeString(tag.getValue());
+        }
+    }
+
+    /* Read an object that was written by writeTo. */
+    static MediaMetadata readFrom(MediaMetadataCodec.Reader reader) throws IOException {
+        MediaMetadata metadata = new MediaMetadata();
+        if (!reader.readBoolean()) {
+            return metadata;
+        }
+        Format format = new Format();
+        format.filename = reader.readString();
+        format.nb_streams = reader.readInt();
+        format.nb_programs = reader.readInt();
+        format.format_name = reader.readString();
+        format.format_long_name = reader.readString();
+        format.size = reader.readString();
+        format.bit_rate = reader.readString();
+        format.duration = reader.readString();
+        metadata.format = format;
+        if (!reader.readBoolean()) {
+            return metadata;
+        }
+        int count = reader.readCount();
+        List<String> keys = new ArrayList<>(count);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = reader.readString();
+            if (key == null) {
+                throw new IOException("Invalid tag key.");
+            }
+            keys.add(key);
+            values.add(reader.readString());
+        }
+        format.tags = TagMap.of(keys, values);
+        return metadata;
+    }
+
     private List<Integer> parseTrackOrDiscData(String data) {
         List<Integer> result = new ArrayList<>();
         if (data == null || data.trim().isEmpty()) {
@@ -0,0 +1,497 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary encoding for MediaMetadata.
+ *
+ * <p>This is an alternative to the JSON produced by {@code MediaMetadata.toString()} that is
+ * smaller and faster to read and write, which makes it a better fit for caching, IPC and
+ * snapshots of a whole library.</p>
+ *
+ * <p>A stream starts with a four byte magic number and a version byte, followed by any number
+ * of entries and an end marker. Integers are written as unsigned varints, and strings are
+ * written as length-prefixed UTF-8. Strings are de-duplicated through a string table that is
+ * shared by every entry in the stream, so repeated values such as artist, album and format
+ * names are only written once.</p>
+ *
+ * <p>To encode or decode a single object:</p>
+ * <pre>
+ * {@code
+ *   ByteBuffer buffer = MediaMetadataCodec.encode(metadata);
+ *   MediaMetadata copy = MediaMetadataCodec.decode(buffer);
+ * }
+ * </pre>
+ * <p>To write a snapshot of many objects to a channel:</p>
+ * <pre>
+ * {@code
+ *   try (MediaMetadataCodec.Writer writer = new MediaMetadataCodec.Writer(channel)) {
+ *     for (MediaMetadata metadata : library) {
+ *       writer.write(metadata);
+ *     }
+ *   }
+ * }
+ * </pre>
+ */
+public class MediaMetadataCodec {
+
+    /**
+     * Current version of the binary format.
+     */
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {'P', 'P', 'M', 'D'};
+
+    private static final int END_MARKER = 0;
+    private static final int ENTRY_MARKER = 1;
+
+    /* String encodings. References to the string table start at REF_BASE. */
+    private static final int STRING_NULL = 0;
+    private static final int STRING_NEW = 1;
+    private static final int STRING_LITERAL = 2;
+    private static final int REF_BASE = 3;
+
+    /* Limits that keep the string table from growing without bound on huge snapshots. */
+    private static final int MAX_TABLE_SIZE = 1 << 16;
+    private static final int MAX_TABLE_STRING_LENGTH = 256;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /* Private constructor, all methods are static. */
+    private MediaMetadataCodec() {
+    }
+
+    /**
+     * Encode a single MediaMetadata object.
+     *
+     * @param metadata the object to encode.
+     * @return buffer containing the encoded object, ready to be read.
+     * @throws IOException if there are errors encoding the object.
+     */
+    public static ByteBuffer encode(MediaMetadata metadata) throws IOException {
+        if (metadata == null) {
+            throw new IllegalArgumentException("Metadata cannot be null.");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (Writer writer = new Writer(Channels.newChannel(out))) {
+            writer.write(metadata);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Decode a single MediaMetadata object.
+     *
+     * <p>If the buffer contains a snapshot with more than one entry, only the first
+     * entry is returned.</p>
+     *
+     * @param buffer the buffer containing the encoded object.
+     * @return the decoded object, or null if the buffer does not contain any entries.
+     * @throws IOException if the buffer does not contain valid data.
+     */
+    public static MediaMetadata decode(ByteBuffer buffer) throws IOException {
+        return new Reader(buffer).read();
+    }
+
+    /**
+     * Streaming writer for MediaMetadata objects.
+     *
+     * <p>Output is buffered, and written to the channel as the buffer fills up. The end
+     * marker is written when the writer is closed, so always close the writer when you
+     * are done with it. Closing the writer also closes the channel.</p>
+     *
+     * <p>This class is not thread safe.</p>
+     */
+    public static final class Writer implements Flushable, Closeable {
+        private final WritableByteChannel channel;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean closed;
+
+        /**
+         * Create a new writer, and write the stream header.
+         *
+         * @param channel the channel to write to.
+         * @throws IOException if the header cannot be written.
+         */
+        public Writer(WritableByteChannel channel) throws IOException {
+            this(channel, MAGIC);
+        }
+
+        /* Create a writer for another stream type that is built from the same primitives. */
+        Writer(WritableByteChannel channel, byte[] magic) throws IOException {
+            if (channel == null) {
+                throw new IllegalArgumentException("Channel cannot be null.");
+            }
+            this.channel = channel;
+            ensureCapacity(magic.length + 1);
+            buffer.put(magic);
+            buffer.put((byte) VERSION);
+        }
+
+        /**
+         * Write a MediaMetadata object to the stream.
+         *
+         * @param metadata the object to write.
+         * @throws IOException if there are errors writing to the channel.
+         */
+        public void write(MediaMetadata metadata) throws IOException {
+            if (metadata == null) {
+                throw new IllegalArgumentException("Metadata cannot be null.");
+            }
+            if (closed) {
+                throw new IOException("Writer is closed.");
+            }
+            writeVarint(ENTRY_MARKER);
+            metadata.writeTo(this);
+        }
+
+        /**
+         * Write any buffered data to the channel.
+         *
+         * @throws IOException if there are errors writing to the channel.
+         */
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Write the end marker, flush, and close the channel.
+         *
+         * @throws IOException if there are errors writing to the channel.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                writeVarint(END_MARKER);
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+
+        void writeVarint(long value) throws IOException {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeBoolean(boolean value) throws IOException {
+            writeVarint(value ? 1 : 0);
+        }
+
+        void writeDouble(double value) throws IOException {
+            ensureCapacity(Long.BYTES);
+            buffer.putLong(Double.doubleToLongBits(value));
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarint(STRING_NULL);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeVarint(REF_BASE + (long) index);
+            } else if (strings.size() < MAX_TABLE_SIZE && value.length() <= MAX_TABLE_STRING_LENGTH) {
+                strings.put(value, strings.size());
+                writeVarint(STRING_NEW);
+                writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            } else {
+                writeVarint(STRING_LITERAL);
+                writeBytes(value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void ensureCapacity(int needed) throws IOException {
+            if (buffer.remaining() >= needed) {
+                return;
+            }
+            flush();
+            if (buffer.capacity() < needed) {
+                buffer = ByteBuffer.allocate(needed);
+            }
+        }
+    }
+
+    /**
+     * Streaming reader for MediaMetadata objects.
+     *
+     * <p>This class is not thread safe.</p>
+     */
+    public static final class Reader implements Closeable {
+        private final ReadableByteChannel channel;
+        private final List<String> strings = new ArrayList<>();
+        private ByteBuffer buffer;
+        private boolean headerRead;
+        private boolean finished;
+
+        /**
+         * Create a reader for a channel.
+         *
+         * <p>Closing the reader closes the channel.</p>
+         *
+         * @param channel the channel to read from.
+         */
+        public Reader(ReadableByteChannel channel) {
+            if (channel == null) {
+                throw new IllegalArgumentException("Channel cannot be null.");
+            }
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.buffer.flip();
+        }
+
+        /**
+         * Create a reader for a buffer.
+         *
+         * <p>Data is read from the current position of the buffer. The position of the buffer
+         * passed in is not changed.</p>
+         *
+         * @param buffer the buffer to read from.
+         */
+        public Reader(ByteBuffer buffer) {
+            if (buffer == null) {
+                throw new IllegalArgumentException("Buffer cannot be null.");
+            }
+            this.channel = null;
+            this.buffer = buffer.slice();
+        }
+
+        /**
+         * Read the next MediaMetadata object from the stream.
+         *
+         * @return the next object, or null if the end of the stream has been reached.
+         * @throws IOException if there are errors reading, or if the data is not valid.
+         */
+        public MediaMetadata read() throws IOException {
+            if (!headerRead) {
+                readHeader(MAGIC);
+            }
+            if (finished) {
+                return null;
+            }
+            int marker = readInt();
+            if (marker == END_MARKER) {
+                finished = true;
+                return null;
+            }
+            if (marker != ENTRY_MARKER) {
+                throw new IOException("Invalid entry marker " + marker);
+            }
+            return MediaMetadata.readFrom(this);
+        }
+
+        /**
+         * Read all remaining MediaMetadata objects from the stream.
+         *
+         * @return list of objects, in the order they were written.
+         * @throws IOException if there are errors reading, or if the data is not valid.
+         */
+        public List<MediaMetadata> readAll() throws IOException {
+            List<MediaMetadata> list = new ArrayList<>();
+            MediaMetadata metadata;
+            while ((metadata = read()) != null) {
+                list.add(metadata);
+            }
+            return list;
+        }
+
+        /**
+         * Close the underlying channel, if there is one.
+         *
+         * @throws IOException if there are errors closing the channel.
+         */
+        @Override
+        public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+
+        long readVarint() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint.");
+        }
+
+        int readInt() throws IOException {
+            long value = readVarint();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Value out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        boolean readBoolean() throws IOException {
+            return readVarint() != 0;
+        }
+
+        double readDouble() throws IOException {
+            long bits = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                bits = (bits << 8) | (readByte() & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        /*
+         * The length is checked against the data that is left before anything is allocated, so a
+         * corrupt length fails with an IOException instead of an OutOfMemoryError. When the amount
+         * of data left is not known, the array grows as the data arrives.
+         */
+        byte[] readBytes() throws IOException {
+            int length = readCount();
+            byte[] bytes = new byte[Math.min(length, Math.max(buffer.remaining(), BUFFER_SIZE))];
+            int offset = 0;
+            while (offset < length) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                if (offset == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * bytes.length));
+                }
+                int count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, count);
+                offset += count;
+            }
+            return bytes;
+        }
+
+        /*
+         * Read the number of items or bytes that follow. Each one takes at least a byte, so a count
+         * larger than the data that is left means the data is corrupt.
+         */
+        int readCount() throws IOException {
+            int count = readInt();
+            if (count > remaining()) {
+                throw new EOFException("Count " + count + " is larger than the data that is left.");
+            }
+            return count;
+        }
+
+        /* Bytes left to read, or Long.MAX_VALUE if that is not known. */
+        private long remaining() throws IOException {
+            if (channel == null) {
+                return buffer.remaining();
+            }
+            if (channel instanceof SeekableByteChannel) {
+                SeekableByteChannel seekable = (SeekableByteChannel) channel;
+                return buffer.remaining() + Math.max(0, seekable.size() - seekable.position());
+            }
+            return Long.MAX_VALUE;
+        }
+
+        String readString() throws IOException {
+            long tag = readVarint();
+            if (tag == STRING_NULL) {
+                return null;
+            } else if (tag == STRING_NEW) {
+                String value = new String(readBytes(), StandardCharsets.UTF_8);
+                strings.add(value);
+                return value;
+            } else if (tag == STRING_LITERAL) {
+                return new String(readBytes(), StandardCharsets.UTF_8);
+            }
+            long index = tag - REF_BASE;
+            if (index >= strings.size()) {
+                throw new IOException("Invalid string reference " + index);
+            }
+            return strings.get((int) index);
+        }
+
+        /* Check the header, for this stream type or another one built from the same primitives. */
+        void readHeader(byte[] magic) throws IOException {
+            headerRead = true;
+            for (byte b : magic) {
+                if (readByte() != b) {
+                    throw new IOException("Not a PressPlay " + new String(magic, StandardCharsets.US_ASCII) + " stream.");
+                }
+            }
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported metadata stream version " + version);
+            }
+        }
+
+        private byte readByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                fill();
+            }
+            return buffer.get();
+        }
+
+        private void fill() throws IOException {
+            if (channel == null) {
+                throw new EOFException("Unexpected end of buffer.");
+            }
+            buffer.clear();
+            int count;
+            do {
+                count = channel.read(buffer);
+            } while (count == 0);
+            buffer.flip();
+            if (count < 0) {
+                throw new EOFException("Unexpected end of stream.");
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Cache of metadata and analysis results, keyed by media.
+ *
+ * <p>Entries are keyed by the same String that is passed to {@link FFProbe#getMediaMetadata(String)},
+ * so a media file is only probed once. Along with the MediaMetadata, each entry can hold the results
+ * of other analysis of the media, such as its {@link Loudness}, content hash and {@link SeekIndex}.</p>
+ *
+ * <p>For media that is a local file, the size and modification time of the file are stored with the
+ * entry. If the file changes, the entry is discarded the next time it is read.</p>
+ *
+ * <p>The cache can be saved to a file and loaded again, so the results survive a restart. The file is
+ * written with the same binary encoding as {@link MediaMetadataCodec}.</p>
+ * <pre>
+ * {@code
+ *   MetadataCache cache = MetadataCache.load(Paths.get("/var/cache/library.ppmc"));
+ *   MediaMetadata metadata = cache.getMediaMetadata("/music/track.flac");
+ *   cache.save(Paths.get("/var/cache/library.ppmc"));
+ * }
+ * </pre>
+ * <p>This class is thread safe.</p>
+ */
+public class MetadataCache {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final byte[] MAGIC = {'P', 'P', 'M', 'C'};
+
+    /* Section tags used when writing an entry. */
+    private static final int SECTION_END = 0;
+    private static final int SECTION_METADATA = 1;
+    private static final int SECTION_LOUDNESS = 2;
+    private static final int SECTION_CONTENT_HASH = 3;
+    private static final int SECTION_SEEK_INDEX = 4;
+
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Get the metadata for media, probing the media if it is not in the cache.
+     *
+     * @param media the path to the media.
+     * @return metadata for the media, or null if the input string is null or empty.
+     * @throws IOException if there is an error while parsing the media.
+     */
+    public MediaMetadata getMediaMetadata(String media) throws IOException {
+        MediaMetadata metadata = getIfPresent(media);
+        if (metadata == null) {
+            metadata = FFProbe.getMediaMetadata(media);
+            if (metadata != null) {
+                putMediaMetadata(media, metadata);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Get the metadata for media if it is in the cache.
+     *
+     * @param media the path to the media.
+     * @return cached metadata, or null if the media is not in the cache.
+     */
+    public MediaMetadata getIfPresent(String media) {
+        CacheEntry entry = getEntry(media);
+        return entry == null ? null : entry.metadata;
+    }
+
+    /**
+     * Store metadata for media in the cache.
+     *
+     * @param media the path to the media.
+     * @param metadata the metadata.
+     */
+    public void putMediaMetadata(String media, MediaMetadata metadata) {
+        update(media, entry -> entry.withMetadata(metadata));
+    }
+
+    /**
+     * Get the loudness of media if it is in the cache.
+     *
+     * @param media the path to the media.
+     * @return cached loudness, or null if the loudness of the media is not in the cache.
+     */
+    public Loudness getLoudness(String media) {
+        CacheEntry entry = getEntry(media);
+        return entry == null ? null : entry.loudness;
+    }
+
+    /**
+     * Store the loudness of media in the cache.
+     *
+     * @param media the path to the media.
+     * @param loudness the loudness.
+     */
+    public void putLoudness(String media, Loudness loudness) {
+        update(media, entry -> entry.withLoudness(loudness));
+    }
+
+    /**
+     * Get the content hash of media if it is in the cache.
+     *
+     * @param media the path to the media.
+     * @return cached content hash, or null if the content hash of the media is not in the cache.
+     * @see ContentHasher
+     */
+    public String getContentHash(String media) {
+        CacheEntry entry = getEntry(media);
+        return entry == null ? null : entry.contentHash;
+    }
+
+    /**
+     * Store the content hash of media in the cache.
+     *
+     * @param media the path to the media.
+     * @param contentHash the content hash.
+     */
+    public void putContentHash(String media, String contentHash) {
+        update(media, entry -> entry.withContentHash(contentHash));
+    }
+
+    /**
+     * Get the seek index of media if it is in the cache.
+     *
+     * @param media the path to the media.
+     * @return cached seek index, or null if the media has not been indexed.
+     * @see SeekIndexer
+     */
+    public SeekIndex getSeekIndex(String media) {
+        CacheEntry entry = getEntry(media);
+        return entry == null ? null : entry.seekIndex;
+    }
+
+    /**
+     * Store the seek index of media in the cache.
+     *
+     * @param media the path to the media.
+     * @param seekIndex the seek index.
+     */
+    public void putSeekIndex(String media, SeekIndex seekIndex) {
+        update(media, entry -> entry.withSeekIndex(seekIndex));
+    }
+
+    /**
+     * Remove media from the cache.
+     *
+     * @param media the path to the media.
+     */
+    public void invalidate(String media) {
+        if (media != null) {
+            entries.remove(media);
+        }
+    }
+
+    /**
+     * Get the number of entries in the cache.
+     *
+     * @return number of entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the keys of all entries in the cache.
+     *
+     * @return list of media keys, in no particular order.
+     */
+    public List<String> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * Save the cache to a file.
+     *
+     * <p>The cache is written to a temporary file, which then replaces the target file,
+     * so a failed save never leaves a partial file behind.</p>
+     *
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (MediaMetadataCodec.Writer writer = new MediaMetadataCodec.Writer(
+                    FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), MAGIC)) {
+                for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+                    writer.writeVarint(1);
+                    writer.writeString(entry.getKey());
+                    entry.getValue().writeTo(writer);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Load a cache from a file.
+     *
+     * <p>If the file does not exist, or cannot be read, an empty cache is returned.</p>
+     *
+     * @param file the file to read.
+     * @return the cache.
+     */
+    public static MetadataCache load(Path file) {
+        MetadataCache cache = new MetadataCache();
+        if (!Files.isRegularFile(file)) {
+            return cache;
+        }
+        try (MediaMetadataCodec.Reader reader = new MediaMetadataCodec.Reader(
+                FileChannel.open(file, StandardOpenOption.READ))) {
+            reader.readHeader(MAGIC);
+            while (reader.readInt() != 0) {
+                String key = reader.readString();
+                cache.entries.put(key, CacheEntry.readFrom(reader));
+            }
+            logger.debug("Loaded {} entries from {}", cache.size(), file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to load metadata cache from {}, starting with an empty cache.", file, e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /*
+     * Visit every entry that is still valid, for bulk operations. Stale entries are removed,
+     * as getEntry does. Entries added or removed during the visit may or may not be seen.
+     */
+    void forEachEntry(BiConsumer<String, CacheEntry> action) {
+        entries.forEach((media, entry) -> {
+            if (entry.isValid(FileStamp.of(media))) {
+                action.accept(media, entry);
+            } else {
+                logger.debug("Discarding stale cache entry for {}", media);
+                entries.remove(media, entry);
+            }
+        });
+    }
+
+    private CacheEntry getEntry(String media) {
+        if (media == null) {
+            return null;
+        }
+        CacheEntry entry = entries.get(media);
+        if (entry != null && !entry.isValid(FileStamp.of(media))) {
+            logger.debug("Discarding stale cache entry for {}", media);
+            entries.remove(media, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void update(String media, UnaryOperator<CacheEntry> change) {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        FileStamp stamp = FileStamp.of(media);
+        entries.compute(media, (key, entry) -> {
+            if (entry == null || !entry.isValid(stamp)) {
+                entry = new CacheEntry(stamp);
+            }
+            return change.apply(entry);
+        });
+    }
+
+    /* Size and modification time of a local file, used to detect changes. */
+    static final class FileStamp {
+        static final FileStamp NONE = new FileStamp(-1, -1);
+
+        final long size;
+        final long modified;
+
+        FileStamp(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        static FileStamp of(String media) {
+            try {
+                Path path = Paths.get(media);
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+                }
+            } catch (Exception e) {
+                // not a local file
+            }
+            return NONE;
+        }
+
+        boolean matches(FileStamp other) {
+            return size == other.size && modified == other.modified;
+        }
+    }
+
+    /* Immutable cache entry. Updates create a copy with the changed value. */
+    static final class CacheEntry {
+        final FileStamp stamp;
+        final MediaMetadata metadata;
+        final Loudness loudness;
+        final String contentHash;
+        final SeekIndex seekIndex;
+
+        CacheEntry(FileStamp stamp) {
+            this(stamp, null, null, null, null);
+        }
+
+        private CacheEntry(FileStamp stamp, MediaMetadata metadata, Loudness loudness, String contentHash,
+                           SeekIndex seekIndex) {
+            this.stamp = stamp;
+            this.metadata = metadata;
+            this.loudness = loudness;
+            this.contentHash = contentHash;
+            this.seekIndex = seekIndex;
+        }
+
+        CacheEntry withMetadata(MediaMetadata metadata) {
+            return new CacheEntry(stamp, metadata, loudness, contentHash, seekIndex);
+        }
+
+        CacheEntry withLoudness(Loudness loudness) {
+            return new CacheEntry(stamp, metadata, loudness, contentHash, seekIndex);
+        }
+
+        CacheEntry withContentHash(String contentHash) {
+            return new CacheEntry(stamp, metadata, loudness, contentHash, seekIndex);
+        }
+
+        CacheEntry withSeekIndex(SeekIndex seekIndex) {
+            return new CacheEntry(stamp, metadata, loudness, contentHash, seekIndex);
+        }
+
+        boolean isValid(FileStamp current) {
+            return stamp.matches(current);
+        }
+
+        void writeTo(MediaMetadataCodec.Writer writer) throws IOException {
+            writer.writeVarint(stamp.size + 1);
+            writer.writeVarint(stamp.modified + 1);
+            if (metadata != null) {
+                writer.writeVarint(SECTION_METADATA);
+                metadata.writeTo(writer);
+            }
+            if (loudness != null) {
+                writer.writeVarint(SECTION_LOUDNESS);
+                writer.writeDouble(loudness.getIntegrated());
+                writer.writeDouble(loudness.getTruePeak());
+                writer.writeDouble(loudness.getRange());
+                writer.writeDouble(loudness.getThreshold());
+            }
+            if (contentHash != null) {
+                writer.writeVarint(SECTION_CONTENT_HASH);
+                // hashes are unique, so keep them out of the string table
+                writer.writeBytes(contentHash.getBytes(StandardCharsets.US_ASCII));
+            }
+            if (seekIndex != null) {
+                writer.writeVarint(SECTION_SEEK_INDEX);
+                seekIndex.writeTo(writer);
+            }
+            writer.writeVarint(SECTION_END);
+        }
+
+        static CacheEntry readFrom(MediaMetadataCodec.Reader reader) throws IOException {
+            CacheEntry entry = new CacheEntry(new FileStamp(reader.readVarint() - 1, reader.readVarint() - 1));
+            int section;
+            while ((section = reader.readInt()) != SECTION_END) {
+                switch (section) {
+                    case SECTION_METADATA:
+                        entry = entry.withMetadata(MediaMetadata.readFrom(reader));
+                        break;
+                    case SECTION_LOUDNESS:
+                        entry = entry.withLoudness(new Loudness(reader.readDouble(), reader.readDouble(),
+                                reader.readDouble(), reader.readDouble()));
+                        break;
+                    case SECTION_CONTENT_HASH:
+                        entry = entry.withContentHash(new String(reader.readBytes(), StandardCharsets.US_ASCII));
+                        break;
+                    case SECTION_SEEK_INDEX:
+                        entry = entry.withSeekIndex(SeekIndex.readFrom(reader));
+                        break;
+                    default:
+                        throw new IOException("Unknown cache section " + section);
+                }
+            }
+            return entry;
+        }
+    }
+}
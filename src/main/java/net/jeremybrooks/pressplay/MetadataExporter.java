@@ -0,0 +1,355 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import com.google.gson.Strictness;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the contents of a MetadataCache to JSON Lines or CSV.
+ *
+ * <p>The export reads the results already in the cache and never probes media, so it can be used
+ * after a batch of probes and analysis to send the whole library somewhere else. Entries are
+ * streamed to a single buffered writer, so memory use does not depend on the size of the library.
+ * Entries for files that have changed since they were cached are left out, and removed from the
+ * cache.</p>
+ *
+ * <p>In JSON Lines format each line is an object with the media key, the metadata in the same
+ * form as {@link MediaMetadata#toString()}, and the loudness and content hash if they are cached.
+ * In CSV format there is a header row, a fixed set of columns for the common metadata, and a
+ * column for each tag set with {@link Builder#tagColumns(String...)}.</p>
+ * <pre>
+ * {@code
+ *   MetadataExporter exporter = new MetadataExporter.Builder()
+ *           .format(MetadataExporter.Format.CSV)
+ *           .tagColumns("composer", "ISRC")
+ *           .gzip()
+ *           .build();
+ *   long count = exporter.export(cache, Paths.get("/tmp/library.csv.gz"));
+ * }
+ * </pre>
+ */
+public class MetadataExporter {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final List<String> CSV_COLUMNS = Collections.unmodifiableList(Arrays.asList(
+            "media", "filename", "format_name", "duration", "size", "bit_rate",
+            "title", "artist", "album", "album_artist", "genre", "track", "disc", "date", "compilation",
+            "loudness_integrated", "loudness_true_peak", "loudness_range", "content_hash"));
+
+    /**
+     * Output formats.
+     */
+    public enum Format {
+        /**
+         * One JSON object per line.
+         */
+        JSON_LINES,
+
+        /**
+         * Comma separated values, with a header row.
+         */
+        CSV
+    }
+
+    private final Format format;
+    private final boolean gzip;
+    private final List<String> tagColumns;
+
+    /**
+     * Builder to create an instance of MetadataExporter.
+     */
+    public static class Builder {
+        private Format format = Format.JSON_LINES;
+        private boolean gzip;
+        private List<String> tagColumns = Collections.emptyList();
+
+        /**
+         * Set the output format. The default is {@link Format#JSON_LINES}.
+         *
+         * @param format the output format.
+         * @return builder for chaining.
+         */
+        public Builder format(Format format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * Compress the output with gzip.
+         *
+         * @return builder for chaining.
+         */
+        public Builder gzip() {
+            this.gzip = true;
+            return this;
+        }
+
+        /**
+         * Add a CSV column for each of these tags, after the standard columns.
+         *
+         * <p>This has no effect on JSON Lines output, which always has all tags.</p>
+         *
+         * @param tags the tag names.
+         * @return builder for chaining.
+         */
+        public Builder tagColumns(String... tags) {
+            this.tagColumns = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(tags)));
+            return this;
+        }
+
+        /**
+         * Build the exporter with the parameters that have been set.
+         *
+         * @return new exporter.
+         */
+        public MetadataExporter build() {
+            if (format == null) {
+                throw new IllegalArgumentException("Format cannot be null.");
+            }
+            return new MetadataExporter(this);
+        }
+    }
+
+    private MetadataExporter(Builder builder) {
+        this.format = builder.format;
+        this.gzip = builder.gzip;
+        this.tagColumns = builder.tagColumns;
+    }
+
+    /**
+     * Export the cache to a file. An existing file is replaced.
+     *
+     * @param cache the cache to export.
+     * @param file the file to write.
+     * @return number of entries written.
+     * @throws IOException if the file cannot be written.
+     */
+    public long export(MetadataCache cache, Path file) throws IOException {
+        // check before the file is opened, so an existing file is not emptied
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        return export(cache, FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Export the cache to a channel. The channel is closed when the export is complete.
+     *
+     * <p>Entries without metadata are skipped. Entries are written in no particular order.</p>
+     *
+     * @param cache the cache to export.
+     * @param channel the channel to write to.
+     * @return number of entries written.
+     * @throws IOException if the channel cannot be written.
+     */
+    public long export(MetadataCache cache, WritableByteChannel channel) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null.");
+        }
+        if (cache == null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Error closing channel.", e);
+            }
+            throw new IllegalArgumentException("Cache cannot be null.");
+        }
+        OutputStream out = Channels.newOutputStream(channel);
+        if (gzip) {
+            try {
+                out = new GZIPOutputStream(out, BUFFER_SIZE);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        long[] count = new long[1];
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            EntryWriter entryWriter = format == Format.CSV ? new CsvEntryWriter(writer) : new JsonEntryWriter(writer);
+            cache.forEachEntry((media, entry) -> {
+                if (entry.metadata != null) {
+                    try {
+                        entryWriter.write(media, entry);
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.debug("Exported {} entries as {}", count[0], format);
+        return count[0];
+    }
+
+    private interface EntryWriter {
+        void write(String media, MetadataCache.CacheEntry entry) throws IOException;
+    }
+
+    /* Writes every entry through one JsonWriter, using Gson's adapter for MediaMetadata. */
+    private static final class JsonEntryWriter implements EntryWriter {
+        private final Writer writer;
+        private final JsonWriter json;
+        private final TypeAdapter<MediaMetadata> adapter = new Gson().getAdapter(MediaMetadata.class);
+
+        private JsonEntryWriter(Writer writer) {
+            this.writer = writer;
+            this.json = new JsonWriter(writer);
+            // lenient, so the one writer can write many top level values
+            this.json.setStrictness(Strictness.LENIENT);
+            this.json.setSerializeNulls(false);
+        }
+
+        @Override
+        public void write(String media, MetadataCache.CacheEntry entry) throws IOException {
+            json.beginObject();
+            json.name("media").value(media);
+            json.name("metadata");
+            adapter.write(json, entry.metadata);
+            if (entry.loudness != null) {
+                json.name("loudness").beginObject();
+                number(json.name("integrated"), entry.loudness.getIntegrated());
+                number(json.name("true_peak"), entry.loudness.getTruePeak());
+                number(json.name("range"), entry.loudness.getRange());
+                number(json.name("threshold"), entry.loudness.getThreshold());
+                json.endObject();
+            }
+            if (entry.contentHash != null) {
+                json.name("content_hash").value(entry.contentHash);
+            }
+            json.endObject();
+            // JsonWriter writes straight through, so the line break lands after the object
+            writer.write('\n');
+        }
+
+        /* JSON has no infinity or NaN, so those are written as null. */
+        private static void number(JsonWriter json, double value) throws IOException {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                json.nullValue();
+            } else {
+                json.value(value);
+            }
+        }
+    }
+
+    private final class CsvEntryWriter implements EntryWriter {
+        private final Writer writer;
+
+        private CsvEntryWriter(Writer writer) throws IOException {
+            this.writer = writer;
+            List<String> header = new ArrayList<>(CSV_COLUMNS);
+            header.addAll(tagColumns);
+            writeRow(header);
+        }
+
+        @Override
+        public void write(String media, MetadataCache.CacheEntry entry) throws IOException {
+            MediaMetadata metadata = entry.metadata;
+            Loudness loudness = entry.loudness;
+            List<String> row = new ArrayList<>(CSV_COLUMNS.size() + tagColumns.size());
+            row.add(media);
+            row.add(metadata.getFilename());
+            row.add(metadata.getFormatName());
+            row.add(metadata.getDurationAsString());
+            row.add(metadata.getSize());
+            row.add(metadata.getBitRate());
+            row.add(metadata.getTitle());
+            row.add(metadata.getArtist());
+            row.add(metadata.getAlbum());
+            row.add(metadata.getAlbumArtist());
+            row.add(metadata.getGenre());
+            row.add(metadata.getTrack());
+            row.add(metadata.getDisc());
+            row.add(metadata.getDate());
+            row.add(metadata.isCompilation() ? "1" : "0");
+            row.add(loudness == null ? "" : number(loudness.getIntegrated()));
+            row.add(loudness == null ? "" : number(loudness.getTruePeak()));
+            row.add(loudness == null ? "" : number(loudness.getRange()));
+            row.add(entry.contentHash == null ? "" : entry.contentHash);
+            for (String tag : tagColumns) {
+                row.add(metadata.getTag(tag));
+            }
+            writeRow(row);
+        }
+
+        private String number(double value) {
+            return Double.isNaN(value) ? "" : Double.toString(value);
+        }
+
+        private void writeRow(List<String> values) throws IOException {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeField(values.get(i));
+            }
+            writer.write("\r\n");
+        }
+
+        /* Quote fields that contain a separator, quote or line break, as in RFC 4180. */
+        private void writeField(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    writer.write('"');
+                }
+                writer.write(c);
+            }
+            writer.write('"');
+        }
+    }
+}
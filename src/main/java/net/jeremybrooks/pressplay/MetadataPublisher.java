@@ -0,0 +1,320 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the metadata of a source of media, probing the media only as fast as the subscriber asks for it.
+ *
+ * <p>Each subscriber gets its own pass over the media. A probe is only started when the subscriber
+ * has requested more metadata than is already in flight, so when demand drops to zero no new ffprobe
+ * processes are started. Cancelling the subscription kills any ffprobe processes that are still
+ * running.</p>
+ *
+ * <p>Metadata is published in the order the probes finish, which is not necessarily the order of the
+ * media. Use {@link MediaMetadata#getFilename()} to match the metadata to the media. Media that cannot
+ * be probed is logged and skipped, and does not end the stream. If a MetadataCache is set, cached
+ * metadata is published without starting a process, and new results are stored in the cache.</p>
+ * <pre>
+ * {@code
+ *   MetadataPublisher publisher = new MetadataPublisher.Builder()
+ *           .media(library)
+ *           .concurrency(8)
+ *           .metadataCache(cache)
+ *           .build();
+ *   publisher.subscribe(indexer);
+ * }
+ * </pre>
+ */
+public class MetadataPublisher implements Flow.Publisher<MediaMetadata> {
+    private static final Logger logger = LogManager.getLogger();
+
+    private final Iterable<String> media;
+    private final int concurrency;
+    private final MetadataCache metadataCache;
+
+    /**
+     * Builder to create an instance of MetadataPublisher.
+     */
+    public static class Builder {
+        private Iterable<String> media;
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+        private MetadataCache metadataCache;
+
+        /**
+         * Set the media to probe. This is required.
+         *
+         * <p>The media is iterated lazily, as demand allows, so it can be a large or generated source.</p>
+         *
+         * @param media the paths to the media.
+         * @return builder for chaining.
+         */
+        public Builder media(Iterable<String> media) {
+            this.media = media;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of ffprobe processes to run at the same time for each subscriber.
+         *
+         * <p>The default is the number of available processors.</p>
+         *
+         * @param concurrency maximum number of processes.
+         * @return builder for chaining.
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the cache used to look up and store metadata.
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Build the publisher with the parameters that have been set.
+         *
+         * @return new publisher.
+         */
+        public MetadataPublisher build() {
+            if (media == null) {
+                throw new IllegalArgumentException("Media cannot be null.");
+            }
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1.");
+            }
+            return new MetadataPublisher(this);
+        }
+    }
+
+    private MetadataPublisher(Builder builder) {
+        this.media = builder.media;
+        this.concurrency = builder.concurrency;
+        this.metadataCache = builder.metadataCache;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super MediaMetadata> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber cannot be null.");
+        }
+        ProbeSubscription subscription = new ProbeSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /*
+     * All signals to the subscriber, and all reads of the source, happen in drain, which
+     * only ever runs on one thread at a time. Probes finish on the executor threads, add
+     * their result to the ready queue, and call drain again.
+     */
+    private final class ProbeSubscription implements Flow.Subscription, FFProbe.ProbeListener {
+        private final Flow.Subscriber<? super MediaMetadata> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Queue<MediaMetadata> ready = new ConcurrentLinkedQueue<>();
+        private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+        private ExecutorService executor;
+        private Iterator<String> source;
+        private long emitted;
+        private boolean sourceDone;
+        private boolean terminated;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+
+        private ProbeSubscription(Flow.Subscriber<? super MediaMetadata> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Request must be greater than zero, but was " + n);
+            } else {
+                requested.accumulateAndGet(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        @Override
+        public void started(Process process) {
+            processes.add(process);
+            if (cancelled) {
+                process.destroy();
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (!terminated) {
+                    if (cancelled) {
+                        shutdown();
+                    } else if (error != null) {
+                        shutdown();
+                        subscriber.onError(error);
+                    } else {
+                        emit();
+                        launch();
+                        if (!terminated && sourceDone && inFlight.get() == 0 && ready.isEmpty()) {
+                            shutdown();
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            MediaMetadata metadata;
+            while (!cancelled && emitted < requested.get() && (metadata = ready.poll()) != null) {
+                emitted++;
+                try {
+                    subscriber.onNext(metadata);
+                } catch (RuntimeException e) {
+                    logger.warn("Subscriber threw an exception, cancelling.", e);
+                    cancelled = true;
+                }
+            }
+            if (cancelled) {
+                shutdown();
+            }
+        }
+
+        /* Start probes until there is one in flight or ready for every item of unmet demand. */
+        private void launch() {
+            try {
+                if (source == null && !terminated) {
+                    source = media.iterator();
+                }
+                while (!terminated && !sourceDone && inFlight.get() < concurrency
+                        && requested.get() - emitted > inFlight.get() + ready.size()) {
+                    if (!source.hasNext()) {
+                        sourceDone = true;
+                        break;
+                    }
+                    String item = source.next();
+                    MediaMetadata cached = metadataCache == null ? null : metadataCache.getIfPresent(item);
+                    if (cached != null) {
+                        ready.add(cached);
+                        emit();
+                    } else if (item != null && !item.trim().isEmpty()) {
+                        inFlight.incrementAndGet();
+                        executor().execute(() -> probe(item));
+                    }
+                }
+            } catch (RejectedExecutionException e) {
+                // cancelled while launching
+                inFlight.decrementAndGet();
+            } catch (RuntimeException e) {
+                error = e;
+                shutdown();
+                subscriber.onError(e);
+            }
+        }
+
+        private void probe(String item) {
+            try {
+                if (!cancelled) {
+                    MediaMetadata metadata = FFProbe.probe(item, null, this);
+                    if (cancelled) {
+                        return;
+                    } else if (metadata == null || metadata.getFilename().isEmpty()) {
+                        // ffprobe prints an empty result when it cannot read the media
+                        logger.warn("Unable to probe {}, skipping.", item);
+                    } else {
+                        if (metadataCache != null) {
+                            metadataCache.putMediaMetadata(item, metadata);
+                        }
+                        ready.add(metadata);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!cancelled) {
+                    logger.warn("Unable to probe {}, skipping.", item, e);
+                }
+            } finally {
+                processes.removeIf(process -> !process.isAlive());
+                inFlight.decrementAndGet();
+                drain();
+            }
+        }
+
+        private ExecutorService executor() {
+            if (executor == null) {
+                executor = ThreadSupport.newExecutor("pressplay-probe", concurrency);
+            }
+            return executor;
+        }
+
+        private void shutdown() {
+            if (terminated) {
+                return;
+            }
+            terminated = true;
+            cancelled = true;
+            ready.clear();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (Process process : processes) {
+                process.destroy();
+            }
+            processes.clear();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+/**
+ * Receives output read from a process by the ProcessOutputReader.
+ *
+ * <p>Methods are called from the shared reader thread, so implementations must not block.</p>
+ */
+interface OutputSink {
+
+    /**
+     * Called with each chunk of output that is read from the process.
+     * The array is reused, so implementations must copy any data they want to keep.
+     */
+    void accept(byte[] bytes, int offset, int length);
+
+    /**
+     * Called once, after all output has been read.
+     */
+    default void closed() {
+    }
+}
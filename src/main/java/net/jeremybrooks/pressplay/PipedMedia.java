@@ -0,0 +1,230 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Media that is fed to ffplay or ffprobe through standard input instead of being read from a path or URL.
+ *
+ * <p>Use this when the media is held in memory, in a database blob, inside an archive, or anywhere
+ * else that does not have a path ffmpeg can open. The data is written to the {@code pipe:0} input
+ * of the process by a dedicated pump thread, so there is no need to write the media to a temporary
+ * file first.</p>
+ * <pre>
+ * {@code
+ *   PipedMedia media = PipedMedia.of(blob.getBinaryStream());
+ *   FFPlay<PipedMedia> player = new FFPlay.Builder<PipedMedia>()
+ *           .media(media)
+ *           .build();
+ *   player.play();
+ * }
+ * </pre>
+ * <p>Media created from an InputStream or a ReadableByteChannel can only be read once. This means
+ * that metadata will not be parsed by FFPlay for this media, since parsing would consume the data.
+ * Media created from a ByteBuffer or a FileChannel can be read any number of times.</p>
+ * <p>Since the input is not seekable, ffplay may not be able to honor a seek time.</p>
+ */
+public class PipedMedia {
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * The ffmpeg input specification used for piped media.
+     */
+    public static final String PIPE_INPUT = "pipe:0";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private final ByteBuffer header;
+    private final ByteBuffer byteBuffer;
+    private final ReadableByteChannel channel;
+    private final long position;
+    private final AtomicBoolean consumed = new AtomicBoolean();
+
+    private PipedMedia(InputStream inputStream, ByteBuffer header, ByteBuffer byteBuffer, ReadableByteChannel channel,
+                       long position) {
+        this.inputStream = inputStream;
+        this.header = header;
+        this.byteBuffer = byteBuffer;
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * Create piped media that reads from an InputStream.
+     *
+     * <p>The stream is closed once it has been pumped to the process.</p>
+     *
+     * @param inputStream the stream containing the media.
+     * @return piped media that can be read once.
+     */
+    public static PipedMedia of(InputStream inputStream) {
+        if (inputStream == null) {
+            throw new IllegalArgumentException("InputStream cannot be null.");
+        }
+        return new PipedMedia(inputStream, null, null, null, 0);
+    }
+
+    /**
+     * Create piped media that reads from a ByteBuffer.
+     *
+     * <p>The remaining bytes of the buffer are used. The position of the buffer is not changed.</p>
+     *
+     * @param byteBuffer the buffer containing the media.
+     * @return piped media that can be read any number of times.
+     */
+    public static PipedMedia of(ByteBuffer byteBuffer) {
+        if (byteBuffer == null) {
+            throw new IllegalArgumentException("ByteBuffer cannot be null.");
+        }
+        return new PipedMedia(null, null, byteBuffer.duplicate(), null, 0);
+    }
+
+    /**
+     * Create piped media that reads from a channel.
+     *
+     * <p>If the channel is a FileChannel, the data from the current position to the end of the file
+     * is written to the process. The process input is a stream, so the data is copied through a
+     * buffer the same way as any other channel. FileChannel media can be read any number of times,
+     * and the channel is not closed.</p>
+     *
+     * <p>Any other channel can be read once, and is closed once it has been pumped to the process.</p>
+     *
+     * @param channel the channel containing the media.
+     * @return piped media.
+     * @throws IOException if the position of a FileChannel cannot be read.
+     */
+    public static PipedMedia of(ReadableByteChannel channel) throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null.");
+        }
+        if (channel instanceof FileChannel) {
+            FileChannel fileChannel = (FileChannel) channel;
+            return new PipedMedia(null, null, null, channel, fileChannel.position());
+        }
+        return new PipedMedia(null, null, null, channel, 0);
+    }
+
+    /*
+     * Piped media that writes a header, then the rest of a file from a position. This is used to
+     * start a stream at a frame in the middle of a file. The channel is not closed.
+     */
+    static PipedMedia of(FileChannel channel, byte[] header, long position) {
+        return new PipedMedia(null, ByteBuffer.wrap(header), null, channel, position);
+    }
+
+    /**
+     * Check if this media can be read more than once.
+     *
+     * @return true if the media can be read more than once.
+     */
+    public boolean isRepeatable() {
+        return byteBuffer != null || channel instanceof FileChannel;
+    }
+
+    /**
+     * Returns the ffmpeg input specification for this media, which is always {@code pipe:0}.
+     *
+     * @return the string {@code pipe:0}.
+     */
+    @Override
+    public String toString() {
+        return PIPE_INPUT;
+    }
+
+    /*
+     * Start a thread that writes the media to the standard input of the process.
+     * Standard input of the process is closed when all data has been written, so that ffmpeg sees
+     * the end of the stream.
+     */
+    Thread pump(Process process) {
+        if (!isRepeatable() && !consumed.compareAndSet(false, true)) {
+            throw new IllegalStateException("This media can only be read once, and has already been read.");
+        }
+        Thread thread = ThreadSupport.newThread("pressplay-pump", true, () -> {
+            try (OutputStream out = process.getOutputStream()) {
+                transfer(out);
+            } catch (IOException ioe) {
+                // the process will close the pipe if it stops before reading everything
+                if (process.isAlive()) {
+                    logger.warn("Error while writing media to the process.", ioe);
+                } else {
+                    logger.debug("Process exited before all media was written.");
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    /* Write all media to the stream. */
+    void transfer(OutputStream out) throws IOException {
+        if (header != null) {
+            out.write(header.array(), header.arrayOffset(), header.remaining());
+        }
+        if (byteBuffer != null) {
+            WritableByteChannel target = Channels.newChannel(out);
+            ByteBuffer source = byteBuffer.duplicate();
+            while (source.hasRemaining()) {
+                target.write(source);
+            }
+        } else if (channel instanceof FileChannel) {
+            FileChannel fileChannel = (FileChannel) channel;
+            WritableByteChannel target = Channels.newChannel(out);
+            long current = position;
+            long end = fileChannel.size();
+            while (current < end) {
+                long transferred = fileChannel.transferTo(current, end - current, target);
+                if (transferred <= 0 && current >= fileChannel.size()) {
+                    break;
+                }
+                current += transferred;
+            }
+        } else if (channel != null) {
+            try (ReadableByteChannel source = channel) {
+                WritableByteChannel target = Channels.newChannel(out);
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+        } else {
+            try (InputStream source = inputStream) {
+                source.transferTo(out);
+            }
+        }
+    }
+}
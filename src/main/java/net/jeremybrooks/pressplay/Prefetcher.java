@@ -0,0 +1,304 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms the operating system page cache for media that is about to be played.
+ *
+ * <p>When media lives on slow or network storage, the first second of playback can stall
+ * while ffplay waits for the first reads. The prefetcher reads ahead the start of each upcoming
+ * item, and the region around its seek time, on a low priority background thread so that the data
+ * is already cached when ffplay opens the file.</p>
+ * <pre>
+ * {@code
+ *   Prefetcher prefetcher = new Prefetcher.Builder()
+ *           .byteBudget(32 * 1024 * 1024)
+ *           .build();
+ *   prefetcher.setUpcoming(queue);
+ * }
+ * </pre>
+ * <p>Calling {@code setUpcoming} again replaces the queue and cancels any prefetch in progress.
+ * Regions are read through memory mapped buffers, which lets the operating system read ahead
+ * without copying the data into the Java heap. Only local files can be prefetched; URLs and
+ * PipedMedia are skipped.</p>
+ */
+public class Prefetcher implements Closeable {
+    private static final Logger logger = LogManager.getLogger();
+
+    /* Regions are warmed in chunks, so a queue change is noticed quickly. */
+    private static final long CHUNK_SIZE = 256 * 1024;
+
+    private final long byteBudget;
+    private final long leadingBytes;
+    private final long seekWindow;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong bytesPrefetched = new AtomicLong();
+    private final Object lock = new Object();
+    private final Thread worker;
+    private List<FFPlay<?>> upcoming = Collections.emptyList();
+    private long completedGeneration;
+    private volatile boolean closed;
+
+    /**
+     * Builder to create an instance of Prefetcher.
+     */
+    public static class Builder {
+        private long byteBudget = 16 * 1024 * 1024;
+        private long leadingBytes = 1024 * 1024;
+        private long seekWindow = 512 * 1024;
+
+        /**
+         * Set the maximum number of bytes to read for each queue of upcoming media.
+         *
+         * <p>The default is 16MB.</p>
+         *
+         * @param byteBudget maximum number of bytes to read.
+         * @return builder for chaining.
+         */
+        public Builder byteBudget(long byteBudget) {
+            this.byteBudget = byteBudget;
+            return this;
+        }
+
+        /**
+         * Set the number of bytes to read from the start of each item.
+         *
+         * <p>The default is 1MB.</p>
+         *
+         * @param leadingBytes number of bytes to read from the start of the media.
+         * @return builder for chaining.
+         */
+        public Builder leadingBytes(long leadingBytes) {
+            this.leadingBytes = leadingBytes;
+            return this;
+        }
+
+        /**
+         * Set the number of bytes to read around the seek position of an item.
+         *
+         * <p>This is only used for items with a seek time. The default is 512KB.</p>
+         *
+         * @param seekWindow number of bytes to read around the seek position.
+         * @return builder for chaining.
+         */
+        public Builder seekWindow(long seekWindow) {
+            this.seekWindow = seekWindow;
+            return this;
+        }
+
+        /**
+         * Build the prefetcher, and start its background thread.
+         *
+         * @return new prefetcher.
+         */
+        public Prefetcher build() {
+            if (byteBudget < 0 || leadingBytes < 0 || seekWindow < 0) {
+                throw new IllegalArgumentException("Sizes cannot be negative.");
+            }
+            return new Prefetcher(this);
+        }
+    }
+
+    private Prefetcher(Builder builder) {
+        this.byteBudget = builder.byteBudget;
+        this.leadingBytes = builder.leadingBytes;
+        this.seekWindow = builder.seekWindow;
+        this.worker = new Thread(this::run, "pressplay-prefetch");
+        this.worker.setDaemon(true);
+        this.worker.setPriority(Thread.MIN_PRIORITY);
+        this.worker.start();
+    }
+
+    /**
+     * Set the media that will be played next, in the order it will be played.
+     *
+     * <p>Any prefetch in progress is cancelled, and prefetching starts again
+     * from the first item in the new list.</p>
+     *
+     * @param upcoming players for the upcoming media.
+     */
+    public void setUpcoming(List<? extends FFPlay<?>> upcoming) {
+        synchronized (lock) {
+            this.upcoming = upcoming == null ? Collections.emptyList() : new ArrayList<>(upcoming);
+            generation.incrementAndGet();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Get the total number of bytes that have been prefetched.
+     *
+     * @return number of bytes prefetched since this object was created.
+     */
+    public long getBytesPrefetched() {
+        return bytesPrefetched.get();
+    }
+
+    /**
+     * Wait until the current queue has been prefetched, or the timeout has expired.
+     *
+     * @param timeout maximum time to wait.
+     * @return true if the current queue has been prefetched.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitIdle(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (lock) {
+            while (completedGeneration != generation.get()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(Math.max(1, remaining / 1_000_000));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stop the background thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        generation.incrementAndGet();
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        worker.interrupt();
+    }
+
+    private void run() {
+        long seen = 0;
+        while (!closed) {
+            List<FFPlay<?>> queue;
+            synchronized (lock) {
+                while (!closed && generation.get() == seen) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                seen = generation.get();
+                queue = upcoming;
+            }
+            prefetch(queue, seen);
+            synchronized (lock) {
+                if (generation.get() == seen) {
+                    completedGeneration = seen;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void prefetch(List<FFPlay<?>> queue, long current) {
+        long budget = byteBudget;
+        for (FFPlay<?> player : queue) {
+            Path path = toPath(player.getMedia());
+            if (path == null) {
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                budget -= warm(channel, 0, Math.min(leadingBytes, size), budget, current);
+                if (!player.getSeekTime().isZero()) {
+                    long offset = seekOffset(player.getMediaMetadata(), player.getSeekTime(), size);
+                    long start = Math.max(leadingBytes, offset - seekWindow / 2);
+                    long end = Math.min(size, offset + seekWindow / 2);
+                    budget -= warm(channel, start, end - start, budget, current);
+                }
+            } catch (IOException ioe) {
+                logger.debug("Unable to prefetch {}", path, ioe);
+            }
+            if (budget <= 0 || generation.get() != current) {
+                break;
+            }
+        }
+    }
+
+    /* Touch each page of the region, stopping early if the queue changes or the budget runs out. */
+    private long warm(FileChannel channel, long position, long length, long budget, long current) throws IOException {
+        long warmed = 0;
+        long end = position + Math.min(length, budget);
+        for (long chunk = position; chunk < end && generation.get() == current; chunk += CHUNK_SIZE) {
+            long count = Math.min(CHUNK_SIZE, end - chunk);
+            channel.map(FileChannel.MapMode.READ_ONLY, chunk, count).load();
+            warmed += count;
+            bytesPrefetched.addAndGet(count);
+        }
+        return warmed;
+    }
+
+    /*
+     * Estimate the byte offset of a seek time. The bit rate gives the best estimate; if it is not
+     * known, the offset is proportional to the duration.
+     */
+    static long seekOffset(MediaMetadata metadata, Duration seekTime, long size) {
+        if (metadata == null || seekTime.isZero()) {
+            return 0;
+        }
+        double seconds = seekTime.toMillis() / 1000.0;
+        long offset = 0;
+        try {
+            offset = (long) (seconds * Long.parseLong(metadata.getBitRate()) / 8);
+        } catch (NumberFormatException e) {
+            long duration = metadata.getDuration().toMillis();
+            if (duration > 0) {
+                offset = (long) (size * (seekTime.toMillis() / (double) duration));
+            }
+        }
+        return Math.max(0, Math.min(offset, size));
+    }
+
+    private static Path toPath(Object media) {
+        Path path = null;
+        if (media instanceof Path) {
+            path = (Path) media;
+        } else if (media instanceof File) {
+            path = ((File) media).toPath();
+        } else if (media instanceof String) {
+            try {
+                path = Paths.get((String) media);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return path != null && Files.isRegularFile(path) ? path : null;
+    }
+}
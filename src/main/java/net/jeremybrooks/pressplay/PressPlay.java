@@ -19,51 +19,132 @@
 
 package net.jeremybrooks.pressplay;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.function.Consumer;
 
 /**
- * This class sets up the paths to the ffmpeg binaries that are used by PressPlay.
+ * This class holds the global settings used by PressPlay.
  * <p>
- * The default location for these tools is {@code /usr/local/bin}. If your ffmpeg
- * tools are installed there, you don't need to do anything.
+ * The ffmpeg tools are found by {@link FFmpegTools} the first time they are needed. They are looked
+ * for on the {@code PATH} and in well known install locations such as {@code /usr/local/bin},
+ * {@code /opt/homebrew/bin} and {@code /usr/bin}. If your ffmpeg tools are installed in one of
+ * those places, you don't need to do anything.
  * <p>
  * If the ffmpeg tools are installed in a different location, you will need to
- * set the system property @{code pressplay.ffmpeg.path} to the correct location of the binaries.
+ * set the system property {@code pressplay.ffmpeg.path} to the correct location of the binaries.
  * <p>
  * For example, if you have ffmpeg tools installed at {@code /opt/ffmpeg/bin/}, set the property as
  * follows:
  * <p>
  * {@code System.setProperty("pressplay.ffmpeg.path", "/opt/ffmpeg/bin/");}
  * <p>
- * or, as a command line option: @{code -Dpressplay.ffmpeg.path=/opt/ffmpeg/bin/}
+ * or, as a command line option: {@code -Dpressplay.ffmpeg.path=/opt/ffmpeg/bin/}
+ * <p>
+ * Diagnostic output from ffplay and ffprobe is discarded by default. To capture the most recent
+ * diagnostic output of each process, set a buffer size with {@link #setDiagnosticBufferSize(int)}
+ * or the system property {@code pressplay.diagnostics.size}. Captured output is included in the
+ * {@link ProcessFailure} passed to the failure listener when a process fails.
+ * <p>
+ * Threads that wait for processes and run batch work are platform threads by default. On Java 21
+ * or later, they can be virtual threads instead, by calling {@link #setExecutionMode(ExecutionMode)}
+ * or setting the system property {@code pressplay.execution.mode} to {@code virtual}.
  */
 public class PressPlay {
 
+    /**
+     * Path to ffprobe.
+     *
+     * @deprecated use {@link FFmpegTools#getFFprobe()}, which also checks that the tool works.
+     */
+    @Deprecated
     public static final String FFPROBE;
+    /**
+     * Path to ffplay.
+     *
+     * @deprecated use {@link FFmpegTools#getFFplay()}, which also checks that the tool works.
+     */
+    @Deprecated
     public static final String FFPLAY;
-
-    private static final String FFMPEG_PATH_PROPERTY = "pressplay.ffmpeg.path";
+    /**
+     * Path to ffmpeg.
+     *
+     * @deprecated use {@link FFmpegTools#getFFmpeg()}, which also checks that the tool works.
+     */
+    @Deprecated
+    public static final String FFMPEG;
 
     static {
-        Logger logger = LogManager.getLogger();
-        String path = System.getProperty(FFMPEG_PATH_PROPERTY);
-        if (path == null || path.trim().isEmpty()) {
-            if (Files.exists(Paths.get("/usr/local/bin/ffprobe"))) {
-                path = "/usr/local/bin";
-            } else {
-                path = "/usr/bin/";
-            }
-        }
-        if (!path.endsWith(FileSystems.getDefault().getSeparator())) {
-            path = path + FileSystems.getDefault().getSeparator();
-        }
-        logger.info("Using ffmpeg tools path {}", path);
+        // kept for compatibility; this only looks for the files, and does not run them. Library
+        // classes read their settings from Settings, so this only runs when the application
+        // uses this class, and sees the pressplay.ffmpeg.path property as set at that time.
+        String path = FFmpegTools.locateDirectory();
         FFPROBE = path + "ffprobe";
         FFPLAY = path + "ffplay";
+        FFMPEG = path + "ffmpeg";
+    }
+
+    /**
+     * Set the default size of the buffer used to capture diagnostic output from each
+     * ffplay and ffprobe process.
+     *
+     * <p>The default is zero, which disables capture. When capture is disabled, diagnostic
+     * output is not generated at all, so there is no cost. Unless position tracking is enabled
+     * for a player, its error output is not read either.</p>
+     *
+     * @param size size of the buffer in bytes, or zero to disable capture.
+     */
+    public static void setDiagnosticBufferSize(int size) {
+        Settings.setDiagnosticBufferSize(size);
+    }
+
+    /**
+     * Get the default size of the diagnostic capture buffer.
+     *
+     * @return size of the buffer in bytes, zero if capture is disabled.
+     */
+    public static int getDiagnosticBufferSize() {
+        return Settings.getDiagnosticBufferSize();
+    }
+
+    /**
+     * Set a listener that is called when an ffplay or ffprobe process fails.
+     *
+     * <p>FFPlay instances that have their own failure listener do not call this listener.</p>
+     *
+     * @param listener the listener, or null to remove the listener.
+     */
+    public static void setFailureListener(Consumer<ProcessFailure> listener) {
+        Settings.setFailureListener(listener);
+    }
+
+    /**
+     * Set the kind of threads used to wait for processes and run batch work.
+     *
+     * <p>The mode applies to threads started after it is set. Virtual threads require Java 21
+     * or later; on older versions, {@link ExecutionMode#VIRTUAL} behaves the same as
+     * {@link ExecutionMode#PLATFORM}.</p>
+     *
+     * @param mode the execution mode.
+     */
+    public static void setExecutionMode(ExecutionMode mode) {
+        Settings.setExecutionMode(mode);
+    }
+
+    /**
+     * Get the kind of threads used to wait for processes and run batch work.
+     *
+     * @return the execution mode that has been set.
+     */
+    public static ExecutionMode getExecutionMode() {
+        return Settings.getExecutionMode();
+    }
+
+    /**
+     * Check if virtual threads are used.
+     *
+     * @return true if the execution mode is {@link ExecutionMode#VIRTUAL}, and this Java version
+     * supports virtual threads.
+     */
+    public static boolean isUsingVirtualThreads() {
+        return Settings.getExecutionMode() == ExecutionMode.VIRTUAL && ThreadSupport.isVirtualThreadSupported();
     }
 }
@@ -0,0 +1,441 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Cache of short preview clips of media.
+ *
+ * <p>A preview is a clip from the middle of the media, such as the 30 seconds that a store plays
+ * before a track is bought. Decoding a lossless file from a seek time for every preview costs far
+ * more I/O and CPU than playing a small clip, so each preview is rendered once by ffmpeg to AAC, and
+ * kept in a size-bounded directory on disk. When the size is exceeded, the least recently used clips
+ * are deleted. Use {@link #renderAll(Collection)} to render the previews of many files in parallel
+ * ahead of time.</p>
+ *
+ * <p>The clip starts at a fraction of the duration of the media, and has a short fade in and out.
+ * If the media changes, or the clip settings change, a new clip is rendered.</p>
+ * <pre>
+ * {@code
+ *   PreviewCache previews = new PreviewCache.Builder()
+ *           .directory(Paths.get("/var/cache/previews"))
+ *           .clipLength(Duration.ofSeconds(30))
+ *           .metadataCache(cache)
+ *           .build();
+ *   previews.renderAll(newReleases);
+ *   previews.getPlayer("/music/track.flac").play();
+ * }
+ * </pre>
+ * <p>This class is thread safe.</p>
+ */
+public class PreviewCache {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String EXTENSION = ".aac";
+    private static final double FADE_SECONDS = 1.0;
+
+    private final DiskCache diskCache;
+    private final Duration clipLength;
+    private final double start;
+    private final int bitrate;
+    private final int concurrency;
+    private final MetadataCache metadataCache;
+    /* Runs renders for renderAll and getPlayer, so no more than concurrency run at the same time. */
+    private final ExecutorService executor;
+    /* Keys of clips being rendered, so a clip is only rendered once at a time. */
+    private final Map<String, Object> rendering = new ConcurrentHashMap<>();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Builder to create an instance of PreviewCache.
+     */
+    public static class Builder {
+        private Path directory;
+        private long maxDiskBytes = 256L * 1024 * 1024;
+        private Duration clipLength = Duration.ofSeconds(30);
+        private double start = 0.33;
+        private int bitrate = 96;
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+        private MetadataCache metadataCache;
+
+        /**
+         * Set the directory to store clips in. This is required.
+         *
+         * @param directory the directory, which is created if it does not exist.
+         * @return builder for chaining.
+         */
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of the clips on disk.
+         *
+         * <p>The default is 256MB, which holds about 700 clips of 30 seconds at the default bitrate.
+         * When the size is exceeded, the least recently used clips are deleted.</p>
+         *
+         * @param maxDiskBytes maximum size in bytes.
+         * @return builder for chaining.
+         */
+        public Builder maxDiskBytes(long maxDiskBytes) {
+            this.maxDiskBytes = maxDiskBytes;
+            return this;
+        }
+
+        /**
+         * Set the length of each clip. The default is 30 seconds.
+         *
+         * @param clipLength length of the clips.
+         * @return builder for chaining.
+         */
+        public Builder clipLength(Duration clipLength) {
+            this.clipLength = clipLength;
+            return this;
+        }
+
+        /**
+         * Set where the clip starts, as a fraction of the duration of the media.
+         *
+         * <p>The default is 0.33, a third of the way through, which usually skips any intro. The clip
+         * is moved earlier if it would run past the end of the media.</p>
+         *
+         * @param start fraction from 0 to 1.
+         * @return builder for chaining.
+         */
+        public Builder start(double start) {
+            this.start = start;
+            return this;
+        }
+
+        /**
+         * Set the bitrate of the clips. The default is 96kbps.
+         *
+         * @param bitrate bitrate in kbps.
+         * @return builder for chaining.
+         */
+        public Builder bitrate(int bitrate) {
+            this.bitrate = bitrate;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of ffmpeg processes to run at the same time when rendering many clips.
+         *
+         * <p>The default is the number of available processors.</p>
+         *
+         * @param concurrency maximum number of processes.
+         * @return builder for chaining.
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the cache used to look up the duration of media.
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Build the cache with the parameters that have been set.
+         *
+         * @return new cache.
+         * @throws IOException if the directory cannot be created or read.
+         */
+        public PreviewCache build() throws IOException {
+            if (directory == null) {
+                throw new IllegalArgumentException("Directory cannot be null.");
+            }
+            if (clipLength == null || clipLength.toMillis() < 1000) {
+                throw new IllegalArgumentException("Clip length must be at least one second.");
+            }
+            if (start < 0 || start > 1 || Double.isNaN(start)) {
+                throw new IllegalArgumentException("Start must be between 0 and 1.");
+            }
+            if (bitrate <= 0 || concurrency < 1) {
+                throw new IllegalArgumentException("Bitrate must be greater than zero, and concurrency must be at least 1.");
+            }
+            return new PreviewCache(this);
+        }
+    }
+
+    private PreviewCache(Builder builder) throws IOException {
+        this.diskCache = new DiskCache(builder.directory, builder.maxDiskBytes);
+        this.clipLength = builder.clipLength;
+        this.start = builder.start;
+        this.bitrate = builder.bitrate;
+        this.concurrency = builder.concurrency;
+        this.metadataCache = builder.metadataCache;
+        this.executor = ThreadSupport.newExecutor("pressplay-preview", concurrency);
+    }
+
+    /**
+     * Get the preview clip of media, rendering it if it is not in the cache.
+     *
+     * @param media the path to the media.
+     * @return path to the clip. The clip may be deleted by eviction, so play it soon.
+     * @throws IOException if the media cannot be read, or the clip cannot be rendered.
+     */
+    public Path getClip(String media) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        String key = clipKey(media);
+        Path clip = diskCache.get(key);
+        if (clip != null) {
+            return clip;
+        }
+        while (clip == null) {
+            clip = renderLocked(media, key, rendering.computeIfAbsent(key, k -> new Object()));
+        }
+        return clip;
+    }
+
+    /*
+     * Render the clip while holding its lock. Returns null if the lock was released while this
+     * thread waited for it, because the render it waited for has finished.
+     */
+    private Path renderLocked(String media, String key, Object lock) throws IOException {
+        synchronized (lock) {
+            if (rendering.get(key) != lock) {
+                return null;
+            }
+            try {
+                // another thread may have rendered it while this one waited
+                Path clip = diskCache.get(key);
+                return clip == null ? render(media, key) : clip;
+            } finally {
+                rendering.remove(key, lock);
+            }
+        }
+    }
+
+    /**
+     * Get the preview clip of media if it is in the cache.
+     *
+     * @param media the path to the media.
+     * @return path to the clip, or null if it has not been rendered.
+     */
+    public Path getClipIfPresent(String media) {
+        return media == null ? null : diskCache.get(clipKey(media));
+    }
+
+    /**
+     * Render the preview clips of many media files in parallel.
+     *
+     * <p>No more than the configured number of ffmpeg processes run at the same time, including
+     * clips rendered in the background by {@link #getPlayer(String)}. Clips that
+     * are already in the cache are not rendered again. Media that cannot be rendered is logged and
+     * left out of the result.</p>
+     *
+     * @param media the paths to the media.
+     * @return map of media to clip, in the same order as the input.
+     * @throws InterruptedException if interrupted while waiting for the results.
+     */
+    public Map<String, Path> renderAll(Collection<String> media) throws InterruptedException {
+        List<Future<Path>> futures = new ArrayList<>();
+        try {
+            List<String> keys = new ArrayList<>();
+            for (String item : media) {
+                keys.add(item);
+                futures.add(executor.submit(() -> getClip(item)));
+            }
+            Map<String, Path> results = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                try {
+                    results.put(keys.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.warn("Unable to render preview of {}", keys.get(i), e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            for (Future<Path> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Get a player for the preview of media.
+     *
+     * <p>If the clip is in the cache, the player plays the clip. Otherwise the player plays the same
+     * part of the original media, and the clip is rendered in the background, so that the next
+     * preview of the media is played from the cache. Either way, ffplay exits when the preview ends,
+     * so the player does not need to be stopped.</p>
+     *
+     * @param media the path to the media.
+     * @return player, ready to play.
+     */
+    public FFPlay<String> getPlayer(String media) {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        String key = clipKey(media);
+        Path clip = diskCache.get(key);
+        if (clip != null) {
+            return new FFPlay.Builder<String>()
+                    .media(clip.toString())
+                    .duration(clipLength)
+                    .noMetadata()
+                    .build();
+        }
+        Object lock = new Object();
+        if (!failed.contains(key) && rendering.putIfAbsent(key, lock) == null) {
+            executor.execute(() -> {
+                try {
+                    renderLocked(media, key, lock);
+                } catch (IOException | RuntimeException e) {
+                    failed.add(key);
+                    logger.warn("Unable to render preview of {}", media, e);
+                }
+            });
+        }
+        Duration duration = getDuration(media);
+        return new FFPlay.Builder<String>()
+                .media(media)
+                .seekTime(duration == null ? Duration.ZERO : offset(duration, clipLength, start))
+                .duration(clipLength)
+                .metadataCache(metadataCache)
+                .build();
+    }
+
+    /**
+     * Delete the preview clip of media, so it is rendered again the next time it is requested.
+     *
+     * @param media the path to the media.
+     */
+    public void invalidate(String media) {
+        if (media != null) {
+            String key = clipKey(media);
+            failed.remove(key);
+            diskCache.remove(key);
+        }
+    }
+
+    /* Render the clip to a temporary file in the cache directory, then move it into the cache. */
+    private Path render(String media, String key) throws IOException {
+        Duration duration = getDuration(media);
+        if (duration == null) {
+            throw new IOException("Unable to get the duration of " + media);
+        }
+        Duration offset = offset(duration, clipLength, start);
+        Duration length = duration.minus(offset).compareTo(clipLength) < 0 ? duration.minus(offset) : clipLength;
+        double seconds = length.toMillis() / 1000.0;
+        double fade = Math.min(FADE_SECONDS, seconds / 4);
+        logger.debug("Rendering {}s preview of {} from {}", seconds, media, offset);
+        Path temp = diskCache.createTempFile(key);
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(Arrays.asList(
+                    FFmpegTools.get().requireFFmpeg(),
+                    "-v",
+                    "quiet",
+                    "-nostdin",
+                    "-y",
+                    "-ss",
+                    Double.toString(offset.toMillis() / 1000.0),
+                    "-i",
+                    media,
+                    "-t",
+                    Double.toString(seconds),
+                    "-vn",
+                    "-af",
+                    String.format(Locale.ROOT, "afade=t=in:d=%.2f,afade=t=out:st=%.2f:d=%.2f", fade, seconds - fade, fade),
+                    "-c:a",
+                    "aac",
+                    "-b:a",
+                    bitrate + "k",
+                    "-f",
+                    "adts",
+                    temp.toString()))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            Process process = processBuilder.start();
+            try {
+                int exitCode = ThreadSupport.waitFor(process);
+                if (exitCode != 0 || Files.size(temp) == 0) {
+                    throw new IOException("ffmpeg exited with " + exitCode + " while rendering preview of " + media);
+                }
+            } catch (InterruptedException ie) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while rendering preview of " + media, ie);
+            }
+            return diskCache.put(key, temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Duration getDuration(String media) {
+        try {
+            MediaMetadata metadata = metadataCache == null
+                    ? FFProbe.getMediaMetadata(media) : metadataCache.getMediaMetadata(media);
+            return metadata == null ? null : metadata.getDuration();
+        } catch (IOException e) {
+            logger.debug("Unable to get metadata for {}", media, e);
+            return null;
+        }
+    }
+
+    /* Where the clip starts: a fraction of the way through, but not so late that the clip is cut short. */
+    static Duration offset(Duration duration, Duration clipLength, double start) {
+        if (duration.compareTo(clipLength) <= 0) {
+            return Duration.ZERO;
+        }
+        long millis = Math.round(duration.toMillis() * start);
+        return Duration.ofMillis(Math.min(millis, duration.minus(clipLength).toMillis()));
+    }
+
+    /* The key changes when the media file or the clip settings change. */
+    String clipKey(String media) {
+        MetadataCache.FileStamp stamp = MetadataCache.FileStamp.of(media);
+        String source = media + '\u0000' + stamp.size + '\u0000' + stamp.modified + '\u0000'
+                + clipLength.toMillis() + '\u0000' + start + '\u0000' + bitrate;
+        return ContentHasher.toHex(ContentHasher.sha256().digest(source.getBytes(StandardCharsets.UTF_8))) + EXTENSION;
+    }
+}
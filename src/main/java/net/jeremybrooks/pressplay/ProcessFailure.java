@@ -0,0 +1,94 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+/**
+ * Describes a failed ffplay or ffprobe process.
+ *
+ * <p>Failures are passed to the listener set with {@code FFPlay.Builder.onFailure} or
+ * {@link PressPlay#setFailureListener}. If diagnostic capture is enabled, the failure
+ * includes the most recent diagnostic output of the process.</p>
+ */
+public class ProcessFailure {
+    private final String tool;
+    private final String media;
+    private final int exitCode;
+    private final String diagnostics;
+    private final Throwable cause;
+
+    ProcessFailure(String tool, String media, int exitCode, String diagnostics, Throwable cause) {
+        this.tool = tool;
+        this.media = media;
+        this.exitCode = exitCode;
+        this.diagnostics = diagnostics == null ? "" : diagnostics;
+        this.cause = cause;
+    }
+
+    /**
+     * Get the name of the tool that failed, for example {@code ffplay}.
+     *
+     * @return name of the tool.
+     */
+    public String getTool() {
+        return tool;
+    }
+
+    /**
+     * Get the media the process was working on.
+     *
+     * @return the media, as passed to the process.
+     */
+    public String getMedia() {
+        return media;
+    }
+
+    /**
+     * Get the exit code of the process.
+     *
+     * @return exit code, or -1 if the process could not be started.
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Get the diagnostic output captured from the process.
+     *
+     * @return captured output, or an empty String if diagnostic capture is disabled.
+     */
+    public String getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Get the exception that caused the failure.
+     *
+     * @return the exception, or null if the process exited with an error.
+     */
+    public Throwable getCause() {
+        return cause;
+    }
+
+    @Override
+    public String toString() {
+        return tool + " failed for " + media + " with exit code " + exitCode
+                + (diagnostics.isEmpty() ? "" : ":\n" + diagnostics);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single shared thread that reads the output of every registered process.
+ *
+ * <p>Giving each process its own reader thread doesn't scale when many processes are running.
+ * Instead, this reader polls all registered streams and only reads the bytes that are already
+ * available, so one slow or quiet process never blocks the others. When no stream has any output,
+ * the thread sleeps briefly before polling again. When no streams are registered, the thread is
+ * parked until one is, so it costs nothing while no process output is being read.</p>
+ *
+ * <p>The thread is not started until the first stream is registered.</p>
+ */
+class ProcessOutputReader {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final long IDLE_SLEEP_MILLIS = 20;
+    /* How long output is still read after a process exits, in case a child process keeps writing to it. */
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static volatile ProcessOutputReader instance;
+
+    private final Queue<Registration> registrations = new ConcurrentLinkedQueue<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final Thread thread;
+
+    private ProcessOutputReader() {
+        thread = new Thread(this::run, "pressplay-output-reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /* Get the shared reader, starting its thread on first use. */
+    static ProcessOutputReader getInstance() {
+        if (instance == null) {
+            synchronized (ProcessOutputReader.class) {
+                if (instance == null) {
+                    instance = new ProcessOutputReader();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Register a stream to be read until the process exits and the output it wrote has been read.
+     *
+     * @return latch that is released once the sink has been closed.
+     */
+    CountDownLatch register(Process process, InputStream in, OutputSink sink) {
+        Registration registration = new Registration(process, in, sink);
+        registrations.add(registration);
+        LockSupport.unpark(thread);
+        return registration.done;
+    }
+
+    /**
+     * Wait for all output to be read, for up to a second. Output written just before a process
+     * exits may not have been read yet when waitFor returns.
+     */
+    static void awaitClosed(CountDownLatch latch) {
+        try {
+            if (!latch.await(1, TimeUnit.SECONDS)) {
+                logger.debug("Timed out waiting for process output.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            if (registrations.isEmpty()) {
+                // register unparks the thread, and a permit given before this parks is not lost
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    return;
+                }
+                continue;
+            }
+            boolean readAny = false;
+            Iterator<Registration> iterator = registrations.iterator();
+            while (iterator.hasNext()) {
+                Registration registration = iterator.next();
+                try {
+                    int read = registration.poll(buffer);
+                    if (read < 0) {
+                        iterator.remove();
+                        registration.close();
+                    } else if (read > 0) {
+                        readAny = true;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    logger.debug("Error reading process output.", e);
+                    iterator.remove();
+                    registration.close();
+                }
+            }
+            if (!readAny) {
+                try {
+                    Thread.sleep(IDLE_SLEEP_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Registration {
+        private final Process process;
+        private final InputStream in;
+        private final OutputSink sink;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private long drainDeadline;
+        private boolean exited;
+
+        Registration(Process process, InputStream in, OutputSink sink) {
+            this.process = process;
+            this.in = in;
+            this.sink = sink;
+        }
+
+        /*
+         * Read the available bytes, never blocking. A child of the process can inherit the stream
+         * and keep it open after the process exits, so a blocking read to the end could stall every
+         * registration. Once the process has exited, everything it wrote is already available, so
+         * the stream is finished as soon as nothing is available, or when the drain deadline passes.
+         *
+         * Returns the number of bytes read, or -1 when the stream is finished.
+         */
+        int poll(byte[] buffer) throws IOException {
+            if (!exited && !process.isAlive()) {
+                exited = true;
+                drainDeadline = System.nanoTime() + DRAIN_NANOS;
+            }
+            int available = in.available();
+            if (available > 0 && (!exited || System.nanoTime() - drainDeadline < 0)) {
+                int count = in.read(buffer, 0, Math.min(available, buffer.length));
+                if (count > 0) {
+                    sink.accept(buffer, 0, count);
+                }
+                return Math.max(count, 0);
+            }
+            return exited ? -1 : 0;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            try {
+                sink.closed();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+}
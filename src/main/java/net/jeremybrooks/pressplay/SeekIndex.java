@@ -0,0 +1,244 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Byte offsets of the audio frames in a media file at fixed intervals, created by {@link SeekIndexer}.
+ *
+ * <p>Without an index, ffplay estimates where to start from the bitrate, which is slow and inexact for
+ * variable bitrate MP3 files that have no table of contents. With an index, {@link FFPlay} streams the
+ * file from the byte offset of the frame just before the seek time, and discards the few samples
+ * between the start of that frame and the seek time, so playback starts at exactly the right sample.</p>
+ * <pre>
+ * {@code
+ *   SeekIndex index = new SeekIndexer.Builder().build().index("/music/track.mp3");
+ *   FFPlay<String> player = new FFPlay.Builder<String>()
+ *           .media("/music/track.mp3")
+ *           .seekTime(Duration.ofMinutes(3))
+ *           .seekIndex(index)
+ *           .build();
+ * }
+ * </pre>
+ * <p>This class is immutable.</p>
+ */
+public final class SeekIndex {
+
+    /* The type of stream that was indexed. */
+    enum Type {
+        MP3,
+        FLAC
+    }
+
+    private final Type type;
+    private final int sampleRate;
+    private final long intervalMillis;
+    private final MetadataCache.FileStamp stamp;
+    private final long totalSamples;
+    private final long[] samples;
+    private final long[] offsets;
+    private final byte[] header;
+
+    /*
+     * The entries are the sample position and byte offset of a frame at or before each interval.
+     * The header is written before the frames when streaming from an offset, for formats
+     * that cannot be decoded without it.
+     */
+    SeekIndex(Type type, int sampleRate, long intervalMillis, MetadataCache.FileStamp stamp, long totalSamples,
+              long[] samples, long[] offsets, byte[] header) {
+        this.type = type;
+        this.sampleRate = sampleRate;
+        this.intervalMillis = intervalMillis;
+        this.stamp = stamp;
+        this.totalSamples = totalSamples;
+        this.samples = samples;
+        this.offsets = offsets;
+        this.header = header;
+    }
+
+    /**
+     * Get the duration of the indexed audio.
+     *
+     * @return duration, counted from the frames in the file.
+     */
+    public Duration getDuration() {
+        return toDuration(totalSamples);
+    }
+
+    /**
+     * Get the interval between entries in the index.
+     *
+     * @return interval.
+     */
+    public Duration getInterval() {
+        return Duration.ofMillis(intervalMillis);
+    }
+
+    /**
+     * Get the number of entries in the index.
+     *
+     * @return number of entries.
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Get the size of the file that was indexed.
+     *
+     * <p>An index can only be used for the file it was created from.</p>
+     *
+     * @return size in bytes.
+     */
+    public long getFileSize() {
+        return stamp.size;
+    }
+
+    /* The size and modification time of the file when it was indexed. */
+    MetadataCache.FileStamp getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Get the byte offset to start reading from to play from a time.
+     *
+     * @param time the time to play from.
+     * @return offset of the frame that contains the time, or one shortly before it.
+     */
+    public long getOffset(Duration time) {
+        return offsets[find(time)];
+    }
+
+    /**
+     * Get the time of the frame at the offset returned by {@link #getOffset(Duration)}.
+     *
+     * @param time the time to play from.
+     * @return time of the frame at or before the time.
+     */
+    public Duration getFrameTime(Duration time) {
+        return toDuration(samples[find(time)]);
+    }
+
+    /* Index of the last entry at or before the time. */
+    int find(Duration time) {
+        if (offsets.length == 0) {
+            throw new IllegalStateException("The index is empty.");
+        }
+        int low = 0;
+        int high = samples.length - 1;
+        long target = toSamples(time);
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (samples[middle] <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /* Number of samples from the start of the audio to the time. */
+    long toSamples(Duration time) {
+        if (time == null || time.isNegative()) {
+            return 0;
+        }
+        return time.getSeconds() * sampleRate + (long) time.getNano() * sampleRate / 1_000_000_000L;
+    }
+
+    long getSamples(int entry) {
+        return samples[entry];
+    }
+
+    long getOffset(int entry) {
+        return offsets[entry];
+    }
+
+    int getSampleRate() {
+        return sampleRate;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    byte[] getHeader() {
+        return header.clone();
+    }
+
+    private Duration toDuration(long sampleCount) {
+        return Duration.ofSeconds(sampleCount / sampleRate, (sampleCount % sampleRate) * 1_000_000_000L / sampleRate);
+    }
+
+    @Override
+    public String toString() {
+        return "SeekIndex{type=" + type + ", duration=" + getDuration() + ", entries=" + offsets.length + "}";
+    }
+
+    /* Offsets and sample positions only increase, so they are written as differences. */
+    void writeTo(MediaMetadataCodec.Writer writer) throws IOException {
+        writer.writeVarint(type.ordinal());
+        writer.writeVarint(sampleRate);
+        writer.writeVarint(intervalMillis);
+        writer.writeVarint(stamp.size);
+        writer.writeVarint(stamp.modified + 1);
+        writer.writeVarint(totalSamples);
+        writer.writeBytes(header);
+        writer.writeVarint(offsets.length);
+        long lastSamples = 0;
+        long lastOffset = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            writer.writeVarint(samples[i] - lastSamples);
+            writer.writeVarint(offsets[i] - lastOffset);
+            lastSamples = samples[i];
+            lastOffset = offsets[i];
+        }
+    }
+
+    static SeekIndex readFrom(MediaMetadataCodec.Reader reader) throws IOException {
+        int typeIndex = reader.readInt();
+        if (typeIndex >= Type.values().length) {
+            throw new IOException("Unknown seek index type " + typeIndex);
+        }
+        Type type = Type.values()[typeIndex];
+        int sampleRate = reader.readInt();
+        long intervalMillis = reader.readVarint();
+        MetadataCache.FileStamp stamp = new MetadataCache.FileStamp(reader.readVarint(), reader.readVarint() - 1);
+        long totalSamples = reader.readVarint();
+        byte[] header = reader.readBytes();
+        int count = reader.readCount();
+        if (sampleRate == 0 || count == 0) {
+            throw new IOException("Invalid seek index.");
+        }
+        long[] samples = new long[count];
+        long[] offsets = new long[count];
+        long lastSamples = 0;
+        long lastOffset = 0;
+        for (int i = 0; i < count; i++) {
+            lastSamples += reader.readVarint();
+            lastOffset += reader.readVarint();
+            samples[i] = lastSamples;
+            offsets[i] = lastOffset;
+        }
+        return new SeekIndex(type, sampleRate, intervalMillis, stamp, totalSamples, samples, offsets, header);
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Creates a {@link SeekIndex} for MP3 and FLAC files.
+ *
+ * <p>The file is memory mapped and scanned once, frame by frame, recording the byte offset and sample
+ * position of a frame at each interval. Scanning reads the frame headers only, and does not decode any
+ * audio, so it is much faster than playback. Use {@link #indexAll(Collection)} to index many files in
+ * parallel. If a MetadataCache is set, indexes are read from and stored in the cache, and
+ * {@link FFPlay} uses them automatically when it is given the same cache.</p>
+ * <pre>
+ * {@code
+ *   SeekIndexer indexer = new SeekIndexer.Builder()
+ *           .interval(Duration.ofSeconds(1))
+ *           .metadataCache(cache)
+ *           .build();
+ *   indexer.indexAll(library);
+ * }
+ * </pre>
+ */
+public class SeekIndexer {
+    private static final Logger logger = LogManager.getLogger();
+
+    /* MP3 frames can use up to 511 bytes of the frames before them, known as the bit reservoir. */
+    private static final int MP3_RESERVOIR_SIZE = 512;
+    private static final int MP3_HISTORY = 32;
+    private static final int FLAC_STREAMINFO_SIZE = 34;
+    /* A frame header, one byte of subframe and the CRC-16 footer. */
+    private static final int FLAC_MIN_FRAME_SIZE = 9;
+    /* The largest frame header, a header for each of up to 8 subframes, and the CRC-16 footer. */
+    private static final int FLAC_FRAME_OVERHEAD = 26;
+
+    private static final int[][] MP3_BITRATES = {
+            // MPEG 1 layer I, II, III
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            // MPEG 2 and 2.5 layer I, and layers II and III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] MP3_SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final long intervalMillis;
+    private final int concurrency;
+    private final MetadataCache metadataCache;
+
+    /**
+     * Builder to create an instance of SeekIndexer.
+     */
+    public static class Builder {
+        private Duration interval = Duration.ofSeconds(1);
+        private int concurrency = Runtime.getRuntime().availableProcessors();
+        private MetadataCache metadataCache;
+
+        /**
+         * Set the interval between entries in the index.
+         *
+         * <p>Playback from a seek time decodes and discards up to one interval of audio, so a shorter
+         * interval starts faster, at the cost of a larger index. The default is one second.</p>
+         *
+         * @param interval interval between entries.
+         * @return builder for chaining.
+         */
+        public Builder interval(Duration interval) {
+            this.interval = interval;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of files to index at the same time.
+         *
+         * <p>The default is the number of available processors.</p>
+         *
+         * @param concurrency maximum number of files.
+         * @return builder for chaining.
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * Set the cache used to store indexes.
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Build the indexer with the parameters that have been set.
+         *
+         * @return new indexer.
+         */
+        public SeekIndexer build() {
+            if (interval == null || interval.toMillis() < 1) {
+                throw new IllegalArgumentException("Interval must be at least one millisecond.");
+            }
+            if (concurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be at least 1.");
+            }
+            return new SeekIndexer(this);
+        }
+    }
+
+    private SeekIndexer(Builder builder) {
+        this.intervalMillis = builder.interval.toMillis();
+        this.concurrency = builder.concurrency;
+        this.metadataCache = builder.metadataCache;
+    }
+
+    /**
+     * Index a media file, using the cache if one has been set.
+     *
+     * @param media the path to a local MP3 or FLAC file.
+     * @return the index.
+     * @throws IOException if the file cannot be read, or is not an MP3 or FLAC file.
+     */
+    public SeekIndex index(String media) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        if (metadataCache != null) {
+            SeekIndex cached = metadataCache.getSeekIndex(media);
+            if (cached != null && cached.getInterval().toMillis() == intervalMillis) {
+                return cached;
+            }
+        }
+        SeekIndex index = scan(Paths.get(media), intervalMillis);
+        if (metadataCache != null) {
+            metadataCache.putSeekIndex(media, index);
+        }
+        return index;
+    }
+
+    /**
+     * Index many media files in parallel.
+     *
+     * <p>Files that cannot be indexed are logged and left out of the result.</p>
+     *
+     * @param media the paths to the media.
+     * @return map of media to index, in the same order as the input.
+     * @throws InterruptedException if interrupted while waiting for the results.
+     */
+    public Map<String, SeekIndex> indexAll(Collection<String> media) throws InterruptedException {
+        ExecutorService executor = ThreadSupport.newExecutor("pressplay-seek-index", Math.min(concurrency, Math.max(1, media.size())));
+        try {
+            List<String> keys = new ArrayList<>();
+            List<Future<SeekIndex>> futures = new ArrayList<>();
+            for (String item : media) {
+                keys.add(item);
+                futures.add(executor.submit(() -> index(item)));
+            }
+            Map<String, SeekIndex> results = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                try {
+                    results.put(keys.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    logger.warn("Unable to index {}", keys.get(i), e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /* Map the file and scan the frames. */
+    static SeekIndex scan(Path file, long intervalMillis) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to index: " + file);
+            }
+            // taken before scanning, so a change made while scanning makes the index stale
+            MetadataCache.FileStamp stamp = new MetadataCache.FileStamp(size, Files.getLastModifiedTime(file).toMillis());
+            long[] range = ContentHasher.payloadRange(channel);
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int start = id3v2Size(buffer);
+            SeekIndex index = isFlac(buffer, start)
+                    ? scanFlac(buffer, start, (int) range[1], intervalMillis, stamp)
+                    : scanMp3(buffer, (int) range[0], (int) range[1], intervalMillis, stamp);
+            if (index == null) {
+                throw new IOException("No MP3 or FLAC frames found in " + file);
+            }
+            logger.debug("Indexed {}: {}", file, index);
+            return index;
+        }
+    }
+
+    /*
+     * Walk the MP3 frames. Each entry points far enough before its frame that the decoder has the
+     * bit reservoir for that frame and the frame before it, since the output of each frame overlaps
+     * the frame before it.
+     */
+    static SeekIndex scanMp3(ByteBuffer buffer, int start, int end, long intervalMillis, MetadataCache.FileStamp stamp) {
+        int position = findMp3Sync(buffer, start, end, 0);
+        if (position < 0) {
+            return null;
+        }
+        int fixedBits = mp3FixedBits(buffer, position);
+        int sampleRate = mp3SampleRate(buffer, position);
+        int samplesPerFrame = mp3SamplesPerFrame(buffer, position);
+        if (isMp3InfoFrame(buffer, position)) {
+            position += mp3FrameLength(buffer, position);
+        }
+        long intervalSamples = Math.max(1, intervalMillis * sampleRate / 1000);
+        Entries entries = new Entries();
+        long[] historyOffsets = new long[MP3_HISTORY];
+        long[] historySamples = new long[MP3_HISTORY];
+        int frames = 0;
+        long total = 0;
+        long nextEntry = 0;
+        while (position + 4 <= end) {
+            int length = mp3FrameLength(buffer, position);
+            if (length == 0 || mp3FixedBits(buffer, position) != fixedBits) {
+                int next = findMp3Sync(buffer, position + 1, end, fixedBits);
+                if (next < 0) {
+                    break;
+                }
+                logger.debug("Skipped {} bytes of invalid MP3 data at {}", next - position, position);
+                position = next;
+                continue;
+            }
+            if (position + length > end) {
+                break;
+            }
+            historyOffsets[frames % MP3_HISTORY] = position;
+            historySamples[frames % MP3_HISTORY] = total;
+            if (total >= nextEntry) {
+                // go back to a frame that starts a reservoir before the previous frame
+                long previous = frames == 0 ? position : historyOffsets[(frames - 1) % MP3_HISTORY];
+                int back = 0;
+                while (back < Math.min(frames, MP3_HISTORY - 1)
+                        && historyOffsets[(frames - back) % MP3_HISTORY] > previous - MP3_RESERVOIR_SIZE) {
+                    back++;
+                }
+                entries.add(historySamples[(frames - back) % MP3_HISTORY], historyOffsets[(frames - back) % MP3_HISTORY]);
+                while (nextEntry <= total) {
+                    nextEntry += intervalSamples;
+                }
+            }
+            frames++;
+            total += samplesPerFrame;
+            position += length;
+        }
+        if (frames == 0) {
+            return null;
+        }
+        return entries.toIndex(SeekIndex.Type.MP3, sampleRate, intervalMillis, stamp, total, new byte[0]);
+    }
+
+    /*
+     * Find the FLAC frames after the metadata blocks. Frames have no length field, so each one is
+     * found by its sync code, and checked with the CRC-8 of its header. About one in 40MB of audio
+     * data also passes that check, so after the first frame only a header that starts at the
+     * expected sample is accepted, and the smallest possible frame is skipped after each one.
+     * If a frame is damaged, no header starts at the expected sample, so once the scan is further
+     * past the last frame than the largest frame can be, any later sample is accepted.
+     */
+    static SeekIndex scanFlac(ByteBuffer buffer, int start, int end, long intervalMillis, MetadataCache.FileStamp stamp) {
+        int position = start + 4;
+        byte[] streamInfo = null;
+        boolean last = false;
+        while (!last && position + 4 <= end) {
+            int header = buffer.getInt(position);
+            last = (header & 0x80000000) != 0;
+            int length = header & 0xFFFFFF;
+            if ((header >>> 24 & 0x7F) == 0 && length >= FLAC_STREAMINFO_SIZE && position + 4 + length <= end) {
+                streamInfo = new byte[FLAC_STREAMINFO_SIZE];
+                for (int i = 0; i < FLAC_STREAMINFO_SIZE; i++) {
+                    streamInfo[i] = buffer.get(position + 4 + i);
+                }
+            }
+            position += 4 + length;
+        }
+        if (streamInfo == null) {
+            return null;
+        }
+        int blockSize = (streamInfo[2] & 0xFF) << 8 | (streamInfo[3] & 0xFF);
+        int minFrameSize = Math.max(FLAC_MIN_FRAME_SIZE,
+                (streamInfo[4] & 0xFF) << 16 | (streamInfo[5] & 0xFF) << 8 | (streamInfo[6] & 0xFF));
+        int maxFrameSize = (streamInfo[7] & 0xFF) << 16 | (streamInfo[8] & 0xFF) << 8 | (streamInfo[9] & 0xFF);
+        int sampleRate = (streamInfo[10] & 0xFF) << 12 | (streamInfo[11] & 0xFF) << 4 | (streamInfo[12] & 0xF0) >> 4;
+        if (sampleRate == 0 || blockSize == 0) {
+            return null;
+        }
+        if (maxFrameSize == 0) {
+            // unknown, so use the size of an unencoded frame, with a side channel that has one more bit
+            int channels = (streamInfo[12] >> 1 & 0x7) + 1;
+            int bitsPerSample = ((streamInfo[12] & 1) << 4 | (streamInfo[13] & 0xF0) >> 4) + 1;
+            maxFrameSize = FLAC_FRAME_OVERHEAD + blockSize * channels * (bitsPerSample + 1) / 8;
+        }
+        long intervalSamples = Math.max(1, intervalMillis * sampleRate / 1000);
+        Entries entries = new Entries();
+        long expected = -1;
+        long nextEntry = 0;
+        long[] frame = new long[2];
+        int lastFrame = position;
+        for (; position + 6 <= end; position++) {
+            if ((buffer.get(position) & 0xFF) != 0xFF || (buffer.get(position + 1) & 0xFE) != 0xF8
+                    || !readFlacFrameHeader(buffer, position, end, blockSize, frame)) {
+                continue;
+            }
+            if (expected != -1 && frame[0] != expected) {
+                if (frame[0] < expected || position - lastFrame <= maxFrameSize) {
+                    continue;
+                }
+                logger.debug("No FLAC frame at sample {}, resuming at sample {} at offset {}",
+                        expected, frame[0], position);
+            }
+            lastFrame = position;
+            if (frame[0] >= nextEntry) {
+                entries.add(frame[0], position);
+                while (nextEntry <= frame[0]) {
+                    nextEntry += intervalSamples;
+                }
+            }
+            expected = frame[0] + frame[1];
+            position += minFrameSize - 1;
+        }
+        if (entries.size == 0) {
+            return null;
+        }
+        // a stream that is decoded from the middle needs only the stream info
+        byte[] header = new byte[8 + FLAC_STREAMINFO_SIZE];
+        header[0] = 'f';
+        header[1] = 'L';
+        header[2] = 'a';
+        header[3] = 'C';
+        header[4] = (byte) 0x80;
+        header[7] = FLAC_STREAMINFO_SIZE;
+        System.arraycopy(streamInfo, 0, header, 8, FLAC_STREAMINFO_SIZE);
+        return entries.toIndex(SeekIndex.Type.FLAC, sampleRate, intervalMillis, stamp, expected, header);
+    }
+
+    /*
+     * Parse a FLAC frame header, storing the sample number and block size of the frame.
+     * Returns false if the header is invalid.
+     */
+    static boolean readFlacFrameHeader(ByteBuffer buffer, int position, int end, int streamBlockSize, long[] frame) {
+        boolean variable = (buffer.get(position + 1) & 1) != 0;
+        int b2 = buffer.get(position + 2) & 0xFF;
+        int b3 = buffer.get(position + 3) & 0xFF;
+        int blockCode = b2 >> 4;
+        int rateCode = b2 & 0xF;
+        if (blockCode == 0 || rateCode == 0xF || b3 >> 4 > 10 || (b3 >> 1 & 7) == 3 || (b3 & 1) != 0) {
+            return false;
+        }
+        int index = position + 4;
+        int first = buffer.get(index++) & 0xFF;
+        int extra;
+        long number;
+        if (first < 0x80) {
+            extra = 0;
+            number = first;
+        } else if (first >= 0xC0 && first <= 0xFE) {
+            extra = Integer.numberOfLeadingZeros(~first << 24) - 1;
+            number = first & (0x3F >> extra);
+        } else {
+            return false;
+        }
+        if (index + extra + 3 > end) {
+            return false;
+        }
+        for (int i = 0; i < extra; i++) {
+            int b = buffer.get(index++) & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                return false;
+            }
+            number = number << 6 | (b & 0x3F);
+        }
+        int blockSize;
+        if (blockCode == 1) {
+            blockSize = 192;
+        } else if (blockCode <= 5) {
+            blockSize = 576 << (blockCode - 2);
+        } else if (blockCode == 6) {
+            blockSize = (buffer.get(index++) & 0xFF) + 1;
+        } else if (blockCode == 7) {
+            blockSize = ((buffer.get(index) & 0xFF) << 8 | (buffer.get(index + 1) & 0xFF)) + 1;
+            index += 2;
+        } else {
+            blockSize = 256 << (blockCode - 8);
+        }
+        if (rateCode == 12) {
+            index++;
+        } else if (rateCode == 13 || rateCode == 14) {
+            index += 2;
+        }
+        if (index >= end || crc8(buffer, position, index) != (buffer.get(index) & 0xFF)) {
+            return false;
+        }
+        frame[0] = variable ? number : number * streamBlockSize;
+        frame[1] = blockSize;
+        return true;
+    }
+
+    /* CRC-8 with polynomial x^8 + x^2 + x + 1, as used by FLAC frame headers. */
+    static int crc8(ByteBuffer buffer, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc ^= buffer.get(i) & 0xFF;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1 ^ 0x07) & 0xFF : crc << 1 & 0xFF;
+            }
+        }
+        return crc;
+    }
+
+    /* Find a frame that is followed by another frame of the same stream, or by the end of the data. */
+    private static int findMp3Sync(ByteBuffer buffer, int from, int end, int fixedBits) {
+        for (int position = from; position + 4 <= end; position++) {
+            int length = mp3FrameLength(buffer, position);
+            if (length == 0 || (fixedBits != 0 && mp3FixedBits(buffer, position) != fixedBits)) {
+                continue;
+            }
+            int next = position + length;
+            if (next == end || (next + 4 <= end && mp3FrameLength(buffer, next) != 0
+                    && mp3FixedBits(buffer, next) == mp3FixedBits(buffer, position))) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /* Length of the frame at the position, or zero if there is no valid frame header there. */
+    static int mp3FrameLength(ByteBuffer buffer, int position) {
+        int b0 = buffer.get(position) & 0xFF;
+        int b1 = buffer.get(position + 1) & 0xFF;
+        int b2 = buffer.get(position + 2) & 0xFF;
+        int version = b1 >> 3 & 3;
+        int layer = b1 >> 1 & 3;
+        int bitrateIndex = b2 >> 4;
+        int rateIndex = b2 >> 2 & 3;
+        if (b0 != 0xFF || (b1 & 0xE0) != 0xE0 || version == 1 || layer == 0
+                || bitrateIndex == 0 || bitrateIndex == 15 || rateIndex == 3) {
+            return 0;
+        }
+        boolean mpeg1 = version == 3;
+        int table = mpeg1 ? 3 - layer : (layer == 3 ? 3 : 4);
+        int bitrate = MP3_BITRATES[table][bitrateIndex] * 1000;
+        int sampleRate = mp3SampleRate(buffer, position);
+        int padding = b2 >> 1 & 1;
+        if (layer == 3) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        return (layer == 1 && !mpeg1 ? 72 : 144) * bitrate / sampleRate + padding;
+    }
+
+    private static int mp3SampleRate(ByteBuffer buffer, int position) {
+        int version = buffer.get(position + 1) >> 3 & 3;
+        int rate = MP3_SAMPLE_RATES[buffer.get(position + 2) >> 2 & 3];
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    private static int mp3SamplesPerFrame(ByteBuffer buffer, int position) {
+        int version = buffer.get(position + 1) >> 3 & 3;
+        int layer = buffer.get(position + 1) >> 1 & 3;
+        if (layer == 3) {
+            return 384;
+        }
+        return layer == 1 && version != 3 ? 576 : 1152;
+    }
+
+    /* Version, layer and sample rate, which do not change within a stream. */
+    private static int mp3FixedBits(ByteBuffer buffer, int position) {
+        return (buffer.get(position + 1) & 0x1E) << 8 | (buffer.get(position + 2) & 0x0C);
+    }
+
+    /* The first frame of a VBR file may hold a Xing, Info or VBRI header instead of audio. */
+    private static boolean isMp3InfoFrame(ByteBuffer buffer, int position) {
+        boolean mpeg1 = (buffer.get(position + 1) >> 3 & 3) == 3;
+        boolean mono = (buffer.get(position + 3) & 0xC0) == 0xC0;
+        int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+        return hasTag(buffer, position + 4 + sideInfo, "Xing") || hasTag(buffer, position + 4 + sideInfo, "Info")
+                || hasTag(buffer, position + 36, "VBRI");
+    }
+
+    private static boolean hasTag(ByteBuffer buffer, int position, String tag) {
+        if (position + tag.length() > buffer.limit()) {
+            return false;
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            if (buffer.get(position + i) != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isFlac(ByteBuffer buffer, int position) {
+        return hasTag(buffer, position, "fLaC");
+    }
+
+    private static int id3v2Size(ByteBuffer buffer) {
+        if (!hasTag(buffer, 0, "ID3") || buffer.limit() < 10) {
+            return 0;
+        }
+        int size = 0;
+        for (int i = 6; i < 10; i++) {
+            size = size << 7 | (buffer.get(i) & 0x7F);
+        }
+        return Math.min(buffer.limit(), 10 + size + ((buffer.get(5) & 0x10) != 0 ? 10 : 0));
+    }
+
+    /* Growable arrays of entries. */
+    private static final class Entries {
+        private long[] samples = new long[256];
+        private long[] offsets = new long[256];
+        private int size;
+
+        void add(long sample, long offset) {
+            if (size > 0 && offset <= offsets[size - 1]) {
+                return;
+            }
+            if (size == offsets.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            samples[size] = sample;
+            offsets[size] = offset;
+            size++;
+        }
+
+        SeekIndex toIndex(SeekIndex.Type type, int sampleRate, long intervalMillis, MetadataCache.FileStamp stamp,
+                          long totalSamples, byte[] header) {
+            return new SeekIndex(type, sampleRate, intervalMillis, stamp, totalSamples,
+                    Arrays.copyOf(samples, size), Arrays.copyOf(offsets, size), header);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/*
+ * The global settings behind the static methods of PressPlay.
+ *
+ * Library classes read the settings from here, so that using them does not initialize PressPlay
+ * and the deprecated tool paths it computes.
+ */
+final class Settings {
+    private static final String DIAGNOSTICS_SIZE_PROPERTY = "pressplay.diagnostics.size";
+    private static final String EXECUTION_MODE_PROPERTY = "pressplay.execution.mode";
+
+    private static volatile int diagnosticBufferSize = Integer.getInteger(DIAGNOSTICS_SIZE_PROPERTY, 0);
+    private static volatile Consumer<ProcessFailure> failureListener;
+    private static volatile ExecutionMode executionMode = parseExecutionMode(System.getProperty(EXECUTION_MODE_PROPERTY));
+
+    private Settings() {
+    }
+
+    static void setDiagnosticBufferSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Size cannot be negative.");
+        }
+        diagnosticBufferSize = size;
+    }
+
+    static int getDiagnosticBufferSize() {
+        return diagnosticBufferSize;
+    }
+
+    static void setFailureListener(Consumer<ProcessFailure> listener) {
+        failureListener = listener;
+    }
+
+    static void setExecutionMode(ExecutionMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Mode cannot be null.");
+        }
+        executionMode = mode;
+    }
+
+    static ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    static ExecutionMode parseExecutionMode(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return ExecutionMode.PLATFORM;
+        }
+        try {
+            return ExecutionMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LogManager.getLogger().warn("Unknown execution mode '{}', using {}", value, ExecutionMode.PLATFORM);
+            return ExecutionMode.PLATFORM;
+        }
+    }
+
+    /* Log the failure and pass it to the listener. */
+    static void reportFailure(ProcessFailure failure, Consumer<ProcessFailure> listener) {
+        LogManager.getLogger().warn("{}", failure, failure.getCause());
+        Consumer<ProcessFailure> target = listener == null ? failureListener : listener;
+        if (target != null) {
+            try {
+                target.accept(failure);
+            } catch (RuntimeException e) {
+                LogManager.getLogger().warn("Error in failure listener.", e);
+            }
+        }
+    }
+}
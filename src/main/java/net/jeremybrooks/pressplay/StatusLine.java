@@ -0,0 +1,143 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Parses the status lines that ffplay writes to stderr when it is run with {@code -stats}.
+ *
+ * <p>Status lines are terminated with a carriage return, and start with the master clock
+ * in seconds, for example {@code "  12.34 M-A:  0.000 fd=   0 aq=   24KB vq=    0KB sq=    0B"}.
+ * Each new clock value is passed to the clock listener. Any other output, such as warnings,
+ * is passed on to the next sink, so status lines do not flood the diagnostic buffer.</p>
+ */
+class StatusLine implements OutputSink {
+    private static final int MAX_LINE_LENGTH = 256;
+
+    private final DoubleConsumer clockListener;
+    private final OutputSink next;
+    private final byte[] line = new byte[MAX_LINE_LENGTH];
+    private int length;
+    private boolean overflow;
+    private volatile double clock = Double.NaN;
+
+    /**
+     * Create a parser.
+     *
+     * @param clockListener called with each new clock value, may be null.
+     * @param next sink for output that is not a status line, may be null.
+     */
+    StatusLine(DoubleConsumer clockListener, OutputSink next) {
+        this.clockListener = clockListener;
+        this.next = next;
+    }
+
+    @Override
+    public void accept(byte[] bytes, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            byte b = bytes[i];
+            if (b == '\r' || b == '\n') {
+                endLine(b);
+            } else {
+                if (length == MAX_LINE_LENGTH) {
+                    // too long to be a status line
+                    forward(line, 0, length);
+                    length = 0;
+                    overflow = true;
+                }
+                line[length++] = b;
+            }
+        }
+    }
+
+    @Override
+    public void closed() {
+        if (length > 0) {
+            endLine((byte) '\n');
+        }
+        if (next != null) {
+            next.closed();
+        }
+    }
+
+    /**
+     * The most recent clock value, in seconds, or NaN if no status line has been seen.
+     */
+    double getClock() {
+        return clock;
+    }
+
+    private void endLine(byte terminator) {
+        double value = overflow ? Double.NaN
+                : parseClock(new String(line, 0, length, StandardCharsets.ISO_8859_1));
+        if (Double.isNaN(value)) {
+            if (length > 0 || overflow) {
+                forward(line, 0, length);
+                forward(new byte[]{terminator}, 0, 1);
+            }
+        } else {
+            clock = value;
+            if (clockListener != null) {
+                clockListener.accept(value);
+            }
+        }
+        length = 0;
+        overflow = false;
+    }
+
+    private void forward(byte[] bytes, int offset, int count) {
+        if (next != null && count > 0) {
+            next.accept(bytes, offset, count);
+        }
+    }
+
+    /**
+     * Parse the master clock from a single status line.
+     *
+     * @return clock in seconds, or NaN if the line is not a status line.
+     */
+    static double parseClock(CharSequence line) {
+        int start = 0;
+        int length = line.length();
+        while (start < length && line.charAt(start) == ' ') {
+            start++;
+        }
+        int end = start;
+        while (end < length && line.charAt(end) != ' ') {
+            end++;
+        }
+        // status lines always have the clock type (M-A, M-V, A-V) after the clock
+        int next = end;
+        while (next < length && line.charAt(next) == ' ') {
+            next++;
+        }
+        if (end == start || next + 3 >= length || line.charAt(next + 1) != '-' || line.charAt(next + 3) != ':') {
+            return Double.NaN;
+        }
+        try {
+            double value = Double.parseDouble(line.subSequence(start, end).toString());
+            return value < 0 ? Double.NaN : value;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
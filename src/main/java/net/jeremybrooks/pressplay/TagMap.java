@@ -0,0 +1,233 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of the tags parsed from media.
+ *
+ * <p>Every tag that ffprobe reports is kept, in the order ffprobe reports them, with the original case
+ * of each key. Like any other map, lookups use the exact key, so that this map is equal to any other
+ * map with the same entries. The case of tag names depends on the container; for example, FLAC files
+ * usually have {@code ARTIST} where MP3 files have {@code artist}. To look up a tag ignoring the case,
+ * use {@link MediaMetadata#getTag(String)}.</p>
+ *
+ * <p>The tags are stored in two arrays, without any per-entry objects, and the keys are interned
+ * so that a library of millions of files holds a single copy of each tag name.</p>
+ */
+public final class TagMap extends AbstractMap<String, String> {
+
+    static final TagMap EMPTY = new TagMap(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+
+    private TagMap(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /* Create a map from parallel lists of keys and values. Entries with a null key or value are dropped. */
+    static TagMap of(List<String> keys, List<String> values) {
+        int count = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i) != null && values.get(i) != null) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        String[] k = new String[count];
+        String[] v = new String[count];
+        int j = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (keys.get(i) != null && values.get(i) != null) {
+                k[j] = intern(keys.get(i));
+                v[j] = values.get(i);
+                j++;
+            }
+        }
+        return new TagMap(k, v);
+    }
+
+    /*
+     * Use the JVM string pool, which also holds the string literals, so a key from ffprobe is
+     * the same instance as the literal a getter looks it up with. There are only a few hundred
+     * distinct names in practice.
+     */
+    static String intern(String key) {
+        return key.intern();
+    }
+
+    /**
+     * Get the value of a tag.
+     *
+     * @param key the tag name, in the case the media has it.
+     * @return value of the tag, or null if the media does not have the tag.
+     */
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index == -1 ? null : values[index];
+    }
+
+    /**
+     * Check if the media has a tag.
+     *
+     * @param key the tag name, in the case the media has it.
+     * @return true if the media has the tag.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    /*
+     * Get the value of a tag, ignoring the case of the key. If the media has more than one tag
+     * with the same name in different cases, the first one is returned.
+     */
+    String getIgnoreCase(String key) {
+        int index = indexOf(key);
+        if (index != -1) {
+            return values[index];
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equalsIgnoreCase(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(keys[next], values[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    /* Keys are interned, so a lookup with a literal usually matches on the first comparison. */
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Reads and writes the map as a JSON object. Values that are not strings are read as strings.
+     * Gson prefers its own Map adapter over a JsonAdapter on a Map class, so this is set on the field.
+     */
+    static final class Adapter extends TypeAdapter<TagMap> {
+        @Override
+        public void write(JsonWriter out, TagMap tags) throws IOException {
+            if (tags == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            for (int i = 0; i < tags.keys.length; i++) {
+                out.name(tags.keys[i]).value(tags.values[i]);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public TagMap read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            in.beginObject();
+            while (in.hasNext()) {
+                String key = in.nextName();
+                JsonToken token = in.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    keys.add(key);
+                    values.add(in.nextString());
+                } else if (token == JsonToken.BOOLEAN) {
+                    keys.add(key);
+                    values.add(Boolean.toString(in.nextBoolean()));
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return of(keys, values);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Creates the threads that wait for processes and run batch work.
+ *
+ * This is the Java 11 version, which always uses platform threads. The multi-release jar
+ * contains a Java 21 version in META-INF/versions/21, built from src/main/java21, which uses
+ * virtual threads when the execution mode is VIRTUAL. Both versions must have the same
+ * package-private API.
+ */
+final class ThreadSupport {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final AtomicBoolean warned = new AtomicBoolean();
+    private static final long IDLE_SECONDS = 30;
+
+    private ThreadSupport() {
+    }
+
+    static boolean isVirtualThreadSupported() {
+        return false;
+    }
+
+    /*
+     * Create an unstarted thread for work that spends most of its time blocked.
+     * Virtual threads are always daemon threads.
+     */
+    static Thread newThread(String name, boolean daemon, Runnable task) {
+        warnIfVirtualRequested();
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(daemon);
+        return thread;
+    }
+
+    /* Wait for a process to exit, and return its exit value. */
+    static int waitFor(Process process) throws InterruptedException {
+        return process.waitFor();
+    }
+
+    /* Wait for up to the given time for a process to exit, returning false if it is still running. */
+    static boolean waitFor(Process process, long timeout, TimeUnit unit) throws InterruptedException {
+        return process.waitFor(timeout, unit);
+    }
+
+    /*
+     * Create an executor that runs at most concurrency tasks at the same time. Idle threads exit,
+     * so an executor that lives as long as its owner, and is never shut down, costs nothing while
+     * it has no work.
+     */
+    static ExecutorService newExecutor(String name, int concurrency) {
+        warnIfVirtualRequested();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency,
+                IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadFactory daemonFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void warnIfVirtualRequested() {
+        if (Settings.getExecutionMode() == ExecutionMode.VIRTUAL && warned.compareAndSet(false, true)) {
+            logger.warn("Virtual threads require Java 21 or later, using platform threads.");
+        }
+    }
+}
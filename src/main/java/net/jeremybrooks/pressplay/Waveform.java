@@ -0,0 +1,241 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+/**
+ * Waveform peaks read from a peaks file created by {@link WaveformGenerator}.
+ *
+ * <p>The peaks file holds the minimum and maximum sample value for each block of samples, plus a
+ * series of zoom levels where each level has half as many peaks as the level below it. The file is
+ * memory mapped, and each request is served from the coarsest level that still has at least one
+ * peak per output bucket, so drawing a whole track at any width reads only a few thousand values.</p>
+ * <pre>
+ * {@code
+ *   try (Waveform waveform = Waveform.open(peaksFile)) {
+ *     short[] peaks = waveform.getPeaks(800);
+ *     // peaks[2 * i] is the minimum and peaks[2 * i + 1] is the maximum of column i
+ *   }
+ * }
+ * </pre>
+ */
+public class Waveform implements Closeable {
+
+    static final byte[] MAGIC = {'P', 'P', 'W', 'F'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int PEAK_SIZE = 2 * Short.BYTES;
+    /* Each level halves the peaks, so no count that fits in a long needs more levels. */
+    static final int MAX_LEVELS = 64;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int sampleRate;
+    private final int samplesPerPeak;
+    private final long[] levelOffsets;
+    private final long[] levelCounts;
+
+    private Waveform(FileChannel channel, MappedByteBuffer buffer, int sampleRate, int samplesPerPeak,
+                     long[] levelOffsets, long[] levelCounts) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.sampleRate = sampleRate;
+        this.samplesPerPeak = samplesPerPeak;
+        this.levelOffsets = levelOffsets;
+        this.levelCounts = levelCounts;
+    }
+
+    /**
+     * Open a peaks file.
+     *
+     * @param file the peaks file.
+     * @return waveform backed by the file.
+     * @throws IOException if the file cannot be read, or is not a peaks file.
+     */
+    public static Waveform open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a peaks file: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (byte b : MAGIC) {
+                if (buffer.get() != b) {
+                    throw new IOException("Not a peaks file: " + file);
+                }
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported peaks file version " + version);
+            }
+            int sampleRate = buffer.getInt();
+            int samplesPerPeak = buffer.getInt();
+            long baseCount = buffer.getLong();
+            int levels = buffer.getInt();
+            // check the counts before allocating anything from them
+            if (levels <= 0 || levels > MAX_LEVELS || baseCount < 0
+                    || baseCount > (channel.size() - HEADER_SIZE) / PEAK_SIZE) {
+                throw new IOException("Peaks file is truncated or invalid: " + file);
+            }
+            long[] counts = levelCounts(baseCount, levels);
+            long[] offsets = new long[levels];
+            long offset = HEADER_SIZE;
+            for (int i = 0; i < levels; i++) {
+                offsets[i] = offset;
+                offset += counts[i] * PEAK_SIZE;
+            }
+            if (offset > channel.size() || sampleRate <= 0 || samplesPerPeak <= 0) {
+                throw new IOException("Peaks file is truncated or invalid: " + file);
+            }
+            return new Waveform(channel, buffer, sampleRate, samplesPerPeak, offsets, counts);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of peaks at full resolution.
+     *
+     * @return number of peaks.
+     */
+    public long getPeakCount() {
+        return levelCounts.length == 0 ? 0 : levelCounts[0];
+    }
+
+    /**
+     * Get the length of audio covered by each peak at full resolution.
+     *
+     * @return duration of one peak.
+     */
+    public Duration getPeakDuration() {
+        return Duration.ofNanos(samplesPerPeak * 1_000_000_000L / sampleRate);
+    }
+
+    /**
+     * Get the duration of the waveform.
+     *
+     * @return duration of the audio the peaks were generated from.
+     */
+    public Duration getDuration() {
+        return Duration.ofNanos((long) (getPeakCount() * (double) samplesPerPeak * 1_000_000_000L / sampleRate));
+    }
+
+    /**
+     * Get the peaks for the whole waveform.
+     *
+     * @param width number of columns to return.
+     * @return array of 2 * width values; the minimum and maximum of each column.
+     */
+    public short[] getPeaks(int width) {
+        return getPeaks(0, getPeakCount(), width);
+    }
+
+    /**
+     * Get the peaks for part of the waveform, for example when zoomed in.
+     *
+     * @param start start of the range.
+     * @param end end of the range.
+     * @param width number of columns to return.
+     * @return array of 2 * width values; the minimum and maximum of each column.
+     */
+    public short[] getPeaks(Duration start, Duration end, int width) {
+        return getPeaks(toPeakIndex(start), toPeakIndex(end), width);
+    }
+
+    /**
+     * Close the peaks file.
+     *
+     * @throws IOException if there are errors closing the file.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long toPeakIndex(Duration time) {
+        long index = (long) (time.toNanos() / 1_000_000_000.0 * sampleRate / samplesPerPeak);
+        return Math.max(0, Math.min(index, getPeakCount()));
+    }
+
+    private short[] getPeaks(long from, long to, int width) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("Width must be greater than zero.");
+        }
+        short[] result = new short[width * 2];
+        long range = to - from;
+        if (range <= 0) {
+            return result;
+        }
+        // use the coarsest level that still has at least one peak per column
+        int level = 0;
+        while (level + 1 < levelCounts.length && (range >> (level + 1)) >= width) {
+            level++;
+        }
+        for (int column = 0; column < width; column++) {
+            long first = from + range * column / width;
+            long last = Math.max(first + 1, from + range * (column + 1) / width);
+            long levelFirst = first >> level;
+            long levelLast = Math.min(levelCounts[level], (last + (1L << level) - 1) >> level);
+            short min = Short.MAX_VALUE;
+            short max = Short.MIN_VALUE;
+            for (long i = levelFirst; i < levelLast; i++) {
+                int position = (int) (levelOffsets[level] + i * PEAK_SIZE);
+                min = (short) Math.min(min, buffer.getShort(position));
+                max = (short) Math.max(max, buffer.getShort(position + Short.BYTES));
+            }
+            if (min > max) {
+                min = 0;
+                max = 0;
+            }
+            result[column * 2] = min;
+            result[column * 2 + 1] = max;
+        }
+        return result;
+    }
+
+    /* Each level has half as many peaks as the level below it. */
+    static long[] levelCounts(long baseCount, int levels) {
+        long[] counts = new long[levels];
+        long count = baseCount;
+        for (int i = 0; i < levels; i++) {
+            counts[i] = count;
+            count = (count + 1) / 2;
+        }
+        return counts;
+    }
+
+    /* Number of levels needed to reduce the base level to a single peak. */
+    static int levelsFor(long baseCount) {
+        int levels = 1;
+        while (baseCount > 1) {
+            baseCount = (baseCount + 1) / 2;
+            levels++;
+        }
+        return levels;
+    }
+}
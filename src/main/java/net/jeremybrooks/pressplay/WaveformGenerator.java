@@ -0,0 +1,348 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Generates waveform peaks files for media.
+ *
+ * <p>The media is decoded by ffmpeg to mono 16 bit PCM, and the samples are reduced to the minimum
+ * and maximum value of each block of samples in a single streaming pass, so memory use does not
+ * depend on the length of the media. The peaks are written to a file that is sized up front from
+ * the duration in the MediaMetadata, and can then be memory mapped and read with {@link Waveform}.</p>
+ * <pre>
+ * {@code
+ *   WaveformGenerator generator = new WaveformGenerator.Builder()
+ *           .metadataCache(cache)
+ *           .build();
+ *   Waveform waveform = generator.generate("/music/track.flac", Paths.get("/var/peaks/track.ppwf"));
+ * }
+ * </pre>
+ */
+public class WaveformGenerator {
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int sampleRate;
+    private final int samplesPerPeak;
+    private final MetadataCache metadataCache;
+
+    /**
+     * Builder to create an instance of WaveformGenerator.
+     */
+    public static class Builder {
+        private int sampleRate = 8000;
+        private int samplesPerPeak = 256;
+        private MetadataCache metadataCache;
+
+        /**
+         * Set the sample rate the media is decoded at.
+         *
+         * <p>Lower rates decode faster. The default of 8000Hz is plenty for drawing a waveform.</p>
+         *
+         * @param sampleRate sample rate in Hz.
+         * @return builder for chaining.
+         */
+        public Builder sampleRate(int sampleRate) {
+            this.sampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * Set the number of samples in each peak at full resolution.
+         *
+         * <p>The default is 256, which at the default sample rate is about 31 peaks per second.</p>
+         *
+         * @param samplesPerPeak number of samples per peak.
+         * @return builder for chaining.
+         */
+        public Builder samplesPerPeak(int samplesPerPeak) {
+            this.samplesPerPeak = samplesPerPeak;
+            return this;
+        }
+
+        /**
+         * Set the cache used to look up the duration of the media.
+         *
+         * @param metadataCache the cache.
+         * @return builder for chaining.
+         */
+        public Builder metadataCache(MetadataCache metadataCache) {
+            this.metadataCache = metadataCache;
+            return this;
+        }
+
+        /**
+         * Build the generator with the parameters that have been set.
+         *
+         * @return new generator.
+         */
+        public WaveformGenerator build() {
+            if (sampleRate <= 0 || samplesPerPeak <= 0) {
+                throw new IllegalArgumentException("Sample rate and samples per peak must be greater than zero.");
+            }
+            return new WaveformGenerator(this);
+        }
+    }
+
+    private WaveformGenerator(Builder builder) {
+        this.sampleRate = builder.sampleRate;
+        this.samplesPerPeak = builder.samplesPerPeak;
+        this.metadataCache = builder.metadataCache;
+    }
+
+    /**
+     * Generate a peaks file for media.
+     *
+     * <p>The file is written to a temporary file next to the target, which replaces the
+     * target when it is complete.</p>
+     *
+     * @param media the path to the media.
+     * @param peaksFile the peaks file to write.
+     * @return waveform backed by the new peaks file.
+     * @throws IOException if the media cannot be decoded or the file cannot be written.
+     */
+    public Waveform generate(String media, Path peaksFile) throws IOException {
+        if (media == null || media.trim().isEmpty()) {
+            throw new IllegalArgumentException("Media cannot be null or empty.");
+        }
+        MediaMetadata metadata = metadataCache == null
+                ? FFProbe.getMediaMetadata(media) : metadataCache.getMediaMetadata(media);
+        long durationMillis = metadata == null ? 0 : metadata.getDuration().toMillis();
+        long expectedPeaks = durationMillis * sampleRate / 1000 / samplesPerPeak + 1;
+
+        logger.debug("Generating waveform for {} with about {} peaks", media, expectedPeaks);
+        ProcessBuilder processBuilder = new ProcessBuilder(
+                FFmpegTools.get().requireFFmpeg(),
+                "-v",
+                "quiet",
+                "-nostdin",
+                "-i",
+                media,
+                "-vn",
+                "-ac",
+                "1",
+                "-ar",
+                Integer.toString(sampleRate),
+                "-acodec",
+                "pcm_s16le",
+                "-f",
+                "s16le",
+                "pipe:1")
+                .redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = processBuilder.start();
+        Path temp = Files.createTempFile(peaksFile.toAbsolutePath().getParent(), peaksFile.getFileName().toString(), ".tmp");
+        try {
+            try (InputStream in = process.getInputStream()) {
+                writePeaks(in, temp, expectedPeaks);
+            }
+            int exitCode = ThreadSupport.waitFor(process);
+            if (exitCode != 0) {
+                throw new IOException("ffmpeg exited with " + exitCode + " while decoding " + media);
+            }
+            Files.move(temp, peaksFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating waveform for " + media, ie);
+        } finally {
+            process.destroy();
+            Files.deleteIfExists(temp);
+        }
+        return Waveform.open(peaksFile);
+    }
+
+    /*
+     * Reduce a stream of 16 bit little endian samples to peaks, and write the peaks file.
+     * The file is sized up front for the expected peaks, and grows if the media turns out to be
+     * longer than expected. The file is written through the channel rather than mapped, because
+     * a mapping is only released by the garbage collector, and Windows cannot move a mapped file.
+     */
+    void writePeaks(InputStream pcm, Path file, long expectedPeaks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            PeakAccumulator peaks = new PeakAccumulator(channel, Math.max(1, expectedPeaks));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int carry = -1;
+            int read;
+            while ((read = pcm.read(buffer)) != -1) {
+                int i = 0;
+                if (carry != -1 && read > 0) {
+                    // a sample was split across two reads
+                    peaks.add((short) ((carry & 0xFF) | (buffer[0] << 8)));
+                    carry = -1;
+                    i = 1;
+                }
+                for (; i + 1 < read; i += 2) {
+                    peaks.add((short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8)));
+                }
+                if (i < read) {
+                    carry = buffer[i] & 0xFF;
+                }
+            }
+            writeLevels(channel, peaks.finish());
+        }
+    }
+
+    /* Write the header, and build each zoom level from the level below it. */
+    private void writeLevels(FileChannel channel, long baseCount) throws IOException {
+        int levels = Waveform.levelsFor(baseCount);
+        long[] counts = Waveform.levelCounts(baseCount, levels);
+        long total = 0;
+        for (long count : counts) {
+            total = Math.addExact(total, count);
+        }
+        channel.truncate(peakPosition(total));
+        ByteBuffer header = ByteBuffer.allocate(Waveform.HEADER_SIZE);
+        header.put(Waveform.MAGIC);
+        header.putInt(Waveform.VERSION);
+        header.putInt(sampleRate);
+        header.putInt(samplesPerPeak);
+        header.putLong(baseCount);
+        header.putInt(levels);
+        header.clear();
+        write(channel, header, 0);
+        long source = 0;
+        for (int level = 1; level < levels; level++) {
+            long target = source + counts[level - 1];
+            reduce(channel, source, counts[level - 1], target);
+            source = target;
+        }
+        channel.force(true);
+    }
+
+    /* Write the level starting at peak target, with each peak combining two peaks of the level at source. */
+    private static void reduce(FileChannel channel, long source, long count, long target) throws IOException {
+        // an even number of peaks, so pairs are never split across reads
+        int chunkPeaks = BUFFER_SIZE / Waveform.PEAK_SIZE;
+        ByteBuffer in = ByteBuffer.allocate(chunkPeaks * Waveform.PEAK_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(chunkPeaks / 2 * Waveform.PEAK_SIZE);
+        for (long done = 0; done < count; done += chunkPeaks) {
+            in.clear();
+            in.limit(Math.toIntExact(Math.min(count - done, chunkPeaks) * Waveform.PEAK_SIZE));
+            read(channel, in, peakPosition(source + done));
+            in.flip();
+            out.clear();
+            while (in.hasRemaining()) {
+                short min = in.getShort();
+                short max = in.getShort();
+                if (in.hasRemaining()) {
+                    min = (short) Math.min(min, in.getShort());
+                    max = (short) Math.max(max, in.getShort());
+                }
+                out.putShort(min);
+                out.putShort(max);
+            }
+            out.flip();
+            write(channel, out, peakPosition(target + done / 2));
+        }
+    }
+
+    /* Position in the file of a peak, counting from the first peak of the first level. */
+    private static long peakPosition(long peak) {
+        return Math.addExact(Waveform.HEADER_SIZE, Math.multiplyExact(peak, Waveform.PEAK_SIZE));
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Peaks file is shorter than expected.");
+            }
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /* Collects samples into peaks at full resolution, writing them to the file a buffer at a time. */
+    private final class PeakAccumulator {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long expected;
+        private long count;
+        private long written;
+        private int samples;
+        private short min = Short.MAX_VALUE;
+        private short max = Short.MIN_VALUE;
+
+        private PeakAccumulator(FileChannel channel, long expected) throws IOException {
+            this.channel = channel;
+            this.expected = expected;
+            // size the file up front, so it is not extended a buffer at a time
+            write(channel, ByteBuffer.allocate(1), peakPosition(expected) - 1);
+        }
+
+        private void add(short sample) throws IOException {
+            if (sample < min) {
+                min = sample;
+            }
+            if (sample > max) {
+                max = sample;
+            }
+            if (++samples == samplesPerPeak) {
+                flush();
+            }
+        }
+
+        private long finish() throws IOException {
+            if (samples > 0) {
+                flush();
+            }
+            writeBuffer();
+            return count;
+        }
+
+        private void flush() throws IOException {
+            if (count == expected) {
+                logger.debug("Media is longer than expected, growing peaks file past {} peaks", expected);
+            }
+            if (!buffer.hasRemaining()) {
+                writeBuffer();
+            }
+            buffer.putShort(min);
+            buffer.putShort(max);
+            count++;
+            samples = 0;
+            min = Short.MAX_VALUE;
+            max = Short.MIN_VALUE;
+        }
+
+        private void writeBuffer() throws IOException {
+            buffer.flip();
+            write(channel, buffer, peakPosition(written));
+            written = count;
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Creates the threads that wait for processes and run batch work.
+ *
+ * This is the Java 21 version, which is packaged in META-INF/versions/21 of the multi-release
+ * jar. It uses virtual threads when the execution mode is VIRTUAL, and platform threads
+ * otherwise. Both versions must have the same package-private API.
+ */
+final class ThreadSupport {
+    private static final long IDLE_SECONDS = 30;
+
+    private ThreadSupport() {
+    }
+
+    static boolean isVirtualThreadSupported() {
+        return true;
+    }
+
+    /*
+     * Create an unstarted thread for work that spends most of its time blocked.
+     * Virtual threads are always daemon threads.
+     */
+    static Thread newThread(String name, boolean daemon, Runnable task) {
+        if (Settings.getExecutionMode() == ExecutionMode.VIRTUAL) {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+        return Thread.ofPlatform().name(name).daemon(daemon).unstarted(task);
+    }
+
+    /*
+     * Wait for a process to exit, and return its exit value. Process.waitFor waits on a monitor,
+     * which pins a virtual thread to its carrier, and the scheduler only adds up to 256 carriers
+     * to make up for pinned threads. A virtual thread waits on onExit instead, which parks it.
+     */
+    static int waitFor(Process process) throws InterruptedException {
+        if (!Thread.currentThread().isVirtual()) {
+            return process.waitFor();
+        }
+        try {
+            return process.onExit().get().exitValue();
+        } catch (ExecutionException e) {
+            return process.waitFor();
+        }
+    }
+
+    /* Wait for up to the given time for a process to exit, returning false if it is still running. */
+    static boolean waitFor(Process process, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!Thread.currentThread().isVirtual()) {
+            return process.waitFor(timeout, unit);
+        }
+        try {
+            process.onExit().get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return process.waitFor(timeout, unit);
+        }
+    }
+
+    /*
+     * Create an executor that runs at most concurrency tasks at the same time. With virtual
+     * threads, the limit still applies, since it bounds the number of processes; but the
+     * threads themselves cost almost nothing while they wait. Idle platform threads exit, so an
+     * executor that lives as long as its owner, and is never shut down, costs nothing while it
+     * has no work.
+     */
+    static ExecutorService newExecutor(String name, int concurrency) {
+        ThreadFactory factory;
+        if (Settings.getExecutionMode() == ExecutionMode.VIRTUAL) {
+            factory = Thread.ofVirtual().name(name + "-", 0).factory();
+        } else {
+            AtomicInteger count = new AtomicInteger();
+            factory = task -> Thread.ofPlatform().name(name + "-" + count.getAndIncrement()).daemon(true).unstarted(task);
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency,
+                IDLE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class BroadcastTest {
+
+    @Test
+    public void testListenersReadSameBytes() throws Exception {
+        BroadcastBuffer buffer = new BroadcastBuffer(64 * 1024, 1);
+        Broadcast broadcast = new Broadcast(buffer, new byte[0]);
+        Broadcast.Listener first = broadcast.subscribe();
+        Broadcast.Listener second = broadcast.subscribe();
+        assertEquals(2, broadcast.getListenerCount());
+        write(buffer, 0, 10000);
+        broadcast.stop();
+        for (Broadcast.Listener listener : new Broadcast.Listener[]{first, second}) {
+            byte[] bytes = listener.readAllBytes();
+            assertEquals(10000, bytes.length);
+            for (int i = 0; i < bytes.length; i++) {
+                assertEquals(pattern(i), bytes[i]);
+            }
+            assertEquals(-1, listener.read());
+            assertEquals(0, listener.getDroppedBytes());
+        }
+        first.close();
+        assertEquals(1, broadcast.getListenerCount());
+    }
+
+    @Test
+    public void testSubscribeJoinsLive() {
+        BroadcastBuffer buffer = new BroadcastBuffer(4096, 4);
+        Broadcast broadcast = new Broadcast(buffer, new byte[0]);
+        write(buffer, 0, 1002);
+        assertEquals(1000, broadcast.subscribe().getPosition());
+    }
+
+    @Test
+    public void testSlowListenerSkips() throws Exception {
+        BroadcastBuffer buffer = new BroadcastBuffer(1000, 4);
+        assertEquals(1024, buffer.capacity());
+        Broadcast broadcast = new Broadcast(buffer, new byte[0]);
+        Broadcast.Listener listener = broadcast.subscribe();
+        write(buffer, 0, 5000);
+        byte[] bytes = new byte[100];
+        int read = listener.read(bytes, 0, bytes.length);
+        assertEquals(100, read);
+        assertTrue(listener.getDroppedBytes() > 0);
+        long start = listener.getPosition() - read;
+        assertEquals(0, start % 4);
+        assertEquals(start, listener.getDroppedBytes());
+        for (int i = 0; i < read; i++) {
+            assertEquals(pattern(start + i), bytes[i]);
+        }
+    }
+
+    @Test
+    public void testWavHeader() throws Exception {
+        Broadcast broadcast = new Broadcast(new BroadcastBuffer(4096, 4), Broadcast.wavHeader(48000, 2));
+        Broadcast.Listener listener = broadcast.subscribe();
+        broadcast.stop();
+        ByteBuffer header = ByteBuffer.wrap(listener.readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(44, header.limit());
+        assertEquals('R', header.get(0));
+        assertEquals(2, header.getShort(22));
+        assertEquals(48000, header.getInt(24));
+        assertEquals(192000, header.getInt(28));
+        assertEquals('d', header.get(36));
+    }
+
+    @Test
+    public void testConcurrentReadsAreNeverTorn() throws Exception {
+        BroadcastBuffer buffer = new BroadcastBuffer(4096, 1);
+        Broadcast broadcast = new Broadcast(buffer, new byte[0]);
+        List<Thread> readers = new ArrayList<>();
+        AtomicReference<String> error = new AtomicReference<>();
+        for (int r = 0; r < 3; r++) {
+            Broadcast.Listener listener = broadcast.subscribe();
+            Thread reader = new Thread(() -> {
+                byte[] bytes = new byte[500];
+                try {
+                    int read;
+                    while ((read = listener.read(bytes, 0, bytes.length)) != -1) {
+                        long start = listener.getPosition() - read;
+                        for (int i = 0; i < read; i++) {
+                            if (bytes[i] != pattern(start + i)) {
+                                error.compareAndSet(null, "Wrong byte at " + (start + i));
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    error.compareAndSet(null, e.toString());
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (long position = 0; position < 20_000_000; position += 999) {
+            write(buffer, position, 999);
+        }
+        buffer.finish();
+        for (Thread reader : readers) {
+            reader.join(10_000);
+            assertFalse(reader.isAlive());
+        }
+        assertNull(error.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWavHeaderWithEncoding() {
+        new Broadcast.Builder().media("/music/track.mp3").encode("mp3").wavHeader().build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoMedia() {
+        new Broadcast.Builder().build();
+    }
+
+    private static void write(BroadcastBuffer buffer, long position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = pattern(position + i);
+        }
+        buffer.write(bytes, 0, length);
+    }
+
+    /* A byte that depends on the position, and does not repeat with the size of the buffer. */
+    private static byte pattern(long position) {
+        return (byte) (position ^ position >>> 8 ^ position >>> 16);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ContentHasherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<String> FIXTURES = Arrays.asList(
+            "src/test/resources/test-discs-and-tracks.mp3",
+            "src/test/resources/test-discs-no-tracks.mp3",
+            "src/test/resources/test-notrack-nodisc.mp3",
+            "src/test/resources/test-tracks-no-disc.mp3",
+            "src/test/resources/test-various-artists.mp3");
+
+    private static final byte[] AUDIO = "pretend this is audio".getBytes(StandardCharsets.US_ASCII);
+
+    private Path write(String name, byte[]... parts) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, out.toByteArray());
+        return file;
+    }
+
+    private static byte[] id3v2(int bodySize) {
+        byte[] tag = new byte[10 + bodySize];
+        tag[0] = 'I';
+        tag[1] = 'D';
+        tag[2] = '3';
+        tag[3] = 3;
+        tag[8] = (byte) (bodySize >> 7 & 0x7F);
+        tag[9] = (byte) (bodySize & 0x7F);
+        return tag;
+    }
+
+    private static byte[] id3v1(String title) {
+        byte[] tag = new byte[128];
+        System.arraycopy("TAG".getBytes(StandardCharsets.US_ASCII), 0, tag, 0, 3);
+        byte[] bytes = title.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, tag, 3, bytes.length);
+        return tag;
+    }
+
+    private static byte[] apeTag(int itemBytes) {
+        return apeTag(itemBytes, itemBytes + 32);
+    }
+
+    private static byte[] apeTag(int itemBytes, int tagSize) {
+        ByteBuffer footer = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        footer.put("APETAGEX".getBytes(StandardCharsets.US_ASCII));
+        footer.putInt(2000);
+        footer.putInt(tagSize);
+        footer.putInt(1);
+        footer.putInt(0);
+        byte[] tag = new byte[itemBytes + 32];
+        System.arraycopy(footer.array(), 0, tag, itemBytes, 32);
+        return tag;
+    }
+
+    private static byte[] atom(String type, byte[] body) {
+        ByteBuffer atom = ByteBuffer.allocate(body.length + 8);
+        atom.putInt(body.length + 8).put(type.getBytes(StandardCharsets.US_ASCII)).put(body);
+        return atom.array();
+    }
+
+    @Test
+    public void testRetaggedMp3HasSameHash() throws Exception {
+        String hash = ContentHasher.hashPayload(write("a.mp3", id3v2(20), AUDIO));
+        assertEquals(hash, ContentHasher.hashPayload(write("b.mp3", id3v2(500), AUDIO, id3v1("title"))));
+        assertEquals(hash, ContentHasher.hashPayload(write("c.mp3", AUDIO, apeTag(64), id3v1("other"))));
+        assertEquals(CoverArt.sha256(AUDIO), hash);
+        assertNotEquals(hash, ContentHasher.hashPayload(write("d.mp3", id3v2(20), AUDIO, new byte[]{1})));
+    }
+
+    @Test(timeout = 5000)
+    public void testCorruptApeTagSize() throws Exception {
+        byte[] corrupt = apeTag(0, 0);
+        String hash = ContentHasher.hashPayload(write("a.mp3", AUDIO, corrupt));
+        assertEquals(hash, ContentHasher.hashPayload(write("b.mp3", id3v2(20), AUDIO, corrupt, id3v1("title"))));
+        byte[] payload = Arrays.copyOf(AUDIO, AUDIO.length + corrupt.length);
+        System.arraycopy(corrupt, 0, payload, AUDIO.length, corrupt.length);
+        assertEquals(CoverArt.sha256(payload), hash);
+    }
+
+    @Test
+    public void testFlacSkipsMetadata() throws Exception {
+        byte[] streamInfo = {0, 0, 0, 4, 1, 2, 3, 4};
+        byte[] comment = {(byte) 0x84, 0, 0, 2, 'x', 'y'};
+        byte[] longComment = {(byte) 0x84, 0, 0, 3, 'x', 'y', 'z'};
+        byte[] magic = "fLaC".getBytes(StandardCharsets.US_ASCII);
+        String hash = ContentHasher.hashPayload(write("a.flac", magic, streamInfo, comment, AUDIO));
+        assertEquals(CoverArt.sha256(AUDIO), hash);
+        assertEquals(hash, ContentHasher.hashPayload(write("b.flac", magic, streamInfo, longComment, AUDIO)));
+    }
+
+    @Test
+    public void testMp4HashesMdat() throws Exception {
+        byte[] ftyp = atom("ftyp", "M4A ".getBytes(StandardCharsets.US_ASCII));
+        String hash = ContentHasher.hashPayload(write("a.m4a", ftyp, atom("moov", new byte[10]), atom("mdat", AUDIO)));
+        assertEquals(CoverArt.sha256(AUDIO), hash);
+        assertEquals(hash, ContentHasher.hashPayload(write("b.m4a", ftyp, atom("mdat", AUDIO), atom("moov", new byte[99]))));
+    }
+
+    @Test
+    public void testFindDuplicates() throws Exception {
+        Path other = write("other.mp3", id3v2(10), AUDIO);
+        MetadataCache cache = new MetadataCache();
+        ContentHasher hasher = new ContentHasher.Builder()
+                .concurrency(2)
+                .metadataCache(cache)
+                .build();
+        List<String> library = new ArrayList<>(FIXTURES);
+        library.add(other.toString());
+        library.add(folder.getRoot().toPath().resolve("missing.mp3").toString());
+        List<List<String>> duplicates = hasher.findDuplicates(library);
+        assertEquals(1, duplicates.size());
+        assertEquals(FIXTURES, duplicates.get(0));
+
+        // hashes are stored in the cache, and survive a save and load
+        String hash = cache.getContentHash(FIXTURES.get(0));
+        assertNotNull(hash);
+        assertEquals(64, hash.length());
+        Path file = folder.getRoot().toPath().resolve("cache.ppmc");
+        cache.save(file);
+        assertEquals(hash, MetadataCache.load(file).getContentHash(FIXTURES.get(0)));
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CoverArtTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] png(int width, int height) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] syncsafe(int value) {
+        return new byte[]{(byte) (value >> 21 & 0x7F), (byte) (value >> 14 & 0x7F), (byte) (value >> 7 & 0x7F), (byte) (value & 0x7F)};
+    }
+
+    private static byte[] id3(int version, byte[]... frames) throws Exception {
+        byte[] body = concat(frames);
+        return concat(ascii("ID3"), new byte[]{(byte) version, 0, 0}, syncsafe(body.length + 16), body, new byte[16]);
+    }
+
+    private static byte[] apic(int version, int pictureType, byte[] image) throws Exception {
+        byte[] data = concat(new byte[]{0}, ascii("image/png\0"), new byte[]{(byte) pictureType}, ascii("cover\0"), image);
+        return concat(ascii("APIC"), version == 4 ? syncsafe(data.length) : int32(data.length), new byte[2], data);
+    }
+
+    private static byte[] atom(String type, byte[]... children) throws Exception {
+        byte[] body = concat(children);
+        return concat(int32(body.length + 8), ascii(type), body);
+    }
+
+    private static CoverArt parse(byte[] data) {
+        return CoverArt.parse(ByteBuffer.wrap(data));
+    }
+
+    @Test
+    public void testId3v23PrefersFrontCover() throws Exception {
+        byte[] back = png(2, 2);
+        byte[] front = png(4, 4);
+        CoverArt art = parse(id3(3, apic(3, 4, back), apic(3, 3, front)));
+        assertNotNull(art);
+        assertArrayEquals(front, art.getData());
+        assertEquals("image/png", art.getMimeType());
+    }
+
+    @Test
+    public void testId3v24() throws Exception {
+        byte[] image = png(300, 300);
+        CoverArt art = parse(id3(4, apic(4, 0, image)));
+        assertArrayEquals(image, art.getData());
+        assertEquals(CoverArt.sha256(image), art.getHash());
+    }
+
+    @Test
+    public void testId3v24FrameFlags() throws Exception {
+        byte[] image = png(7, 7);
+        byte[] data = concat(new byte[]{0}, ascii("image/png\0"), new byte[]{3}, ascii("cover\0"), image);
+        // unsynchronisation inserts a zero after every 0xFF, and the data length is the length before that
+        ByteArrayOutputStream unsynchronised = new ByteArrayOutputStream();
+        for (byte b : data) {
+            unsynchronised.write(b);
+            if ((b & 0xFF) == 0xFF) {
+                unsynchronised.write(0);
+            }
+        }
+        byte[] body = concat(syncsafe(data.length), unsynchronised.toByteArray());
+        byte[] frame = concat(ascii("APIC"), syncsafe(body.length), new byte[]{0, 0x03}, body);
+        assertArrayEquals(image, parse(id3(4, frame)).getData());
+
+        // compressed pictures are left to ffmpeg
+        byte[] compressed = concat(ascii("APIC"), syncsafe(body.length), new byte[]{0, 0x08}, body);
+        assertNull(parse(id3(4, compressed)));
+    }
+
+    @Test
+    public void testId3v22() throws Exception {
+        byte[] image = png(3, 3);
+        // UTF-16 description with a BOM, so the terminator is two bytes
+        byte[] data = concat(new byte[]{1}, ascii("PNG"), new byte[]{3, (byte) 0xFF, (byte) 0xFE, 'a', 0, 0, 0}, image);
+        byte[] frame = concat(ascii("PIC"), new byte[]{0, (byte) (data.length >> 8), (byte) data.length}, data);
+        CoverArt art = parse(id3(2, frame));
+        assertArrayEquals(image, art.getData());
+        assertEquals("image/png", art.getMimeType());
+    }
+
+    @Test
+    public void testFlac() throws Exception {
+        byte[] image = png(5, 5);
+        byte[] mime = ascii("image/png");
+        byte[] picture = concat(int32(3), int32(mime.length), mime, int32(0), new byte[16], int32(image.length), image);
+        byte[] flac = concat(ascii("fLaC"),
+                new byte[]{0, 0, 0, 34}, new byte[34],
+                new byte[]{(byte) 0x86, (byte) (picture.length >> 16), (byte) (picture.length >> 8), (byte) picture.length},
+                picture);
+        assertArrayEquals(image, parse(flac).getData());
+        assertSame(CoverArt.NO_PICTURE, parse(concat(ascii("fLaC"), new byte[]{(byte) 0x80, 0, 0, 34}, new byte[34])));
+        // an ID3 tag before the FLAC metadata
+        assertArrayEquals(image, parse(concat(id3(3), flac)).getData());
+    }
+
+    @Test
+    public void testMp4() throws Exception {
+        byte[] image = png(6, 6);
+        byte[] mp4 = concat(
+                atom("ftyp", ascii("M4A "), int32(0)),
+                atom("moov", atom("udta", atom("meta", int32(0),
+                        atom("ilst", atom("covr", atom("data", int32(14), int32(0), image)))))),
+                atom("mdat", new byte[64]));
+        CoverArt art = parse(mp4);
+        assertArrayEquals(image, art.getData());
+        assertEquals("image/png", art.getMimeType());
+        byte[] moovMeta = concat(
+                atom("ftyp", ascii("M4A ")),
+                atom("moov", atom("meta", int32(0), atom("ilst", atom("covr", atom("data", int32(14), int32(0), image))))));
+        assertArrayEquals(image, parse(moovMeta).getData());
+        byte[] noCover = concat(
+                atom("ftyp", ascii("M4A ")),
+                atom("moov", atom("udta", atom("meta", int32(0), atom("ilst", atom("\u00a9nam", new byte[8]))))));
+        assertSame(CoverArt.NO_PICTURE, parse(noCover));
+        // without an ilst, the tags could be somewhere the parser does not look
+        assertNull(parse(concat(atom("ftyp", ascii("M4A ")), atom("moov"))));
+    }
+
+    @Test
+    public void testNoPicture() throws Exception {
+        assertSame(CoverArt.NO_PICTURE, parse(Files.readAllBytes(Paths.get("src/test/resources/test-various-artists.mp3"))));
+        assertNull(parse(ascii("not media")));
+        assertSame(CoverArt.NO_PICTURE, parse(concat(id3(3), new byte[]{(byte) 0xFF, (byte) 0xFB, 0, 0})));
+        // something other than MPEG audio after the tag could have its own picture
+        assertNull(parse(concat(id3(3), ascii("RIFF"))));
+        // truncated tag
+        byte[] truncated = id3(3, apic(3, 3, png(4, 4)));
+        assertNull(parse(Arrays.copyOf(truncated, 40)));
+    }
+
+    @Test
+    public void testExtractFromFile() throws Exception {
+        byte[] image = png(8, 8);
+        Path file = folder.newFile("cover.mp3").toPath();
+        Files.write(file, concat(id3(3, apic(3, 3, image)), new byte[1024]));
+        CoverArt art = CoverArt.extract(file.toString());
+        assertArrayEquals(image, art.getData());
+        assertNull(CoverArt.extract("src/test/resources/test-various-artists.mp3"));
+    }
+
+    @Test
+    public void testThumbnailCache() throws Exception {
+        byte[] tag = id3(3, apic(3, 3, png(400, 200)));
+        Path track1 = folder.newFile("track1.mp3").toPath();
+        Path track2 = folder.newFile("track2.mp3").toPath();
+        Path track3 = folder.newFile("track3.mp3").toPath();
+        Files.write(track1, tag);
+        Files.write(track2, tag);
+        Files.write(track3, id3(3, apic(3, 3, png(200, 400))));
+
+        Path directory = folder.getRoot().toPath().resolve("covers");
+        CoverArtCache covers = new CoverArtCache.Builder()
+                .directory(directory)
+                .thumbnailSize(100)
+                .build();
+        byte[] thumbnail = covers.getThumbnail(track1.toString());
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(100, image.getWidth());
+        assertEquals(50, image.getHeight());
+
+        // a track with the same picture shares the stored thumbnail
+        assertArrayEquals(thumbnail, covers.getThumbnail(track2.toString()));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+        // a track with a different picture gets its own, even from the same album
+        image = ImageIO.read(new ByteArrayInputStream(covers.getThumbnail(track3.toString())));
+        assertEquals(50, image.getWidth());
+        assertEquals(100, image.getHeight());
+
+        // a new cache finds the thumbnail on disk
+        CoverArtCache reopened = new CoverArtCache.Builder()
+                .directory(directory)
+                .thumbnailSize(100)
+                .build();
+        assertArrayEquals(thumbnail, reopened.getThumbnail(track1.toString()));
+    }
+
+    @Test
+    public void testThumbnailRemembersMedia() throws Exception {
+        Path track = folder.newFile("track.mp3").toPath();
+        Files.write(track, id3(3, apic(3, 3, png(40, 40))));
+        Path empty = folder.getRoot().toPath().resolve("empty.mp3");
+        Files.copy(Paths.get("src/test/resources/test-various-artists.mp3"), empty);
+        CoverArtCache covers = new CoverArtCache.Builder()
+                .directory(folder.getRoot().toPath().resolve("covers"))
+                .build();
+        byte[] thumbnail = covers.getThumbnail(track.toString());
+        assertNotNull(thumbnail);
+        assertNull(covers.getThumbnail(empty.toString()));
+
+        // callers get their own copy
+        thumbnail[0]++;
+        byte[] again = covers.getThumbnail(track.toString());
+        assertNotEquals(thumbnail[0], again[0]);
+
+        // media that has been seen is not read again
+        Files.delete(track);
+        Files.delete(empty);
+        assertArrayEquals(again, covers.getThumbnail(track.toString()));
+        assertNull(covers.getThumbnail(empty.toString()));
+    }
+}
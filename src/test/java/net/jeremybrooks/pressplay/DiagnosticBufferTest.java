@@ -0,0 +1,69 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DiagnosticBufferTest {
+
+    @Test
+    public void testNotFull() {
+        DiagnosticBuffer buffer = new DiagnosticBuffer(16);
+        byte[] bytes = "hello".getBytes();
+        buffer.accept(bytes, 0, bytes.length);
+        assertEquals("hello", buffer.toString());
+        assertFalse(buffer.isTruncated());
+    }
+
+    @Test
+    public void testWrap() {
+        DiagnosticBuffer buffer = new DiagnosticBuffer(8);
+        byte[] bytes = "abcdef".getBytes();
+        buffer.accept(bytes, 0, bytes.length);
+        bytes = "ghijk".getBytes();
+        buffer.accept(bytes, 0, bytes.length);
+        assertEquals("defghijk", buffer.toString());
+        assertTrue(buffer.isTruncated());
+    }
+
+    @Test
+    public void testLargerThanBuffer() {
+        DiagnosticBuffer buffer = new DiagnosticBuffer(4);
+        byte[] bytes = "xxabcdefghij".getBytes();
+        buffer.accept(bytes, 2, 10);
+        assertEquals("ghij", buffer.toString());
+    }
+
+    @Test
+    public void testProcessOutputReader() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "for i in 1 2 3 4 5; do echo line$i >&2; done; exit 3")
+                .start();
+        DiagnosticBuffer buffer = new DiagnosticBuffer(12);
+        CountDownLatch done = ProcessOutputReader.getInstance().register(process, process.getErrorStream(), buffer);
+        assertEquals(3, process.waitFor());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("line4\nline5\n", buffer.toString());
+    }
+}
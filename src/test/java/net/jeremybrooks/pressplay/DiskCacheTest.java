@@ -0,0 +1,86 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        Path directory = folder.newFolder("cache").toPath();
+        DiskCache cache = new DiskCache(directory, 300);
+        cache.put("a", new byte[100]);
+        cache.put("b", new byte[100]);
+        cache.put("c", new byte[100]);
+        assertEquals(300, cache.size());
+        assertNotNull(cache.get("a"));
+        cache.put("d", new byte[100]);
+        assertFalse(cache.contains("b"));
+        assertFalse(Files.exists(directory.resolve("b")));
+        assertTrue(cache.contains("a"));
+        assertEquals(3, cache.count());
+        assertEquals(300, cache.size());
+    }
+
+    @Test
+    public void testKeepsNewestEvenIfTooLarge() throws Exception {
+        DiskCache cache = new DiskCache(folder.newFolder("cache").toPath(), 100);
+        cache.put("a", new byte[50]);
+        cache.put("big", new byte[500]);
+        assertFalse(cache.contains("a"));
+        assertArrayEquals(new byte[500], cache.read("big"));
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        Path directory = folder.newFolder("cache").toPath();
+        DiskCache cache = new DiskCache(directory, 1000);
+        cache.put("a", new byte[]{1, 2, 3});
+        cache.put("b", new byte[]{4});
+        Files.write(directory.resolve("abandoned.tmp"), new byte[10]);
+        Files.setLastModifiedTime(directory.resolve("abandoned.tmp"),
+                FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        // another cache using the directory may still be writing this one
+        Files.write(directory.resolve("rendering.tmp"), new byte[10]);
+
+        DiskCache reloaded = new DiskCache(directory, 1000);
+        assertEquals(2, reloaded.count());
+        assertEquals(4, reloaded.size());
+        assertArrayEquals(new byte[]{1, 2, 3}, reloaded.read("a"));
+        assertFalse(Files.exists(directory.resolve("abandoned.tmp")));
+        assertTrue(Files.exists(directory.resolve("rendering.tmp")));
+        reloaded.remove("a");
+        assertNull(reloaded.read("a"));
+        assertEquals(1, reloaded.size());
+    }
+}
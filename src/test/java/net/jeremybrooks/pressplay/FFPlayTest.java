@@ -19,17 +19,71 @@
 
 package net.jeremybrooks.pressplay;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Duration;
+import java.util.List;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 public class FFPlayTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* Play with a stub ffplay that records its arguments and exits, and return the arguments. */
+    private List<String> ffplayArguments(FFPlay.Builder<String> builder) throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path bin = folder.newFolder().toPath();
+        Path arguments = bin.resolve("arguments");
+        Path ffplay = bin.resolve("ffplay");
+        String script = "#!/bin/sh\n"
+                + "case \"$*\" in *-version*) echo 'ffplay version 6.1.1 Copyright'; exit 0 ;; esac\n"
+                + "for a in \"$@\"; do echo \"$a\"; done > '" + arguments + ".tmp'\n"
+                + "mv '" + arguments + ".tmp' '" + arguments + "'\n";
+        Files.write(ffplay, script.getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(ffplay, PosixFilePermissions.fromString("rwxr-xr-x"));
+        String previous = System.getProperty("pressplay.ffmpeg.path");
+        System.setProperty("pressplay.ffmpeg.path", bin.toString());
+        try {
+            FFmpegTools.refresh();
+            builder.noMetadata().build().play();
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!Files.exists(arguments) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            return Files.readAllLines(arguments, StandardCharsets.UTF_8);
+        } finally {
+            if (previous == null) {
+                System.clearProperty("pressplay.ffmpeg.path");
+            } else {
+                System.setProperty("pressplay.ffmpeg.path", previous);
+            }
+            FFmpegTools.refresh();
+        }
+    }
+
+    @Test
+    public void testDurationExitsAtEnd() throws Exception {
+        List<String> arguments = ffplayArguments(new FFPlay.Builder<String>()
+                .media("/music/track.mp3")
+                .duration(Duration.ofSeconds(30)));
+        assertTrue(arguments.contains("-autoexit"));
+        assertEquals("30.0", arguments.get(arguments.indexOf("-t") + 1));
+
+        arguments = ffplayArguments(new FFPlay.Builder<String>().media("/music/track.mp3"));
+        assertFalse(arguments.contains("-autoexit"));
+        assertFalse(arguments.contains("-t"));
+    }
 
     @Test
     public void getMedia() throws Exception {
@@ -139,4 +193,31 @@ public class FFPlayTest {
                 .build();
         assertTrue(ffPlay.isDisplay());
     }
+
+    @Test
+    public void testDefaultPosition() throws Exception {
+        URL url = FFPlayTest.class.getResource("/test-tracks-no-disc.mp3");
+        assertNotNull(url);
+        Path path = Paths.get(url.toURI());
+        FFPlay<Path> ffPlay = new FFPlay.Builder<Path>()
+                .media(path)
+                .noMetadata()
+                .build();
+        assertEquals(Duration.ZERO, ffPlay.getPosition());
+        ffPlay.setSeekTime(Duration.ofSeconds(5));
+        assertEquals(Duration.ofSeconds(5), ffPlay.getPosition());
+    }
+
+    @Test
+    public void testPositionTrackingIsOptIn() throws Exception {
+        assertFalse(ffplayArguments(new FFPlay.Builder<String>()
+                .media("/music/track.mp3")).contains("-stats"));
+        assertTrue(ffplayArguments(new FFPlay.Builder<String>()
+                .media("/music/track.mp3")
+                .trackPosition()).contains("-stats"));
+        assertTrue(ffplayArguments(new FFPlay.Builder<String>()
+                .media("/music/track.mp3")
+                .onPosition(position -> {
+                }, Duration.ofSeconds(1))).contains("-stats"));
+    }
 }
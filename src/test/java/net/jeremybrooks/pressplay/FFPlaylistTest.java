@@ -0,0 +1,129 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FFPlaylistTest {
+
+    private MediaMetadata metadata(String duration) {
+        return new Gson().fromJson("{\"format\":{\"duration\":\"" + duration + "\"}}", MediaMetadata.class);
+    }
+
+    @Test
+    public void testStartTimes() {
+        List<MediaMetadata> list = Arrays.asList(metadata("100.0"), metadata("50.5"), metadata("20.0"));
+        assertArrayEquals(new double[]{0, 100, 150.5}, FFPlaylist.computeStartTimes(list, Duration.ZERO), 0.001);
+        assertArrayEquals(new double[]{0, 98, 146.5},
+                FFPlaylist.computeStartTimes(list, Duration.ofSeconds(2)), 0.001);
+    }
+
+    @Test
+    public void testStartTimesUnknownDuration() {
+        List<MediaMetadata> list = Arrays.asList(metadata("100.0"), null);
+        assertArrayEquals(new double[]{0}, FFPlaylist.computeStartTimes(list, Duration.ZERO), 0.001);
+    }
+
+    @Test
+    public void testIndexAt() {
+        double[] starts = {0, 100, 150.5};
+        assertEquals(0, FFPlaylist.indexAt(starts, 0));
+        assertEquals(0, FFPlaylist.indexAt(starts, 99.9));
+        assertEquals(1, FFPlaylist.indexAt(starts, 100));
+        assertEquals(2, FFPlaylist.indexAt(starts, 200));
+    }
+
+    @Test
+    public void testCrossfadeFilter() {
+        assertEquals("[0:a]anull[out]", FFPlaylist.buildCrossfadeFilter(1, Duration.ofSeconds(2)));
+        assertEquals("[0:a][1:a]acrossfade=d=2.0[out]", FFPlaylist.buildCrossfadeFilter(2, Duration.ofSeconds(2)));
+        assertEquals("[0:a][1:a]acrossfade=d=1.5[x1];[x1][2:a]acrossfade=d=1.5[out]",
+                FFPlaylist.buildCrossfadeFilter(3, Duration.ofMillis(1500)));
+    }
+
+    @Test
+    public void testConcatList() {
+        FFPlaylist<String> playlist = new FFPlaylist.Builder<String>()
+                .add("/music/one.mp3")
+                .add("/music/it's two.mp3")
+                .noMetadata()
+                .build();
+        assertEquals("ffconcat version 1.0\nfile '/music/one.mp3'\nfile '/music/it'\\''s two.mp3'\n",
+                playlist.buildConcatList());
+    }
+
+    @Test
+    public void testItemChange() {
+        List<String> changes = new ArrayList<>();
+        FFPlaylist<String> playlist = new FFPlaylist.Builder<String>()
+                .media(Arrays.asList("/a.mp3", "/b.mp3"))
+                .noMetadata()
+                .onItemChange(changes::add)
+                .build();
+        assertEquals(0, playlist.getCurrentIndex());
+        assertEquals("/a.mp3", playlist.getCurrentMedia());
+        // without metadata, only the first item is tracked
+        playlist.updateCurrentIndex(500);
+        assertEquals(0, playlist.getCurrentIndex());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new FFPlaylist.Builder<String>().build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPipedMedia() {
+        new FFPlaylist.Builder<PipedMedia>()
+                .add(PipedMedia.of(ByteBuffer.allocate(1)))
+                .build();
+    }
+
+    @Test
+    public void testStatusLine() {
+        assertEquals(12.34, StatusLine.parseClock("  12.34 M-A:  0.000 fd=   0 aq=   24KB vq=    0KB sq=    0B"), 0.0001);
+        assertEquals(3.5, StatusLine.parseClock("3.50 A-V: -0.010 fd=   1 aq=    0KB vq=   10KB sq=    0B f=0/0"), 0.0001);
+        assertTrue(Double.isNaN(StatusLine.parseClock("    nan M-A:    nan fd=   0 aq=    0KB vq=    0KB sq=    0B")));
+        assertTrue(Double.isNaN(StatusLine.parseClock("Input #0, mp3, from 'file.mp3':")));
+        assertTrue(Double.isNaN(StatusLine.parseClock("")));
+
+        List<Double> clocks = new ArrayList<>();
+        DiagnosticBuffer other = new DiagnosticBuffer(100);
+        StatusLine statusLine = new StatusLine(clocks::add, other);
+        byte[] bytes = "   1.00 M-A:  0.000 fd=   0\r   2.00 M-A:  0.0".getBytes();
+        statusLine.accept(bytes, 0, bytes.length);
+        assertEquals(1.0, statusLine.getClock(), 0.0001);
+        bytes = "00 fd=   0\r[mp3 @ 0x1] Estimating duration\n   3.00 M-A:  0.000 fd=   0\r".getBytes();
+        statusLine.accept(bytes, 0, bytes.length);
+        assertEquals(3.0, statusLine.getClock(), 0.0001);
+        assertEquals(Arrays.asList(1.0, 2.0, 3.0), clocks);
+        assertEquals("[mp3 @ 0x1] Estimating duration\n", other.toString());
+    }
+}
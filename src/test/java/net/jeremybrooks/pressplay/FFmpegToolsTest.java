@@ -0,0 +1,213 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class FFmpegToolsTest {
+
+    private static final String DEMUXERS = "Demuxers:\n"
+            + " D. = Demuxing supported\n"
+            + " .E = Muxing supported\n"
+            + " --\n"
+            + " D  aac             raw ADTS AAC (Advanced Audio Coding)\n"
+            + " D  flac            raw FLAC\n"
+            + " D  mov,mp4,m4a,3gp,3g2,mj2 QuickTime / MOV\n"
+            + " D  mp3             MP2/3 (MPEG audio layer 2/3)\n";
+
+    private static final String FILTERS = "Filters:\n"
+            + "  T.. = Timeline support\n"
+            + "  .S. = Slice threading\n"
+            + "  A = Audio input/output\n"
+            + "  | = Source or sink filter\n"
+            + " ... abuffersink       A->|       Buffer audio frames, and make them available to the end of the filter graph.\n"
+            + " T.. afade             A->A       Fade in/out input audio.\n"
+            + " ... atrim             A->A       Pick one continuous section from the input, drop the rest.\n"
+            + " ... loudnorm          A->A       EBU R128 loudness normalization\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testParseVersion() {
+        assertEquals("6.1.1-3ubuntu5", FFmpegTools.parseVersion(
+                "ffmpeg version 6.1.1-3ubuntu5 Copyright (c) 2000-2023 the FFmpeg developers\nbuilt with gcc 13"));
+        assertEquals("n7.0", FFmpegTools.parseVersion("ffprobe version n7.0 Copyright"));
+        assertNull(FFmpegTools.parseVersion(""));
+        assertNull(FFmpegTools.parseVersion("command not found"));
+    }
+
+    @Test
+    public void testParseFormats() {
+        assertEquals(9, FFmpegTools.parseFormats(DEMUXERS).size());
+        assertTrue(FFmpegTools.parseFormats(DEMUXERS).contains("m4a"));
+        assertTrue(FFmpegTools.parseFormats(DEMUXERS).contains("mp3"));
+        assertTrue(FFmpegTools.parseFormats("").isEmpty());
+    }
+
+    @Test
+    public void testParseFilters() {
+        assertEquals(4, FFmpegTools.parseFilters(FILTERS).size());
+        assertTrue(FFmpegTools.parseFilters(FILTERS).contains("loudnorm"));
+        assertFalse(FFmpegTools.parseFilters(FILTERS).contains("A"));
+    }
+
+    @Test
+    public void testConfiguredPathIsTheOnlyCandidate() throws Exception {
+        Path bin = folder.newFolder("bin").toPath();
+        List<Path> directories = FFmpegTools.candidateDirectories(bin.toString(), "/usr/bin:/bin",
+                Collections.singletonList("/usr/local/bin"));
+        assertEquals(Collections.singletonList(bin), directories);
+        assertEquals(bin.resolve("ffprobe").toString(), FFmpegTools.locate("ffprobe", directories, bin.toString()));
+    }
+
+    @Test
+    public void testDiscoverAndCache() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path bin = folder.newFolder("bin").toPath();
+        Path log = folder.getRoot().toPath().resolve("calls.log");
+        Path demuxers = folder.getRoot().toPath().resolve("demuxers.txt");
+        Path filters = folder.getRoot().toPath().resolve("filters.txt");
+        Files.write(demuxers, DEMUXERS.getBytes(StandardCharsets.UTF_8));
+        Files.write(filters, FILTERS.getBytes(StandardCharsets.UTF_8));
+        writeTool(bin.resolve("ffmpeg"), "ffmpeg", log, demuxers, filters);
+        writeTool(bin.resolve("ffprobe"), "ffprobe", log, demuxers, filters);
+        Path cacheFile = folder.getRoot().toPath().resolve("tools.cache");
+        String path = folder.getRoot() + ":" + bin;
+
+        FFmpegTools tools = FFmpegTools.discover(null, path, Collections.emptyList(), cacheFile);
+        assertEquals(bin.resolve("ffmpeg").toString(), tools.getFFmpeg());
+        assertEquals(bin.resolve("ffprobe").toString(), tools.getFFprobe());
+        assertEquals("6.1.1", tools.getVersion());
+        assertTrue(tools.hasFFmpeg());
+        assertTrue(tools.hasFFprobe());
+        assertFalse(tools.hasFFplay());
+        assertTrue(tools.supportsFormat("FLAC"));
+        assertTrue(tools.supportsFilter("loudnorm"));
+        assertFalse(tools.supportsFilter("rubberband"));
+        assertTrue(Files.exists(cacheFile));
+        int calls = Files.readAllLines(log).size();
+        assertEquals(4, calls);
+
+        FFmpegTools cached = FFmpegTools.discover(null, path, Collections.emptyList(), cacheFile);
+        assertEquals(calls, Files.readAllLines(log).size());
+        assertEquals("6.1.1", cached.getVersion());
+        assertTrue(cached.hasFFprobe());
+        assertFalse(cached.hasFFplay());
+        assertEquals(tools.getFormats(), cached.getFormats());
+        assertEquals(tools.getFilters(), cached.getFilters());
+
+        // installing ffplay changes the tools, so they are checked again
+        writeTool(bin.resolve("ffplay"), "ffplay", log, demuxers, filters);
+        FFmpegTools changed = FFmpegTools.discover(null, path, Collections.emptyList(), cacheFile);
+        assertTrue(changed.hasFFplay());
+        assertEquals(calls + 5, Files.readAllLines(log).size());
+    }
+
+    @Test
+    public void testMissingToolsAreNotCached() throws Exception {
+        Path cacheFile = folder.getRoot().toPath().resolve("tools.cache");
+        FFmpegTools tools = FFmpegTools.discover(folder.newFolder("empty").toString(), null,
+                Collections.emptyList(), cacheFile);
+        assertFalse(tools.hasFFmpeg());
+        assertFalse(tools.hasFFprobe());
+        assertEquals("", tools.getVersion());
+        assertTrue(tools.getFilters().isEmpty());
+        assertFalse(Files.exists(cacheFile));
+        try {
+            tools.requireFFprobe();
+            fail("A missing tool should not be started.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("ffprobe not found"));
+        }
+    }
+
+    @Test
+    public void testFailedCheckIsNotCached() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path bin = folder.newFolder("bin").toPath();
+        Path log = folder.getRoot().toPath().resolve("calls.log");
+        Path demuxers = folder.getRoot().toPath().resolve("demuxers.txt");
+        Path filters = folder.getRoot().toPath().resolve("filters.txt");
+        Files.write(demuxers, DEMUXERS.getBytes(StandardCharsets.UTF_8));
+        Files.write(filters, FILTERS.getBytes(StandardCharsets.UTF_8));
+        writeTool(bin.resolve("ffmpeg"), "ffmpeg", log, demuxers, filters);
+        Path ffprobe = bin.resolve("ffprobe");
+        Files.write(ffprobe, "#!/bin/sh\nexit 1\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(ffprobe, PosixFilePermissions.fromString("rwxr-xr-x"));
+        Path cacheFile = folder.getRoot().toPath().resolve("tools.cache");
+
+        FFmpegTools tools = FFmpegTools.discover(bin.toString(), null, Collections.emptyList(), cacheFile);
+        assertTrue(tools.hasFFmpeg());
+        assertFalse(tools.hasFFprobe());
+        assertEquals(ffprobe.toString(), tools.requireFFprobe());
+        assertFalse(Files.exists(cacheFile));
+
+        // once the tool answers, the result is saved
+        writeTool(ffprobe, "ffprobe", log, demuxers, filters);
+        assertTrue(FFmpegTools.discover(bin.toString(), null, Collections.emptyList(), cacheFile).hasFFprobe());
+        assertTrue(Files.exists(cacheFile));
+    }
+
+    @Test
+    public void testHungToolIsDestroyed() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path tool = folder.getRoot().toPath().resolve("hang");
+        Files.write(tool, "#!/bin/sh\necho started\nexec sleep 60\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(tool, PosixFilePermissions.fromString("rwxr-xr-x"));
+        long start = System.nanoTime();
+        assertEquals("", FFmpegTools.run(1, tool.toString()));
+        assertTrue(System.nanoTime() - start < 10_000_000_000L);
+    }
+
+    @Test
+    public void testOutputIsRead() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path tool = folder.getRoot().toPath().resolve("tool");
+        Files.write(tool, "#!/bin/sh\necho \"tool version 1.0\"\n".getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(tool, PosixFilePermissions.fromString("rwxr-xr-x"));
+        assertEquals("1.0", FFmpegTools.parseVersion(FFmpegTools.run(5, tool.toString())));
+    }
+
+    private static void writeTool(Path file, String name, Path log, Path demuxers, Path filters) throws Exception {
+        String script = "#!/bin/sh\n"
+                + "echo \"" + name + " $*\" >> '" + log + "'\n"
+                + "case \"$*\" in\n"
+                + "  *-demuxers*) cat '" + demuxers + "' ;;\n"
+                + "  *-filters*) cat '" + filters + "' ;;\n"
+                + "  *) echo '" + name + " version 6.1.1 Copyright (c) 2000-2023 the FFmpeg developers' ;;\n"
+                + "esac\n";
+        Files.write(file, script.getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+}
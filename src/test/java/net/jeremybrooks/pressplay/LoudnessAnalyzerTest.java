@@ -0,0 +1,117 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LoudnessAnalyzerTest {
+
+    private static final String OUTPUT = "Input #0, mp3, from 'test.mp3':\n"
+            + "  Duration: 00:03:28.56, start: 0.025057, bitrate: 128 kb/s\n"
+            + "[Parsed_loudnorm_0 @ 0x55d5c8a0a2c0] \n"
+            + "{\n"
+            + "\t\"input_i\" : \"-9.87\",\n"
+            + "\t\"input_tp\" : \"0.45\",\n"
+            + "\t\"input_lra\" : \"5.30\",\n"
+            + "\t\"input_thresh\" : \"-20.01\",\n"
+            + "\t\"output_i\" : \"-24.51\",\n"
+            + "\t\"output_tp\" : \"-2.00\",\n"
+            + "\t\"output_lra\" : \"4.90\",\n"
+            + "\t\"output_thresh\" : \"-34.64\",\n"
+            + "\t\"normalization_type\" : \"dynamic\",\n"
+            + "\t\"target_offset\" : \"0.51\"\n"
+            + "}\n";
+
+    @Test
+    public void testParse() throws Exception {
+        Loudness loudness = LoudnessAnalyzer.parse(OUTPUT);
+        assertEquals(-9.87, loudness.getIntegrated(), 0.001);
+        assertEquals(0.45, loudness.getTruePeak(), 0.001);
+        assertEquals(5.3, loudness.getRange(), 0.001);
+        assertEquals(-20.01, loudness.getThreshold(), 0.001);
+    }
+
+    @Test
+    public void testParseSilence() throws Exception {
+        Loudness loudness = LoudnessAnalyzer.parse(
+                "{\"input_i\" : \"-inf\", \"input_tp\" : \"-inf\", \"input_lra\" : \"0.00\", \"input_thresh\" : \"-70.00\"}");
+        assertEquals(Double.NEGATIVE_INFINITY, loudness.getIntegrated(), 0);
+        assertEquals(0, loudness.getGain(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testParseNoResult() throws Exception {
+        LoudnessAnalyzer.parse("Error opening input file test.mp3.");
+    }
+
+    @Test
+    public void testGain() {
+        // quiet track, limited by true peak
+        Loudness loudness = new Loudness(-30, -3, 5, -40);
+        assertEquals(2, loudness.getGain(), 0.001);
+        // loud track is turned down
+        loudness = new Loudness(-9.87, 0.45, 5.3, -20.01);
+        assertEquals(-8.13, loudness.getGain(), 0.001);
+        assertEquals(-13.13, loudness.getGain(-23, -1), 0.001);
+    }
+
+    @Test
+    public void testAnalyzeUsesCache() throws Exception {
+        URL url = LoudnessAnalyzerTest.class.getResource("/test-tracks-no-disc.mp3");
+        assertNotNull(url);
+        String media = Paths.get(url.toURI()).toString();
+        MetadataCache cache = new MetadataCache();
+        Loudness loudness = new Loudness(-12, -1.5, 4, -22);
+        cache.putLoudness(media, loudness);
+        LoudnessAnalyzer analyzer = new LoudnessAnalyzer.Builder()
+                .concurrency(2)
+                .metadataCache(cache)
+                .build();
+        assertSame(loudness, analyzer.analyze(media));
+        Map<String, Loudness> results = analyzer.analyzeAll(Collections.singletonList(media));
+        assertSame(loudness, results.get(media));
+    }
+
+    @Test
+    public void testNormalizeFromCache() throws Exception {
+        URL url = LoudnessAnalyzerTest.class.getResource("/test-tracks-no-disc.mp3");
+        assertNotNull(url);
+        Path path = Paths.get(url.toURI());
+        MetadataCache cache = new MetadataCache();
+        cache.putLoudness(path.toString(), new Loudness(-12, -5, 4, -22));
+        FFPlay<Path> ffPlay = new FFPlay.Builder<Path>()
+                .media(path)
+                .noMetadata()
+                .metadataCache(cache)
+                .normalize()
+                .gain(1)
+                .build();
+        assertEquals(-5, ffPlay.getGain(), 0.001);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MediaMetadataCodecTest {
+
+    private MediaMetadata loadFixture() throws Exception {
+        InputStream in = MediaMetadataCodecTest.class.getResourceAsStream("/metadata.json");
+        assertNotNull(in);
+        String json = IOUtils.toString(in, StandardCharsets.UTF_8);
+        return new Gson().fromJson(json, MediaMetadata.class);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MediaMetadata metadata = loadFixture();
+        MediaMetadata copy = MediaMetadataCodec.decode(MediaMetadataCodec.encode(metadata));
+        assertNotNull(copy);
+        assertEquals(metadata.toString(), copy.toString());
+        assertEquals(238, copy.getDuration().getSeconds());
+        assertEquals("1/1", copy.getDisc());
+        assertEquals("Cars", copy.getTitle());
+        assertEquals("Gary Numan", copy.getArtist());
+        assertEquals("Just Can't Get Enough: New Wave Hits Of The '80s Vol. 3", copy.getAlbum());
+        assertEquals("1/16", copy.getTrack());
+        assertTrue(copy.isCompilation());
+    }
+
+    @Test
+    public void testRoundTripEmpty() throws Exception {
+        MediaMetadata metadata = new Gson().fromJson("{}", MediaMetadata.class);
+        MediaMetadata copy = MediaMetadataCodec.decode(MediaMetadataCodec.encode(metadata));
+        assertNotNull(copy);
+        assertEquals("", copy.getTitle());
+        assertEquals("", copy.getFormatName());
+        assertEquals(0, copy.getNumberStreams());
+        assertEquals(metadata.toString(), copy.toString());
+    }
+
+    @Test
+    public void testSmallerThanJson() throws Exception {
+        MediaMetadata metadata = loadFixture();
+        ByteBuffer buffer = MediaMetadataCodec.encode(metadata);
+        assertTrue(buffer.remaining() < metadata.toString().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        MediaMetadata metadata = loadFixture();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MediaMetadataCodec.Writer writer = new MediaMetadataCodec.Writer(Channels.newChannel(out))) {
+            for (int i = 0; i < 1000; i++) {
+                writer.write(metadata);
+            }
+        }
+        // repeated strings are written once, so each additional entry is a few bytes
+        int single = MediaMetadataCodec.encode(metadata).remaining();
+        assertTrue(out.size() < single + 1000 * 32);
+
+        try (MediaMetadataCodec.Reader reader = new MediaMetadataCodec.Reader(
+                Channels.newChannel(new ByteArrayInputStream(out.toByteArray())))) {
+            List<MediaMetadata> list = reader.readAll();
+            assertEquals(1000, list.size());
+            for (MediaMetadata copy : list) {
+                assertEquals(metadata.toString(), copy.toString());
+            }
+            assertNull(reader.read());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidHeader() throws Exception {
+        MediaMetadataCodec.decode(ByteBuffer.wrap("{\"format\":{}}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        ByteBuffer buffer = MediaMetadataCodec.encode(loadFixture());
+        buffer.limit(buffer.limit() / 2);
+        MediaMetadataCodec.decode(buffer);
+    }
+
+    @Test
+    public void testCorruptLength() throws Exception {
+        // a new string, claiming to be Integer.MAX_VALUE bytes long, followed by a few bytes
+        byte[] data = {1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a', 'b', 'c'};
+        try {
+            new MediaMetadataCodec.Reader(ByteBuffer.wrap(data)).readString();
+            fail("Expected EOFException");
+        } catch (EOFException expected) {
+            // the length is larger than the buffer
+        }
+        try (MediaMetadataCodec.Reader reader = new MediaMetadataCodec.Reader(
+                Channels.newChannel(new ByteArrayInputStream(data)))) {
+            reader.readString();
+            fail("Expected EOFException");
+        } catch (EOFException expected) {
+            // the length of the stream is not known, so the data ran out while reading
+        }
+    }
+
+    @Test
+    public void testLongStringFromStream() throws Exception {
+        StringBuilder value = new StringBuilder();
+        while (value.length() < 200_000) {
+            value.append("long tag value ");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] magic = {'T', 'E', 'S', 'T'};
+        try (MediaMetadataCodec.Writer writer = new MediaMetadataCodec.Writer(Channels.newChannel(out), magic)) {
+            writer.writeString(value.toString());
+        }
+        try (MediaMetadataCodec.Reader reader = new MediaMetadataCodec.Reader(
+                Channels.newChannel(new ByteArrayInputStream(out.toByteArray())))) {
+            reader.readHeader(magic);
+            assertEquals(value.toString(), reader.readString());
+        }
+    }
+}
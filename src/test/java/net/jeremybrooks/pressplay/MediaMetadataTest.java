@@ -25,6 +25,8 @@ import org.junit.Test;
 
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -50,4 +52,66 @@ public class MediaMetadataTest {
         assertTrue(metadata.isCompilation());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testAllTags() throws Exception {
+        String json = "{\"format\":{\"tags\":{\"TITLE\":\"Cars\",\"ARTIST\":\"Gary Numan\",\"TPA\":\"2/2\","
+                + "\"composer\":\"Gary Numan\",\"ISRC\":\"GBAJE7900011\",\"MusicBrainz Album Id\":\"abc\",\"BPM\":128}}}";
+        MediaMetadata metadata = new Gson().fromJson(json, MediaMetadata.class);
+        assertEquals("Cars", metadata.getTitle());
+        assertEquals("Gary Numan", metadata.getArtist());
+        assertEquals("2/2", metadata.getDisc());
+        assertEquals(2, metadata.getDiscNumber());
+        assertEquals("GBAJE7900011", metadata.getTag("isrc"));
+        assertEquals("abc", metadata.getTag("musicbrainz album id"));
+        assertEquals("128", metadata.getTag("BPM"));
+        assertEquals("", metadata.getTag("lyrics"));
+        assertEquals(7, metadata.getTags().size());
+        // original case and order are kept
+        assertEquals("TITLE", metadata.getTags().keySet().iterator().next());
+        assertTrue(metadata.getTags().containsKey("composer"));
+        assertFalse(metadata.getTags().containsKey("Composer"));
+        assertEquals("Gary Numan", metadata.getTag("Composer"));
+        assertTrue(metadata.toString().contains("\"MusicBrainz Album Id\":\"abc\""));
+
+        MediaMetadata copy = MediaMetadataCodec.decode(MediaMetadataCodec.encode(metadata));
+        assertEquals(metadata.getTags(), copy.getTags());
+        assertEquals(metadata.toString(), copy.toString());
+    }
+
+    @Test
+    public void testTagsEqualOtherMaps() {
+        MediaMetadata metadata = new Gson().fromJson("{\"format\":{\"tags\":{\"TITLE\":\"Cars\"}}}", MediaMetadata.class);
+        Map<String, String> same = new HashMap<>();
+        same.put("TITLE", "Cars");
+        Map<String, String> otherCase = new HashMap<>();
+        otherCase.put("title", "Cars");
+        assertEquals(same, metadata.getTags());
+        assertEquals(metadata.getTags(), same);
+        assertEquals(same.hashCode(), metadata.getTags().hashCode());
+        assertNotEquals(otherCase, metadata.getTags());
+        assertNotEquals(metadata.getTags(), otherCase);
+    }
+
+    @Test
+    public void testTagKeysAreInterned() {
+        MediaMetadata first = new Gson().fromJson("{\"format\":{\"tags\":{\"composer\":\"a\"}}}", MediaMetadata.class);
+        MediaMetadata second = new Gson().fromJson("{\"format\":{\"tags\":{\"composer\":\"b\"}}}", MediaMetadata.class);
+        assertSame(first.getTags().keySet().iterator().next(), second.getTags().keySet().iterator().next());
+        // the same instance as the literal, so getters match on the identity check
+        assertSame("composer", first.getTags().keySet().iterator().next());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testTagsAreImmutable() {
+        MediaMetadata metadata = new Gson().fromJson("{\"format\":{\"tags\":{\"title\":\"a\"}}}", MediaMetadata.class);
+        metadata.getTags().put("title", "b");
+    }
+
+    @Test
+    public void testNoTags() {
+        MediaMetadata metadata = new Gson().fromJson("{}", MediaMetadata.class);
+        assertTrue(metadata.getTags().isEmpty());
+        assertEquals("", metadata.getDisc());
+        assertFalse(metadata.isCompilation());
+    }
+}
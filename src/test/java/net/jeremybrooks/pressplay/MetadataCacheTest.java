@@ -0,0 +1,102 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class MetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MediaMetadata loadFixture() throws Exception {
+        InputStream in = MetadataCacheTest.class.getResourceAsStream("/metadata.json");
+        assertNotNull(in);
+        return new Gson().fromJson(IOUtils.toString(in, StandardCharsets.UTF_8), MediaMetadata.class);
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        MetadataCache cache = new MetadataCache();
+        MediaMetadata metadata = loadFixture();
+        cache.putMediaMetadata("https://example.com/cars.mp3", metadata);
+        assertSame(metadata, cache.getIfPresent("https://example.com/cars.mp3"));
+        assertSame(metadata, cache.getMediaMetadata("https://example.com/cars.mp3"));
+        assertNull(cache.getLoudness("https://example.com/cars.mp3"));
+        assertNull(cache.getIfPresent("https://example.com/other.mp3"));
+        assertEquals(1, cache.size());
+        cache.invalidate("https://example.com/cars.mp3");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStaleEntry() throws Exception {
+        Path file = folder.newFile("track.mp3").toPath();
+        Files.write(file, new byte[]{1, 2, 3});
+        MetadataCache cache = new MetadataCache();
+        cache.putMediaMetadata(file.toString(), loadFixture());
+        cache.putLoudness(file.toString(), new Loudness(-10, -1, 3, -20));
+        assertNotNull(cache.getIfPresent(file.toString()));
+
+        Files.write(file, new byte[]{1, 2, 3, 4});
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        assertNull(cache.getIfPresent(file.toString()));
+        assertNull(cache.getLoudness(file.toString()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        MediaMetadata metadata = loadFixture();
+        MetadataCache cache = new MetadataCache();
+        for (int i = 0; i < 100; i++) {
+            cache.putMediaMetadata("https://example.com/" + i + ".mp3", metadata);
+        }
+        cache.putLoudness("https://example.com/5.mp3", new Loudness(-10, -1, 3, -20));
+        Path file = folder.getRoot().toPath().resolve("cache.ppmc");
+        cache.save(file);
+
+        MetadataCache loaded = MetadataCache.load(file);
+        assertEquals(100, loaded.size());
+        assertEquals(metadata.toString(), loaded.getIfPresent("https://example.com/42.mp3").toString());
+        assertEquals(-10, loaded.getLoudness("https://example.com/5.mp3").getIntegrated(), 0);
+        assertNull(loaded.getLoudness("https://example.com/6.mp3"));
+    }
+
+    @Test
+    public void testLoadMissingOrInvalid() throws Exception {
+        assertEquals(0, MetadataCache.load(folder.getRoot().toPath().resolve("missing")).size());
+        Path file = folder.newFile("invalid").toPath();
+        Files.write(file, "not a cache".getBytes());
+        assertEquals(0, MetadataCache.load(file).size());
+    }
+}
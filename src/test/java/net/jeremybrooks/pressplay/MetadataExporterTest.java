@@ -0,0 +1,146 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class MetadataExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetadataCache cache() throws Exception {
+        InputStream in = MetadataExporterTest.class.getResourceAsStream("/metadata.json");
+        assertNotNull(in);
+        MediaMetadata metadata = new Gson().fromJson(IOUtils.toString(in, StandardCharsets.UTF_8), MediaMetadata.class);
+        MediaMetadata other = new Gson().fromJson(
+                "{\"format\":{\"tags\":{\"title\":\"Say \\\"Hi\\\", world\",\"composer\":\"Someone\"}}}", MediaMetadata.class);
+        MetadataCache cache = new MetadataCache();
+        cache.putMediaMetadata("https://example.com/cars.mp3", metadata);
+        cache.putLoudness("https://example.com/cars.mp3", new Loudness(-14.5, -0.3, 6.0, -24.7));
+        cache.putContentHash("https://example.com/cars.mp3", "abc123");
+        cache.putMediaMetadata("https://example.com/other.mp3", other);
+        // loudness without metadata is not exported
+        cache.putLoudness("https://example.com/none.mp3", new Loudness(-20, -1, 5, -30));
+        return cache;
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("export.jsonl");
+        long count = new MetadataExporter.Builder().build().export(cache(), file);
+        assertEquals(2, count);
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        for (String line : lines) {
+            JsonObject object = new Gson().fromJson(line, JsonObject.class);
+            String media = object.get("media").getAsString();
+            MediaMetadata metadata = new Gson().fromJson(object.get("metadata"), MediaMetadata.class);
+            if (media.endsWith("cars.mp3")) {
+                assertEquals("Cars", metadata.getTitle());
+                assertEquals(-14.5, object.getAsJsonObject("loudness").get("integrated").getAsDouble(), 0.0);
+                assertEquals("abc123", object.get("content_hash").getAsString());
+            } else {
+                assertEquals("Someone", metadata.getTag("composer"));
+                assertFalse(object.has("loudness"));
+            }
+        }
+    }
+
+    @Test
+    public void testCsvGzip() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("export.csv.gz");
+        long count = new MetadataExporter.Builder()
+                .format(MetadataExporter.Format.CSV)
+                .tagColumns("composer")
+                .gzip()
+                .build()
+                .export(cache(), file);
+        assertEquals(2, count);
+        String csv;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            csv = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        String[] rows = csv.split("\r\n");
+        assertEquals(3, rows.length);
+        assertTrue(rows[0].startsWith("media,filename,format_name,duration"));
+        assertTrue(rows[0].endsWith(",content_hash,composer"));
+        for (int i = 1; i < rows.length; i++) {
+            if (rows[i].startsWith("https://example.com/cars.mp3")) {
+                assertTrue(rows[i].contains(",Cars,Gary Numan,"));
+                assertTrue(rows[i].contains(",-14.5,-0.3,6.0,abc123,"));
+            } else {
+                assertTrue(rows[i].contains(",\"Say \"\"Hi\"\", world\","));
+                assertTrue(rows[i].endsWith(",Someone"));
+            }
+        }
+    }
+
+    @Test
+    public void testStaleEntriesAreNotExported() throws Exception {
+        MetadataCache cache = cache();
+        Path media = folder.newFile("track.mp3").toPath();
+        cache.putMediaMetadata(media.toString(), new MediaMetadata());
+        Path file = folder.getRoot().toPath().resolve("export.jsonl");
+        assertEquals(3, new MetadataExporter.Builder().build().export(cache, file));
+
+        // retagging the file changes its size
+        Files.write(media, new byte[16]);
+        assertEquals(2, new MetadataExporter.Builder().build().export(cache, file));
+        assertFalse(cache.keys().contains(media.toString()));
+    }
+
+    @Test
+    public void testNullCacheLeavesFileAndClosesChannel() throws Exception {
+        MetadataExporter exporter = new MetadataExporter.Builder().build();
+        Path file = folder.getRoot().toPath().resolve("export.jsonl");
+        Files.write(file, "existing".getBytes(StandardCharsets.UTF_8));
+        try {
+            exporter.export(null, file);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertEquals("existing", new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+
+        FileChannel channel = FileChannel.open(folder.newFile().toPath(), StandardOpenOption.WRITE);
+        try {
+            exporter.export(null, channel);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            assertFalse(channel.isOpen());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MetadataPublisherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class TestSubscriber implements Flow.Subscriber<MediaMetadata> {
+        final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(MediaMetadata item) {
+            received.add(item.getFilename());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+
+    /* Cache with metadata for the media, so nothing needs to be probed. */
+    private static MetadataCache cache(List<String> media) {
+        MetadataCache cache = new MetadataCache();
+        for (String item : media) {
+            String json = "{\"format\":{\"filename\":\"" + item + "\"}}";
+            cache.putMediaMetadata(item, new Gson().fromJson(json, MediaMetadata.class));
+        }
+        return cache;
+    }
+
+    private static List<String> media(int count) {
+        List<String> media = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            media.add("https://example.com/" + i + ".mp3");
+        }
+        return media;
+    }
+
+    @Test
+    public void testRespectsDemand() throws Exception {
+        List<String> media = media(5);
+        AtomicInteger pulled = new AtomicInteger();
+        Iterable<String> source = () -> {
+            Iterator<String> iterator = media.iterator();
+            return new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    pulled.incrementAndGet();
+                    return iterator.next();
+                }
+            };
+        };
+        MetadataPublisher publisher = new MetadataPublisher.Builder()
+                .media(source)
+                .metadataCache(cache(media))
+                .build();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        assertEquals(0, pulled.get());
+        assertTrue(subscriber.received.isEmpty());
+
+        subscriber.subscription.request(2);
+        assertEquals(media.subList(0, 2), subscriber.received);
+        assertEquals(2, pulled.get());
+        assertFalse(subscriber.completed);
+
+        subscriber.subscription.request(10);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertEquals(media, subscriber.received);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        List<String> media = media(5);
+        MetadataPublisher publisher = new MetadataPublisher.Builder()
+                .media(media)
+                .metadataCache(cache(media))
+                .build();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        assertEquals(1, subscriber.received.size());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testCancelDestroysRunningProbe() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path bin = folder.newFolder("bin").toPath();
+        Path pidFile = folder.getRoot().toPath().resolve("ffprobe.pid");
+        Path ffprobe = bin.resolve("ffprobe");
+        String script = "#!/bin/sh\n"
+                + "case \"$*\" in *-version*) echo 'ffprobe version 6.1.1 Copyright'; exit 0 ;; esac\n"
+                + "echo $$ > '" + pidFile + "'\n"
+                + "exec sleep 60\n";
+        Files.write(ffprobe, script.getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(ffprobe, PosixFilePermissions.fromString("rwxr-xr-x"));
+        String previous = System.getProperty("pressplay.ffmpeg.path");
+        System.setProperty("pressplay.ffmpeg.path", bin.toString());
+        try {
+            FFmpegTools.refresh();
+            MetadataPublisher publisher = new MetadataPublisher.Builder()
+                    .media(Collections.singletonList("/music/slow.mp3"))
+                    .build();
+            TestSubscriber subscriber = new TestSubscriber();
+            publisher.subscribe(subscriber);
+            subscriber.subscription.request(1);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((!Files.exists(pidFile) || Files.size(pidFile) == 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            long pid = Long.parseLong(new String(Files.readAllBytes(pidFile), StandardCharsets.UTF_8).trim());
+            ProcessHandle process = ProcessHandle.of(pid).orElseThrow(AssertionError::new);
+            assertTrue(process.isAlive());
+
+            subscriber.subscription.cancel();
+            assertTrue(process.onExit().get(5, TimeUnit.SECONDS) != null);
+            assertFalse(process.isAlive());
+            assertTrue(subscriber.received.isEmpty());
+            assertNull(subscriber.error);
+        } finally {
+            if (previous == null) {
+                System.clearProperty("pressplay.ffmpeg.path");
+            } else {
+                System.setProperty("pressplay.ffmpeg.path", previous);
+            }
+            FFmpegTools.refresh();
+        }
+    }
+
+    @Test
+    public void testFailedProbesAreSkipped() throws Exception {
+        List<String> media = media(2);
+        List<String> all = new ArrayList<>(media);
+        // not in the cache, and there is no ffprobe to probe it
+        all.add(1, "/no/such/file.mp3");
+        MetadataPublisher publisher = new MetadataPublisher.Builder()
+                .media(all)
+                .concurrency(1)
+                .metadataCache(cache(media))
+                .build();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+        assertTrue(subscriber.completed);
+        assertEquals(media, subscriber.received);
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        MetadataPublisher publisher = new MetadataPublisher.Builder()
+                .media(media(1))
+                .build();
+        TestSubscriber subscriber = new TestSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+public class PipedMediaTest {
+
+    @Test
+    public void testToString() {
+        PipedMedia media = PipedMedia.of(ByteBuffer.allocate(0));
+        assertEquals("pipe:0", media.toString());
+    }
+
+    @Test
+    public void testRepeatable() throws Exception {
+        assertTrue(PipedMedia.of(ByteBuffer.allocate(10)).isRepeatable());
+        assertFalse(PipedMedia.of(new ByteArrayInputStream(new byte[10])).isRepeatable());
+        assertFalse(PipedMedia.of(Channels.newChannel(new ByteArrayInputStream(new byte[10]))).isRepeatable());
+    }
+
+    @Test
+    public void testTransferByteBuffer() throws Exception {
+        byte[] data = "some media data".getBytes();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        PipedMedia media = PipedMedia.of(buffer);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            media.transfer(out);
+            assertArrayEquals(data, out.toByteArray());
+        }
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testTransferInputStream() throws Exception {
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        PipedMedia media = PipedMedia.of(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        media.transfer(out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testTransferFileChannel() throws Exception {
+        URL url = PipedMediaTest.class.getResource("/test-tracks-no-disc.mp3");
+        assertNotNull(url);
+        Path path = Paths.get(url.toURI());
+        byte[] data = Files.readAllBytes(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(1000);
+            PipedMedia media = PipedMedia.of(channel);
+            assertTrue(media.isRepeatable());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            media.transfer(out);
+            byte[] copy = out.toByteArray();
+            assertEquals(data.length - 1000, copy.length);
+            assertEquals(data[1000], copy[0]);
+            assertEquals(data[data.length - 1], copy[copy.length - 1]);
+        }
+    }
+
+    @Test
+    public void testTransferFileRegionWithHeader() throws Exception {
+        Path path = Paths.get(PipedMediaTest.class.getResource("/test-tracks-no-disc.mp3").toURI());
+        byte[] data = Files.readAllBytes(path);
+        byte[] header = {'f', 'L', 'a', 'C'};
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            PipedMedia media = PipedMedia.of(channel, header, 5000);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            media.transfer(out);
+            byte[] copy = out.toByteArray();
+            assertEquals(header.length + data.length - 5000, copy.length);
+            assertEquals('C', copy[3]);
+            assertEquals(data[5000], copy[4]);
+            assertTrue(channel.isOpen());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PrefetcherTest {
+
+    private Path resource(String name) throws Exception {
+        URL url = PrefetcherTest.class.getResource(name);
+        assertNotNull(url);
+        return Paths.get(url.toURI());
+    }
+
+    @Test
+    public void testSeekOffsetFromBitRate() {
+        MediaMetadata metadata = new Gson().fromJson(
+                "{\"format\":{\"duration\":\"100.0\",\"bit_rate\":\"128000\"}}", MediaMetadata.class);
+        assertEquals(160000, Prefetcher.seekOffset(metadata, Duration.ofSeconds(10), 10_000_000));
+        assertEquals(0, Prefetcher.seekOffset(metadata, Duration.ZERO, 10_000_000));
+        assertEquals(1000, Prefetcher.seekOffset(metadata, Duration.ofSeconds(10), 1000));
+    }
+
+    @Test
+    public void testSeekOffsetFromDuration() {
+        MediaMetadata metadata = new Gson().fromJson("{\"format\":{\"duration\":\"100.0\"}}", MediaMetadata.class);
+        assertEquals(250000, Prefetcher.seekOffset(metadata, Duration.ofSeconds(25), 1_000_000));
+        assertEquals(0, Prefetcher.seekOffset(null, Duration.ofSeconds(25), 1_000_000));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        FFPlay<Path> one = new FFPlay.Builder<Path>()
+                .media(resource("/test-tracks-no-disc.mp3"))
+                .noMetadata()
+                .build();
+        FFPlay<String> two = new FFPlay.Builder<String>()
+                .media(resource("/test-discs-no-tracks.mp3").toString())
+                .noMetadata()
+                .build();
+        FFPlay<String> missing = new FFPlay.Builder<String>()
+                .media("https://example.com/missing.mp3")
+                .noMetadata()
+                .build();
+        try (Prefetcher prefetcher = new Prefetcher.Builder()
+                .leadingBytes(100_000)
+                .byteBudget(150_000)
+                .build()) {
+            prefetcher.setUpcoming(Arrays.asList(missing, one, two));
+            assertTrue(prefetcher.awaitIdle(Duration.ofSeconds(10)));
+            assertEquals(150_000, prefetcher.getBytesPrefetched());
+
+            prefetcher.setUpcoming(Collections.emptyList());
+            assertTrue(prefetcher.awaitIdle(Duration.ofSeconds(10)));
+            assertEquals(150_000, prefetcher.getBytesPrefetched());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PreviewCacheTest {
+
+    private static final String MEDIA = "src/test/resources/test-tracks-no-disc.mp3";
+    private static final String OTHER = "src/test/resources/test-various-artists.mp3";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testOffset() {
+        Duration clip = Duration.ofSeconds(30);
+        assertEquals(Duration.ofMillis(79200), PreviewCache.offset(Duration.ofSeconds(240), clip, 0.33));
+        assertEquals(Duration.ofSeconds(10), PreviewCache.offset(Duration.ofSeconds(40), clip, 0.33));
+        assertEquals(Duration.ZERO, PreviewCache.offset(Duration.ofSeconds(20), clip, 0.33));
+        assertEquals(Duration.ZERO, PreviewCache.offset(Duration.ofSeconds(240), clip, 0));
+    }
+
+    @Test
+    public void testKeyChangesWithSettings() throws Exception {
+        Path directory = folder.newFolder("previews").toPath();
+        PreviewCache first = new PreviewCache.Builder().directory(directory).build();
+        PreviewCache same = new PreviewCache.Builder().directory(directory).build();
+        PreviewCache shorter = new PreviewCache.Builder().directory(directory).clipLength(Duration.ofSeconds(15)).build();
+        assertEquals(first.clipKey(MEDIA), same.clipKey(MEDIA));
+        assertNotEquals(first.clipKey(MEDIA), shorter.clipKey(MEDIA));
+        assertNotEquals(first.clipKey(MEDIA), first.clipKey("src/test/resources/test-various-artists.mp3"));
+    }
+
+    @Test
+    public void testPlaysCachedClip() throws Exception {
+        Path directory = folder.newFolder("previews").toPath();
+        String key = new PreviewCache.Builder().directory(directory).build().clipKey(MEDIA);
+        new DiskCache(directory, 1024 * 1024).put(key, new byte[1000]);
+
+        PreviewCache previews = new PreviewCache.Builder().directory(directory).build();
+        Path clip = previews.getClipIfPresent(MEDIA);
+        assertNotNull(clip);
+        assertEquals(clip, previews.getClip(MEDIA));
+        FFPlay<String> player = previews.getPlayer(MEDIA);
+        assertEquals(clip.toString(), player.getMedia());
+        assertEquals(Duration.ZERO, player.getSeekTime());
+        // so ffplay exits at the end of the clip
+        assertEquals(Duration.ofSeconds(30), player.getDuration());
+
+        previews.invalidate(MEDIA);
+        assertNull(previews.getClipIfPresent(MEDIA));
+    }
+
+    @Test
+    public void testBackgroundRenderRunsOnce() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        Path bin = folder.newFolder("bin").toPath();
+        Path renders = folder.getRoot().toPath().resolve("renders");
+        Path running = folder.getRoot().toPath().resolve("running");
+        String ffprobe = "#!/bin/sh\n"
+                + "case \"$*\" in *-version*) echo 'ffprobe version 6.1.1 Copyright'; exit 0 ;; esac\n"
+                + "echo '{\"format\":{\"duration\":\"120.0\"}}'\n";
+        String ffmpeg = "#!/bin/sh\n"
+                + "case \"$*\" in *-version*) echo 'ffmpeg version 6.1.1 Copyright'; exit 0 ;; esac\n"
+                + "case \"$*\" in *-nostdin*) ;; *) exit 0 ;; esac\n"
+                + "mkdir '" + running + "' 2> /dev/null || echo overlap >> '" + renders + "'\n"
+                + "echo render >> '" + renders + "'\n"
+                + "sleep 2\n"
+                + "for last; do :; done\n"
+                + "echo clip > \"$last\"\n"
+                + "rmdir '" + running + "'\n";
+        Files.write(bin.resolve("ffprobe"), ffprobe.getBytes(StandardCharsets.UTF_8));
+        Files.write(bin.resolve("ffmpeg"), ffmpeg.getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(bin.resolve("ffprobe"), PosixFilePermissions.fromString("rwxr-xr-x"));
+        Files.setPosixFilePermissions(bin.resolve("ffmpeg"), PosixFilePermissions.fromString("rwxr-xr-x"));
+        String previous = System.getProperty("pressplay.ffmpeg.path");
+        System.setProperty("pressplay.ffmpeg.path", bin.toString());
+        try {
+            FFmpegTools.refresh();
+            PreviewCache previews = new PreviewCache.Builder()
+                    .directory(folder.newFolder("previews").toPath())
+                    .concurrency(1)
+                    .build();
+            long threads = previewThreads();
+            for (int i = 0; i < 5; i++) {
+                assertEquals(MEDIA, previews.getPlayer(MEDIA).getMedia());
+                assertEquals(OTHER, previews.getPlayer(OTHER).getMedia());
+            }
+            // a single thread renders in the background, however many players are requested
+            assertTrue(previewThreads() - threads <= 1);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((previews.getClipIfPresent(MEDIA) == null || previews.getClipIfPresent(OTHER) == null)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertNotNull(previews.getClipIfPresent(MEDIA));
+            assertNotNull(previews.getClipIfPresent(OTHER));
+            // one render of each, never two at the same time
+            assertEquals(Arrays.asList("render", "render"), Files.readAllLines(renders));
+        } finally {
+            if (previous == null) {
+                System.clearProperty("pressplay.ffmpeg.path");
+            } else {
+                System.setProperty("pressplay.ffmpeg.path", previous);
+            }
+            FFmpegTools.refresh();
+        }
+    }
+
+    private static long previewThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("pressplay-preview"))
+                .count();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoDirectory() throws Exception {
+        new PreviewCache.Builder().build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidStart() throws Exception {
+        new PreviewCache.Builder().directory(folder.getRoot().toPath()).start(1.5).build();
+    }
+}
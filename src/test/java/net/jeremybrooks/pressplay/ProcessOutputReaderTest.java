@@ -0,0 +1,78 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ProcessOutputReaderTest {
+
+    @Test
+    public void testChildHoldingStreamOpen() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        // the background sleep inherits standard output, and keeps it open after the shell exits
+        Process holder = new ProcessBuilder("sh", "-c", "echo first; sleep 30 &").start();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        CountDownLatch firstDone = ProcessOutputReader.getInstance()
+                .register(holder, holder.getInputStream(), first::write);
+        assertTrue(holder.waitFor(5, TimeUnit.SECONDS));
+        assertTrue(firstDone.await(5, TimeUnit.SECONDS));
+        assertEquals("first\n", new String(first.toByteArray(), StandardCharsets.UTF_8));
+
+        // output of other processes is still read
+        Process other = new ProcessBuilder("sh", "-c", "echo second").start();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        CountDownLatch secondDone = ProcessOutputReader.getInstance()
+                .register(other, other.getInputStream(), second::write);
+        assertTrue(secondDone.await(5, TimeUnit.SECONDS));
+        assertEquals("second\n", new String(second.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParksWhenIdle() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        for (int i = 0; i < 2; i++) {
+            Process process = new ProcessBuilder("sh", "-c", "echo output").start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            CountDownLatch done = ProcessOutputReader.getInstance()
+                    .register(process, process.getInputStream(), output::write);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals("output\n", new String(output.toByteArray(), StandardCharsets.UTF_8));
+
+            // with nothing registered, the thread waits without polling, until the next registration
+            Thread reader = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().equals("pressplay-output-reader"))
+                    .findFirst()
+                    .orElseThrow(AssertionError::new);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (reader.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, reader.getState());
+        }
+    }
+}
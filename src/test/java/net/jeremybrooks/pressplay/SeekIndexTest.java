@@ -0,0 +1,168 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class SeekIndexTest {
+
+    private static final String MEDIA = "src/test/resources/test-tracks-no-disc.mp3";
+    private static final int FRAME_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testScanMp3() throws Exception {
+        SeekIndex index = SeekIndexer.scan(Paths.get(MEDIA), 1000);
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(MEDIA)));
+        // 3983 frames of 1152 samples at 44.1kHz, after a 10261 byte ID3v2 tag
+        assertEquals(3983L * 1152 * 1000 / 44100, index.getDuration().toMillis());
+        assertEquals(105, index.size());
+        assertEquals(data.limit(), index.getFileSize());
+        assertTrue(index.getStamp().matches(MetadataCache.FileStamp.of(MEDIA)));
+        assertEquals(10261, index.getOffset(Duration.ZERO));
+        for (int i = 0; i < index.size(); i++) {
+            assertNotEquals(0, SeekIndexer.mp3FrameLength(data, (int) index.getOffset(i)));
+        }
+        Duration frameTime = index.getFrameTime(Duration.ofSeconds(60));
+        assertTrue(frameTime.compareTo(Duration.ofSeconds(60)) <= 0);
+        assertTrue(frameTime.compareTo(Duration.ofMillis(59900)) > 0);
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        SeekIndex index = SeekIndexer.scan(Paths.get(MEDIA), 1000);
+        assertEquals(0, index.find(Duration.ofSeconds(-5)));
+        assertEquals(0, index.find(Duration.ofMillis(500)));
+        assertEquals(index.size() - 1, index.find(Duration.ofHours(1)));
+        assertTrue(index.getSamples(index.find(Duration.ofSeconds(30))) <= 30 * 44100);
+        assertTrue(index.getSamples(index.find(Duration.ofSeconds(30)) + 1) > 30 * 44100);
+    }
+
+    @Test
+    public void testScanFlac() {
+        ByteBuffer flac = flac(30);
+        SeekIndex index = SeekIndexer.scanFlac(flac, 0, flac.limit(), 1000, stamp(flac));
+        assertNotNull(index);
+        assertEquals(SeekIndex.Type.FLAC, index.getType());
+        assertEquals(30L * 4096 * 1000 / 44100, index.getDuration().toMillis());
+        // frames 0, 11 and 22 are the first at or after each second
+        assertEquals(3, index.size());
+        assertEquals(11 * 4096, index.getSamples(1));
+        assertEquals(42 + 11 * FRAME_SIZE, index.getOffset(Duration.ofMillis(1500)));
+        byte[] header = index.getHeader();
+        assertEquals(42, header.length);
+        assertEquals((byte) 0x80, header[4]);
+    }
+
+    @Test
+    public void testScanFlacIgnoresFalseHeader() {
+        ByteBuffer flac = flac(30);
+        // audio data in frame 5 that looks like the header of frame 20, with a valid CRC
+        int start = 42 + 5 * FRAME_SIZE + 100;
+        byte[] header = {(byte) 0xFF, (byte) 0xF8, (byte) 0xC9, (byte) 0x18, (byte) 20};
+        for (int i = 0; i < header.length; i++) {
+            flac.put(start + i, header[i]);
+        }
+        flac.put(start + 5, (byte) SeekIndexer.crc8(flac, start, start + 5));
+        long[] frame = new long[2];
+        assertTrue(SeekIndexer.readFlacFrameHeader(flac, start, flac.limit(), 4096, frame));
+
+        SeekIndex index = SeekIndexer.scanFlac(flac, 0, flac.limit(), 1000, stamp(flac));
+        assertEquals(30L * 4096 * 1000 / 44100, index.getDuration().toMillis());
+        assertEquals(3, index.size());
+        assertEquals(42 + 11 * FRAME_SIZE, index.getOffset(Duration.ofMillis(1500)));
+        assertEquals(42 + 22 * FRAME_SIZE, index.getOffset(Duration.ofMillis(2500)));
+    }
+
+    @Test
+    public void testScanFlacResumesAfterDamagedFrame() {
+        ByteBuffer flac = flac(30);
+        // the largest frame is one frame long, and the header of frame 12 is damaged
+        flac.put(8 + 8, (byte) (FRAME_SIZE >> 8));
+        flac.put(8 + 9, (byte) FRAME_SIZE);
+        flac.put(42 + 12 * FRAME_SIZE + 4, (byte) 99);
+
+        SeekIndex index = SeekIndexer.scanFlac(flac, 0, flac.limit(), 1000, stamp(flac));
+        assertEquals(30L * 4096 * 1000 / 44100, index.getDuration().toMillis());
+        assertEquals(3, index.size());
+        assertEquals(42 + 22 * FRAME_SIZE, index.getOffset(Duration.ofMillis(2500)));
+    }
+
+    @Test
+    public void testIndexerUsesCache() throws Exception {
+        MetadataCache cache = new MetadataCache();
+        SeekIndexer indexer = new SeekIndexer.Builder().metadataCache(cache).build();
+        SeekIndex index = indexer.index(MEDIA);
+        assertSame(index, indexer.index(MEDIA));
+        assertSame(index, cache.getSeekIndex(MEDIA));
+
+        Path file = folder.getRoot().toPath().resolve("cache.ppmc");
+        cache.save(file);
+        SeekIndex loaded = MetadataCache.load(file).getSeekIndex(MEDIA);
+        assertNotNull(loaded);
+        assertEquals(index.getDuration(), loaded.getDuration());
+        assertEquals(index.size(), loaded.size());
+        assertTrue(index.getStamp().matches(loaded.getStamp()));
+        assertEquals(index.getOffset(Duration.ofSeconds(42)), loaded.getOffset(Duration.ofSeconds(42)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidInterval() {
+        new SeekIndexer.Builder().interval(Duration.ZERO).build();
+    }
+
+    private static MetadataCache.FileStamp stamp(ByteBuffer buffer) {
+        return new MetadataCache.FileStamp(buffer.limit(), 0);
+    }
+
+    /* A FLAC stream with only a stream info block, and frames of 4096 samples with empty payloads. */
+    private static ByteBuffer flac(int frames) {
+        ByteBuffer buffer = ByteBuffer.allocate(42 + frames * FRAME_SIZE);
+        buffer.put(new byte[]{'f', 'L', 'a', 'C', (byte) 0x80, 0, 0, 34});
+        buffer.putShort((short) 4096);
+        buffer.putShort((short) 4096);
+        buffer.put(new byte[6]);
+        // 44100Hz, 2 channels, 16 bits
+        buffer.put(new byte[]{(byte) 0x0A, (byte) 0xC4, (byte) 0x42, (byte) 0xF0});
+        buffer.put(new byte[20]);
+        for (int i = 0; i < frames; i++) {
+            int start = buffer.position();
+            buffer.put(new byte[]{(byte) 0xFF, (byte) 0xF8, (byte) 0xC9, (byte) 0x18, (byte) i});
+            buffer.put((byte) SeekIndexer.crc8(buffer, start, start + 5));
+            // a false sync code with the wrong CRC
+            buffer.put(new byte[]{(byte) 0xFF, (byte) 0xF8, (byte) 0xC9, (byte) 0x18, (byte) 100, 0});
+            buffer.position(start + FRAME_SIZE);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.jeremybrooks.pressplay;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/*
+ * Runs the ThreadSupport tests against the packaged multi-release jar, where JDK 21 loads the
+ * Java 21 classes, so VIRTUAL mode really uses virtual threads. Run by the java21 profile.
+ */
+public class ThreadSupportIT extends ThreadSupportTest {
+
+    @Test
+    public void testVirtualThreadsAreUsed() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 21);
+        PressPlay.setExecutionMode(ExecutionMode.VIRTUAL);
+        assertTrue(PressPlay.isUsingVirtualThreads());
+        Thread thread = ThreadSupport.newThread("test-virtual", true, () -> {
+        });
+        assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ThreadSupportTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void resetMode() {
+        PressPlay.setExecutionMode(ExecutionMode.PLATFORM);
+    }
+
+    @Test
+    public void testParseExecutionMode() {
+        assertEquals(ExecutionMode.PLATFORM, Settings.parseExecutionMode(null));
+        assertEquals(ExecutionMode.VIRTUAL, Settings.parseExecutionMode(" virtual "));
+        assertEquals(ExecutionMode.PLATFORM, Settings.parseExecutionMode("platform"));
+        assertEquals(ExecutionMode.PLATFORM, Settings.parseExecutionMode("green"));
+    }
+
+    @Test
+    public void testPlatformThread() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = ThreadSupport.newThread("test-thread", false, ran::countDown);
+        assertEquals("test-thread", thread.getName());
+        assertFalse(thread.isDaemon());
+        thread.start();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertFalse(PressPlay.isUsingVirtualThreads());
+    }
+
+    @Test
+    public void testVirtualModeRuns() throws Exception {
+        PressPlay.setExecutionMode(ExecutionMode.VIRTUAL);
+        assertEquals(ThreadSupport.isVirtualThreadSupported(), PressPlay.isUsingVirtualThreads());
+        CountDownLatch ran = new CountDownLatch(1);
+        ThreadSupport.newThread("test-virtual", true, ran::countDown).start();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecutorLimitsConcurrency() throws Exception {
+        ExecutorService executor = ThreadSupport.newExecutor("test-pool", 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try {
+            for (int i = 0; i < 10; i++) {
+                executor.submit(() -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(10);
+                    running.decrementAndGet();
+                    return null;
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertTrue(peak.get() <= 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * More processes than the virtual thread scheduler will add carriers for. Each stub ffprobe
+     * waits until all of them are running, so this only finishes if waiting for a process never
+     * pins a carrier thread.
+     */
+    @Test
+    public void testManyProcessesInVirtualMode() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        int count = 300;
+        Path bin = folder.newFolder("bin").toPath();
+        Path running = folder.newFolder("running").toPath();
+        Path ffprobe = bin.resolve("ffprobe");
+        String script = "#!/bin/sh\n"
+                + "case \"$*\" in *-version*) echo 'ffprobe version 6.1.1 Copyright'; exit 0 ;; esac\n"
+                + "touch '" + running + "/'$$\n"
+                + "i=0\n"
+                + "while set -- '" + running + "'/*; [ $# -lt " + count + " ]; do\n"
+                + "  i=$((i + 1)); [ $i -gt 300 ] && exit 1\n"
+                + "  sleep 0.2\n"
+                + "done\n"
+                + "echo '{\"format\":{\"filename\":\"stub\"}}'\n";
+        Files.write(ffprobe, script.getBytes(StandardCharsets.UTF_8));
+        Files.setPosixFilePermissions(ffprobe, PosixFilePermissions.fromString("rwxr-xr-x"));
+        String previous = System.getProperty("pressplay.ffmpeg.path");
+        System.setProperty("pressplay.ffmpeg.path", bin.toString());
+        PressPlay.setExecutionMode(ExecutionMode.VIRTUAL);
+        ExecutorService executor = ThreadSupport.newExecutor("test-probe", count);
+        try {
+            FFmpegTools.refresh();
+            List<Future<MediaMetadata>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String media = "/music/" + i + ".mp3";
+                results.add(executor.submit(() -> FFProbe.getMediaMetadata(media)));
+            }
+            for (Future<MediaMetadata> result : results) {
+                MediaMetadata metadata = result.get(90, TimeUnit.SECONDS);
+                assertNotNull(metadata);
+                assertEquals("stub", metadata.getFilename());
+            }
+        } finally {
+            executor.shutdownNow();
+            if (previous == null) {
+                System.clearProperty("pressplay.ffmpeg.path");
+            } else {
+                System.setProperty("pressplay.ffmpeg.path", previous);
+            }
+            FFmpegTools.refresh();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMode() {
+        PressPlay.setExecutionMode(null);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * PressPlay is Copyright 2022-2025 by Jeremy Brooks
+ *
+ * This file is part of PressPlay.
+ *
+ * PressPlay is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PressPlay is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PressPlay.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.jeremybrooks.pressplay;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class WaveformTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /* 16 bit little endian PCM where sample i has the value i, or -i for odd i. */
+    private static byte[] pcm(int samples) {
+        byte[] data = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short value = (short) (i % 2 == 0 ? i : -i);
+            data[i * 2] = (byte) value;
+            data[i * 2 + 1] = (byte) (value >> 8);
+        }
+        return data;
+    }
+
+    /* Returns at most 3 bytes per read, so samples are split across reads. */
+    private static InputStream trickle(byte[] data) {
+        return new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+    }
+
+    private Waveform generate(byte[] data, long expectedPeaks) throws Exception {
+        Path file = folder.newFile("peaks.ppwf").toPath();
+        WaveformGenerator generator = new WaveformGenerator.Builder()
+                .sampleRate(8)
+                .samplesPerPeak(4)
+                .build();
+        generator.writePeaks(trickle(data), file, expectedPeaks);
+        return Waveform.open(file);
+    }
+
+    @Test
+    public void testPeaks() throws Exception {
+        try (Waveform waveform = generate(pcm(32), 8)) {
+            assertEquals(8, waveform.getPeakCount());
+            assertEquals(Duration.ofMillis(500), waveform.getPeakDuration());
+            assertEquals(Duration.ofSeconds(4), waveform.getDuration());
+            short[] peaks = waveform.getPeaks(8);
+            assertEquals(16, peaks.length);
+            // first peak holds samples 0, -1, 2, -3
+            assertEquals(-3, peaks[0]);
+            assertEquals(2, peaks[1]);
+            // last peak holds samples 28, -29, 30, -31
+            assertEquals(-31, peaks[14]);
+            assertEquals(30, peaks[15]);
+        }
+    }
+
+    @Test
+    public void testZoomLevels() throws Exception {
+        try (Waveform waveform = generate(pcm(32), 8)) {
+            short[] peaks = waveform.getPeaks(2);
+            assertArrayEquals(new short[]{-15, 14, -31, 30}, peaks);
+            peaks = waveform.getPeaks(1);
+            assertArrayEquals(new short[]{-31, 30}, peaks);
+            peaks = waveform.getPeaks(Duration.ofSeconds(1), Duration.ofSeconds(2), 2);
+            assertArrayEquals(new short[]{-11, 10, -15, 14}, peaks);
+        }
+    }
+
+    @Test
+    public void testGrowsWhenLongerThanExpected() throws Exception {
+        // 10 samples is two full peaks and one partial peak
+        try (Waveform waveform = generate(pcm(10), 1)) {
+            assertEquals(3, waveform.getPeakCount());
+            short[] peaks = waveform.getPeaks(3);
+            assertEquals(-9, peaks[4]);
+            assertEquals(8, peaks[5]);
+        }
+    }
+
+    @Test
+    public void testMoreThanOneBuffer() throws Exception {
+        // enough peaks that writing and reducing them takes several buffers
+        int samples = 160_002;
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+        for (int i = 0; i < samples; i++) {
+            short value = (short) (i % 2 == 0 ? i : -i);
+            min = (short) Math.min(min, value);
+            max = (short) Math.max(max, value);
+        }
+        try (Waveform waveform = generate(pcm(samples), 100)) {
+            assertEquals(40_001, waveform.getPeakCount());
+            assertArrayEquals(new short[]{min, max}, waveform.getPeaks(1));
+            short[] peaks = waveform.getPeaks(40_001);
+            // the last peak holds samples 160000 and -160001, as shorts
+            assertEquals((short) -160_001, peaks[80_000]);
+            assertEquals((short) 160_000, peaks[80_001]);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        try (Waveform waveform = generate(new byte[0], 4)) {
+            assertEquals(0, waveform.getPeakCount());
+            assertArrayEquals(new short[4], waveform.getPeaks(2));
+        }
+    }
+
+    @Test
+    public void testLevels() {
+        assertEquals(1, Waveform.levelsFor(1));
+        assertEquals(4, Waveform.levelsFor(8));
+        assertEquals(4, Waveform.levelsFor(5));
+        assertArrayEquals(new long[]{5, 3, 2, 1}, Waveform.levelCounts(5, 4));
+    }
+
+    @Test
+    public void testCorruptCounts() throws Exception {
+        generate(pcm(64), 16).close();
+        byte[] valid = Files.readAllBytes(folder.getRoot().toPath().resolve("peaks.ppwf"));
+        // the peak count is at offset 16, and the number of levels at offset 24
+        assertCorrupt(ByteBuffer.wrap(valid.clone()).putInt(24, Integer.MAX_VALUE).array());
+        assertCorrupt(ByteBuffer.wrap(valid.clone()).putInt(24, -1).array());
+        assertCorrupt(ByteBuffer.wrap(valid.clone()).putInt(24, 0).array());
+        assertCorrupt(ByteBuffer.wrap(valid.clone()).putLong(16, -1).array());
+        assertCorrupt(ByteBuffer.wrap(valid.clone()).putLong(16, Long.MAX_VALUE).array());
+    }
+
+    private void assertCorrupt(byte[] data) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, data);
+        try {
+            Waveform.open(file).close();
+            fail("Opened a corrupt peaks file.");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testNotPeaksFile() throws Exception {
+        Path file = folder.newFile("bad.ppwf").toPath();
+        Files.write(file, new byte[64]);
+        Waveform.open(file);
+    }
+}